@@ -0,0 +1,146 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+
+// JSON vs compact binary for the two payloads on the hot path:
+//   - PaymentEvent on Kafka (JsonSerializer/JsonDeserializer vs binary codec)
+//   - PaymentResponse in Redis (GenericJackson2JsonRedisSerializer, i.e. what RedisConfig
+//     used before the typed template, vs PaymentResponseRedisSerializer)
+// Run with -prof gc: the allocation rate per op matters as much as the time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    private static final String TOPIC = "payment-events";
+
+    private JsonSerializer<PaymentEvent> kafkaJsonSerializer;
+    private JsonDeserializer<PaymentEvent> kafkaJsonDeserializer;
+    private PaymentEventBinarySerializer kafkaBinarySerializer;
+    private PaymentEventDeserializer kafkaBinaryDeserializer;
+
+    private GenericJackson2JsonRedisSerializer redisJsonSerializer;
+    private PaymentResponseRedisSerializer redisCompactSerializer;
+
+    private PaymentEvent event;
+    private PaymentResponse response;
+    private byte[] eventJson;
+    private byte[] eventBinary;
+    private byte[] responseJson;
+    private byte[] responseCompact;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        kafkaJsonSerializer = new JsonSerializer<>();
+        kafkaJsonDeserializer = new JsonDeserializer<>(PaymentEvent.class, false);
+        kafkaBinarySerializer = new PaymentEventBinarySerializer();
+        kafkaBinaryDeserializer = new PaymentEventDeserializer();
+
+        // Same mapper setup as RedisConfig
+        redisJsonSerializer = new GenericJackson2JsonRedisSerializer(JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build());
+        redisCompactSerializer = new PaymentResponseRedisSerializer();
+
+        String transactionId = UUID.randomUUID().toString();
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        event = PaymentEvent.builder()
+                .transactionId(transactionId)
+                .idempotencyKey("order-7f3a9c21-0001")
+                .amount(new BigDecimal("1250.75"))
+                .currency("USD")
+                .sourceAccount("ACC-100200300")
+                .destinationAccount("ACC-900800700")
+                .status(PaymentStatus.PENDING)
+                .timestamp(now)
+                .retryCount(0)
+                .build();
+        response = PaymentResponse.builder()
+                .transactionId(transactionId)
+                .idempotencyKey("order-7f3a9c21-0001")
+                .amount(new BigDecimal("1250.75"))
+                .currency("USD")
+                .status(PaymentStatus.SUCCESS)
+                .createdAt(now)
+                .processedAt(now)
+                .message("Payment completed successfully")
+                .build();
+
+        eventJson = kafkaJsonSerializer.serialize(TOPIC, event);
+        eventBinary = kafkaBinarySerializer.serialize(TOPIC, event);
+        responseJson = redisJsonSerializer.serialize(response);
+        responseCompact = redisCompactSerializer.serialize(response);
+
+        System.out.printf("%nPaymentEvent: json=%d bytes, binary=%d bytes%n", eventJson.length, eventBinary.length);
+        System.out.printf("PaymentResponse: json=%d bytes, compact=%d bytes%n", responseJson.length, responseCompact.length);
+    }
+
+    @Benchmark
+    public byte[] kafkaSerializeJson() {
+        return kafkaJsonSerializer.serialize(TOPIC, event);
+    }
+
+    @Benchmark
+    public byte[] kafkaSerializeBinary() {
+        return kafkaBinarySerializer.serialize(TOPIC, event);
+    }
+
+    @Benchmark
+    public PaymentEvent kafkaDeserializeJson() {
+        return kafkaJsonDeserializer.deserialize(TOPIC, eventJson);
+    }
+
+    @Benchmark
+    public PaymentEvent kafkaDeserializeBinary() {
+        return kafkaBinaryDeserializer.deserialize(TOPIC, eventBinary);
+    }
+
+    @Benchmark
+    public byte[] redisSerializeJson() {
+        return redisJsonSerializer.serialize(response);
+    }
+
+    @Benchmark
+    public byte[] redisSerializeCompact() {
+        return redisCompactSerializer.serialize(response);
+    }
+
+    @Benchmark
+    public Object redisDeserializeJson() {
+        return redisJsonSerializer.deserialize(responseJson);
+    }
+
+    @Benchmark
+    public PaymentResponse redisDeserializeCompact() {
+        return redisCompactSerializer.deserialize(responseCompact);
+    }
+}
@@ -0,0 +1,132 @@
+package com.paymenttech.PaymentProcessor.config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+// How many concurrent blocking requests a node absorbs per threading model.
+// Each simulated request does what processPayment does on the wire: a Redis round trip,
+// a DB section bounded by the connection pool, and a Kafka send, all as blocking waits.
+//
+//   platform → fixed pool of 200 threads (Tomcat's default server.tomcat.threads.max)
+//   virtual  → one virtual thread per request (spring.threads.virtual.enabled=true)
+//
+// pinned=true does the waits inside synchronized, which is what a synchronized JDBC
+// driver path looks like on Java 21: the virtual threads pin their carriers and capacity
+// collapses to roughly #cores concurrent requests.
+//
+// Virtual threads need Java 21: build and run with -Pjava21,benchmarks on a JDK 21.
+//   mvn -Pjava21,benchmarks test-compile exec:exec -Djmh.args="ThreadingModelBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ThreadingModelBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({ "platform", "virtual" })
+    public String threads;
+
+    // Requests in flight at once
+    @Param({ "1000", "5000" })
+    public int requests;
+
+    // Hikari maximum-pool-size. With 10 the pool is the bottleneck for both models,
+    // 1000 shows the thread-bound capacity
+    @Param({ "10", "1000" })
+    public int dbPoolSize;
+
+    @Param({ "false", "true" })
+    public boolean pinned;
+
+    private ExecutorService platformPool;
+    private SimpleAsyncTaskExecutor virtualExecutor;
+    private Semaphore dbPool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dbPool = new Semaphore(dbPoolSize);
+        if ("virtual".equals(threads)) {
+            if (!JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+                throw new IllegalStateException("virtual threads need Java 21, running on " + JavaVersion.getJavaVersion());
+            }
+            virtualExecutor = new SimpleAsyncTaskExecutor("bench-virtual-");
+            virtualExecutor.setVirtualThreads(true);
+        } else {
+            platformPool = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (platformPool != null) platformPool.shutdownNow();
+    }
+
+    // Time until all requests have completed; requests / score = requests per ms
+    @Benchmark
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            Runnable request = () -> {
+                try {
+                    handle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            };
+            if (virtualExecutor != null) {
+                virtualExecutor.execute(request);
+            } else {
+                platformPool.execute(request);
+            }
+        }
+        done.await();
+    }
+
+    private void handle() throws InterruptedException {
+        if (pinned) {
+            synchronized (new Object()) {
+                blockingCalls();
+            }
+        } else {
+            blockingCalls();
+        }
+    }
+
+    private void blockingCalls() throws InterruptedException {
+        // Redis idempotency lookup
+        Thread.sleep(1);
+        // save payment + transaction
+        dbPool.acquire();
+        try {
+            Thread.sleep(2);
+        } finally {
+            dbPool.release();
+        }
+        // Kafka send + near-cache/Redis write
+        Thread.sleep(1);
+    }
+}
@@ -0,0 +1,133 @@
+package com.paymenttech.PaymentProcessor.domain;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Insert cost and on-disk size of the payments table per id scheme, on a file-backed H2
+// (the database the app runs on), same shape as the entity: id primary key + indexed
+// transactionId, both ids generated per row.
+//   random-string  → UUID.randomUUID() in VARCHAR, what GenerationType.UUID produced
+//   ordered-string → TimeOrderedIds in VARCHAR (payment.ids.storage=string)
+//   ordered-binary → TimeOrderedIds in BINARY(16) (payment.ids.storage=binary)
+// Each op is one JDBC batch of BATCH rows + commit on top of `preloaded` rows, the score is
+// per row. Size (table + both indexes, after a checkpoint) is printed at the end of a trial.
+//
+//   mvn -Pbenchmarks test-compile exec:exec -Djmh.args="IdStorageBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdStorageBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({ "random-string", "ordered-string", "ordered-binary" })
+    private String ids;
+
+    @Param({ "200000" })
+    private int preloaded;
+
+    private Path directory;
+    private Connection connection;
+    private PreparedStatement insert;
+    private long rows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("id-benchmark-");
+        connection = DriverManager.getConnection("jdbc:h2:file:" + directory.resolve("payments"), "sa", "");
+        connection.setAutoCommit(false);
+        String idType = binary() ? "BINARY(16)" : "VARCHAR(255)";
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute("CREATE TABLE payments (id " + idType + " PRIMARY KEY, transaction_id " + idType + " NOT NULL, "
+                    + "amount NUMERIC(38,2) NOT NULL, status VARCHAR(32) NOT NULL, created_at TIMESTAMP NOT NULL)");
+            ddl.execute("CREATE INDEX idx_transaction_id ON payments (transaction_id)");
+        }
+        connection.commit();
+        insert = connection.prepareStatement(
+                "INSERT INTO payments (id, transaction_id, amount, status, created_at) VALUES (?, ?, ?, ?, ?)");
+        for (int i = 0; i < preloaded; i += BATCH) {
+            insertBatch();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CHECKPOINT SYNC");
+            try (ResultSet size = statement.executeQuery("CALL DISK_SPACE_USED('PAYMENTS')")) {
+                size.next();
+                long bytes = size.getLong(1);
+                System.out.printf("%n%s: %d rows, %d KB table + indexes, %.1f bytes/row%n",
+                        ids, rows, bytes / 1024, (double) bytes / rows);
+            }
+        }
+        connection.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert() throws SQLException {
+        insertBatch();
+    }
+
+    private void insertBatch() throws SQLException {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (int i = 0; i < BATCH; i++) {
+            setId(1);
+            setId(2);
+            insert.setBigDecimal(3, BigDecimal.TEN);
+            insert.setString(4, "PENDING");
+            insert.setTimestamp(5, now);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        connection.commit();
+        rows += BATCH;
+    }
+
+    private void setId(int index) throws SQLException {
+        switch (ids) {
+            case "random-string" -> insert.setString(index, UUID.randomUUID().toString());
+            case "ordered-string" -> insert.setString(index, TimeOrderedIds.next());
+            default -> insert.setBytes(index, TimeOrderedIds.toBytes(TimeOrderedIds.next()));
+        }
+    }
+
+    private boolean binary() {
+        return "ordered-binary".equals(ids);
+    }
+}
@@ -0,0 +1,162 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.paymenttech.PaymentProcessor.codec.PaymentResponseRedisSerializer;
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentRequest;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+import com.paymenttech.PaymentProcessor.support.InMemoryRedisTemplate;
+import com.paymenttech.PaymentProcessor.support.InMemoryRepositories;
+import com.paymenttech.PaymentProcessor.support.NoOpTransactionManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// CPU cost of the request path with the network stubbed out: repositories and Redis are
+// in-memory stand-ins, but entity/DTO mapping, the near cache, the Redis value codec and
+// the outbox encoding are the production code. Kafka is off the request path (OutboxRelay).
+//
+//   mvn -Pbenchmarks test-compile exec:exec -Djmh.args="PaymentServiceBenchmark -prof gc"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentServiceBenchmark {
+
+    private final InMemoryRepositories.PaymentStore paymentStore = new InMemoryRepositories.PaymentStore();
+    private final List<OutboxEvent> outboxStore = new ArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private InMemoryRedisTemplate<PaymentResponse> redis;
+    private PaymentServiceImpl paymentService;
+    private IdempotencyService idempotencyService;
+    private PaymentRequest duplicateRequest;
+    private Payment payment;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        redis = new InMemoryRedisTemplate<>(new PaymentResponseRedisSerializer());
+
+        CacheService cacheService = new CacheService(redis, new StringRedisTemplate(),
+                new RedisMessageListenerContainer(), meterRegistry);
+        ReflectionTestUtils.setField(cacheService, "nearCacheMaxSize", 10_000L);
+        ReflectionTestUtils.setField(cacheService, "nearCacheTtlSeconds", 30L);
+        cacheService.initNearCache();
+
+        // No open breakers: measures the lookup every request pays
+        CircuitBreakerService circuitBreakerService = new CircuitBreakerService(null, null, meterRegistry);
+        ReflectionTestUtils.setField(circuitBreakerService, "enabled", true);
+
+        // Token leases from an always-full bucket: measures the in-memory admission path
+        RateLimitService rateLimitService = new RateLimitService(new StringRedisTemplate() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                return (T) List.of(Long.parseLong((String) args[3]), 0L);
+            }
+        }, meterRegistry);
+        ReflectionTestUtils.setField(rateLimitService, "enabled", true);
+        ReflectionTestUtils.setField(rateLimitService, "accountCapacity", 1_000L);
+        ReflectionTestUtils.setField(rateLimitService, "accountRefillPerSecond", 1_000_000.0);
+        ReflectionTestUtils.setField(rateLimitService, "leaseSize", 100L);
+        ReflectionTestUtils.setField(rateLimitService, "leaseMillis", 1_000L);
+        ReflectionTestUtils.setField(rateLimitService, "maxTrackedKeys", 10_000L);
+        rateLimitService.init();
+
+        PaymentMetrics paymentMetrics = new PaymentMetrics(meterRegistry);
+        idempotencyService = new IdempotencyService(InMemoryRepositories.paymentRepository(paymentStore), cacheService,
+                paymentMetrics);
+        ReflectionTestUtils.setField(idempotencyService, "reservationTtlMillis", 30_000L);
+        paymentService = new PaymentServiceImpl(InMemoryRepositories.paymentRepository(paymentStore),
+                InMemoryRepositories.transactionRepository(new HashMap<>()), idempotencyService, cacheService,
+                null, new TransactionTemplate(new NoOpTransactionManager()),
+                new OutboxService(InMemoryRepositories.outboxEventRepository(outboxStore), null), null, circuitBreakerService,
+                rateLimitService, null, paymentMetrics, new PaymentStatsService(null, null, meterRegistry), null, null);
+
+        duplicateRequest = request("bench-duplicate");
+        paymentService.processPayment(duplicateRequest);
+
+        payment = Payment.builder()
+                .id(UUID.randomUUID().toString())
+                .transactionId(UUID.randomUUID().toString())
+                .idempotencyKey("bench-mapping")
+                .amount(new BigDecimal("1250.75"))
+                .currency("USD")
+                .sourceAccount("ACC-100200300")
+                .destinationAccount("ACC-900800700")
+                .status(PaymentStatus.SUCCESS)
+                .createdAt(LocalDateTime.now())
+                .processedAt(LocalDateTime.now())
+                .build();
+    }
+
+    // Unique keys grow the stores without bound; start every iteration from empty
+    @Setup(Level.Iteration)
+    public void resetStores() {
+        paymentStore.clear();
+        outboxStore.clear();
+        redis.clear();
+        paymentService.processPayment(duplicateRequest);
+    }
+
+    @Benchmark
+    public PaymentResponse processNewPayment() {
+        return paymentService.processPayment(request("bench-" + sequence.incrementAndGet()));
+    }
+
+    // Idempotent replay: answered by the near cache
+    @Benchmark
+    public PaymentResponse processDuplicatePayment() {
+        return paymentService.processPayment(duplicateRequest);
+    }
+
+    @Benchmark
+    public PaymentResponse serviceMapToResponse() {
+        return paymentService.mapToResponse(payment);
+    }
+
+    @Benchmark
+    public PaymentResponse idempotencyMapToResponse() {
+        return idempotencyService.mapToResponse(payment);
+    }
+
+    private static PaymentRequest request(String idempotencyKey) {
+        return PaymentRequest.builder()
+                .idempotencyKey(idempotencyKey)
+                .amount(new BigDecimal("1250.75"))
+                .currency("USD")
+                .sourceAccount("ACC-100200300")
+                .destinationAccount("ACC-900800700")
+                .description("benchmark payment")
+                .build();
+    }
+}
@@ -0,0 +1,76 @@
+package com.paymenttech.PaymentProcessor.support;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+// RedisTemplate stand-in that keeps values in a map, but as bytes produced by the
+// configured value serializer, so codec cost stays part of what is measured.
+public class InMemoryRedisTemplate<V> extends RedisTemplate<String, V> {
+
+    private final Map<String, byte[]> store = new ConcurrentHashMap<>();
+    private final ValueOperations<String, V> valueOperations;
+
+    @SuppressWarnings("unchecked")
+    public InMemoryRedisTemplate(RedisSerializer<V> valueSerializer) {
+        setValueSerializer(valueSerializer);
+        this.valueOperations = (ValueOperations<String, V>) Proxy.newProxyInstance(
+                ValueOperations.class.getClassLoader(), new Class<?>[] { ValueOperations.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "get":
+                            return read((String) args[0]);
+                        case "set":
+                            store.put((String) args[0], valueSerializer.serialize((V) args[1]));
+                            return null;
+                        case "multiGet": {
+                            List<V> values = new ArrayList<>();
+                            for (Object key : (Collection<?>) args[0]) {
+                                values.add(read((String) key));
+                            }
+                            return values;
+                        }
+                        default:
+                            return InMemoryRepositories.objectMethod(proxy, method.getName(), args, "ValueOperations");
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private V read(String key) {
+        byte[] bytes = store.get(key);
+        return bytes == null ? null : (V) getValueSerializer().deserialize(bytes);
+    }
+
+    @Override
+    public ValueOperations<String, V> opsForValue() {
+        return valueOperations;
+    }
+
+    // Only CacheService's GET-or-SET reservation script runs through here: args are the
+    // serialized pending value and the TTL, result is the existing value or null.
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, RedisSerializer<?> argsSerializer, RedisSerializer<T> resultSerializer,
+            List<String> keys, Object... args) {
+        byte[] existing = store.putIfAbsent(keys.get(0), (byte[]) args[0]);
+        return existing == null ? null : resultSerializer.deserialize(existing);
+    }
+
+    @Override
+    public Boolean delete(String key) {
+        return store.remove(key) != null;
+    }
+
+    public void clear() {
+        store.clear();
+    }
+}
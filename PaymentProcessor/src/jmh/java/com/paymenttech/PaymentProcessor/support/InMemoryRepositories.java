@@ -0,0 +1,127 @@
+package com.paymenttech.PaymentProcessor.support;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.Transaction;
+import com.paymenttech.PaymentProcessor.repository.OutboxEventRepository;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+import com.paymenttech.PaymentProcessor.repository.TransactionRepository;
+
+// Map-backed stand-ins for the JPA repositories: only the finder/save methods used on the
+// hot paths are implemented, anything else fails loudly so a benchmark can't silently
+// measure a no-op.
+public final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    public static final class PaymentStore {
+        public final Map<String, Payment> byId = new ConcurrentHashMap<>();
+        public final Map<String, Payment> byIdempotencyKey = new ConcurrentHashMap<>();
+        public final Map<String, Payment> byTransactionId = new ConcurrentHashMap<>();
+
+        public void clear() {
+            byId.clear();
+            byIdempotencyKey.clear();
+            byTransactionId.clear();
+        }
+    }
+
+    public static PaymentRepository paymentRepository(PaymentStore store) {
+        return (PaymentRepository) Proxy.newProxyInstance(PaymentRepository.class.getClassLoader(),
+                new Class<?>[] { PaymentRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "save":
+                        case "saveAndFlush": {
+                            Payment payment = (Payment) args[0];
+                            if (payment.getId() == null) {
+                                payment.setId(UUID.randomUUID().toString());
+                            }
+                            store.byId.put(payment.getId(), payment);
+                            store.byIdempotencyKey.put(payment.getIdempotencyKey(), payment);
+                            store.byTransactionId.put(payment.getTransactionId(), payment);
+                            return payment;
+                        }
+                        case "findByIdempotencyKey":
+                            return Optional.ofNullable(store.byIdempotencyKey.get((String) args[0]));
+                        case "findByTransactionId":
+                            return Optional.ofNullable(store.byTransactionId.get((String) args[0]));
+                        case "findByIdempotencyKeyIn": {
+                            List<Payment> found = new ArrayList<>();
+                            for (Object key : (Collection<?>) args[0]) {
+                                Payment payment = store.byIdempotencyKey.get((String) key);
+                                if (payment != null) found.add(payment);
+                            }
+                            return found;
+                        }
+                        default:
+                            return objectMethod(proxy, method.getName(), args, "PaymentRepository");
+                    }
+                });
+    }
+
+    public static TransactionRepository transactionRepository(Map<String, Transaction> store) {
+        return (TransactionRepository) Proxy.newProxyInstance(TransactionRepository.class.getClassLoader(),
+                new Class<?>[] { TransactionRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "save": {
+                            Transaction transaction = (Transaction) args[0];
+                            if (transaction.getId() == null) {
+                                transaction.setId(UUID.randomUUID().toString());
+                            }
+                            store.put(transaction.getId(), transaction);
+                            return transaction;
+                        }
+                        default:
+                            return objectMethod(proxy, method.getName(), args, "TransactionRepository");
+                    }
+                });
+    }
+
+    public static OutboxEventRepository outboxEventRepository(List<OutboxEvent> store) {
+        AtomicLong ids = new AtomicLong();
+        return (OutboxEventRepository) Proxy.newProxyInstance(OutboxEventRepository.class.getClassLoader(),
+                new Class<?>[] { OutboxEventRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "save": {
+                            OutboxEvent row = (OutboxEvent) args[0];
+                            row.setId(ids.incrementAndGet());
+                            store.add(row);
+                            return row;
+                        }
+                        case "saveAll": {
+                            for (Object row : (Iterable<?>) args[0]) {
+                                ((OutboxEvent) row).setId(ids.incrementAndGet());
+                                store.add((OutboxEvent) row);
+                            }
+                            return args[0];
+                        }
+                        default:
+                            return objectMethod(proxy, method.getName(), args, "OutboxEventRepository");
+                    }
+                });
+    }
+
+    static Object objectMethod(Object proxy, String name, Object[] args, String type) {
+        switch (name) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "InMemory" + type;
+            default:
+                throw new UnsupportedOperationException(type + "." + name + " is not implemented by the in-memory stand-in");
+        }
+    }
+}
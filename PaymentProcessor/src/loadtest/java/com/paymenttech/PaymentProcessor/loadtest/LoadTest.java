@@ -0,0 +1,369 @@
+package com.paymenttech.PaymentProcessor.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.paymenttech.PaymentProcessor.PaymentProcessorApplication;
+import com.paymenttech.PaymentProcessor.codec.PaymentResponseRedisSerializer;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+
+import redis.embedded.RedisServer;
+
+// End-to-end load test: the whole application in one JVM against embedded Kafka (KRaft),
+// embedded Redis and in-memory H2, driven over HTTP.
+//
+// Open model: requests are started on an arrival schedule (constant or Poisson) whether or
+// not earlier ones have answered, and latency is measured from the *scheduled* start, so a
+// stalled server shows up in the percentiles instead of slowing the load down (no
+// coordinated omission).
+//
+//   request latency    → scheduled send to HTTP response of POST /api/v1/payments
+//   settlement latency → scheduled send to the payment's SUCCESS / FAILED on payment:settled
+//                        (published by the consumer after its commit); retries included
+//
+// duplicate-ratio of the requests reuse an idempotency key sent earlier; they count in the
+// request latency, not in settlement. The first warmup-seconds are sent but not recorded.
+//
+//   mvn -Ploadtest test-compile exec:exec -Dloadtest.args="rate=500 duration-seconds=60"
+//
+// Options are name=value (or --name=value): rate, arrival (poisson | constant),
+// duration-seconds, warmup-seconds, duplicate-ratio, accounts, max-in-flight,
+// settle-timeout-seconds, output-dir. Any other name=value is passed to the application,
+// e.g. payment.consumer.mode=batch.
+// Results: target/loadtest/result.json (+ .hgrm percentile distributions per histogram).
+public class LoadTest {
+
+    private static final String SETTLED_CHANNEL = "payment:settled";
+
+    private final Map<String, String> options;
+    private final double rate;
+    private final long durationSeconds;
+    private final long warmupSeconds;
+    private final double duplicateRatio;
+    private final int accounts;
+    private final long settleTimeoutSeconds;
+    private final int maxInFlight;
+    private final boolean poisson;
+    private final Path outputDir;
+
+    private final Recorder requestLatency = new Recorder(3);
+    private final Recorder settlementLatency = new Recorder(3);
+    // idempotencyKey → scheduled start (nanoTime) of the recorded, not yet settled payments
+    private final ConcurrentHashMap<String, Long> awaitingSettlement = new ConcurrentHashMap<>();
+    private final List<String> sentKeys = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder settled = new LongAdder();
+    private final LongAdder settledFailed = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private volatile boolean recording;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String option = arg.startsWith("--") ? arg.substring(2) : arg;
+            int separator = option.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(option.substring(0, separator), option.substring(separator + 1));
+        }
+        new LoadTest(options).run();
+        // Kafka / Redis client threads are not all daemons
+        System.exit(0);
+    }
+
+    LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.rate = Double.parseDouble(take("rate", "200"));
+        this.durationSeconds = Long.parseLong(take("duration-seconds", "30"));
+        this.warmupSeconds = Long.parseLong(take("warmup-seconds", "10"));
+        this.duplicateRatio = Double.parseDouble(take("duplicate-ratio", "0.05"));
+        this.accounts = Integer.parseInt(take("accounts", "1000"));
+        this.settleTimeoutSeconds = Long.parseLong(take("settle-timeout-seconds", "60"));
+        this.maxInFlight = Integer.parseInt(take("max-in-flight", "20000"));
+        this.poisson = "poisson".equals(take("arrival", "poisson"));
+        this.outputDir = Path.of(take("output-dir", "target/loadtest"));
+    }
+
+    private String take(String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    void run() throws Exception {
+        EmbeddedKafkaKraftBroker kafka = new EmbeddedKafkaKraftBroker(1, 10,
+                "payment-events", "payment-retry", "payment-dlq");
+        kafka.afterPropertiesSet();
+        int redisPort = freePort();
+        RedisServer redis = new RedisServer(redisPort);
+        redis.start();
+
+        ConfigurableApplicationContext app = null;
+        try {
+            // As command-line arguments, so they override application.yml
+            app = new SpringApplicationBuilder(PaymentProcessorApplication.class)
+                    .run(applicationArguments(kafka.getBrokersAsString(), redisPort));
+            String port = app.getEnvironment().getProperty("local.server.port");
+            String contextPath = app.getEnvironment().getProperty("server.servlet.context-path", "");
+            URI endpoint = URI.create("http://localhost:" + port + contextPath + "/api/v1/payments");
+
+            PaymentResponseRedisSerializer serializer = new PaymentResponseRedisSerializer();
+            app.getBean(RedisMessageListenerContainer.class).addMessageListener(
+                    (message, pattern) -> onSettled(serializer.deserialize(message.getBody())),
+                    new ChannelTopic(SETTLED_CHANNEL));
+
+            Map<String, Object> result = drive(endpoint);
+            writeResults(result);
+        } finally {
+            if (app != null) app.close();
+            redis.stop();
+            kafka.destroy();
+        }
+    }
+
+    // Defaults for a run on one machine; anything given on the command line wins
+    private String[] applicationArguments(String brokers, int redisPort) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("spring.kafka.bootstrap-servers", brokers);
+        properties.put("kafka.bootstrap-servers", brokers);
+        properties.put("spring.data.redis.port", String.valueOf(redisPort));
+        // The harness measures the pipeline, not the quotas
+        properties.put("payment.rate-limit.enabled", "false");
+        properties.put("logging.file.name", outputDir.resolve("application.log").toString());
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.com.paymenttech.PaymentProcessor", "WARN");
+        properties.put("logging.level.org.hibernate.SQL", "WARN");
+        properties.put("logging.level.org.hibernate.orm.jdbc.bind", "WARN");
+        properties.put("logging.level.org.springframework.kafka", "WARN");
+        properties.put("logging.level.org.springframework.data.redis", "WARN");
+        properties.putAll(options);
+        return properties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new);
+    }
+
+    private Map<String, Object> drive(URI endpoint) throws InterruptedException {
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(clientExecutor)
+                .build();
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long measuredSent = 0;
+        long next = start;
+
+        System.out.printf("Load test: %.0f req/s (%s), %ds warmup + %ds, %.1f%% duplicates%n",
+                rate, poisson ? "poisson" : "constant", warmupSeconds, durationSeconds, duplicateRatio * 100);
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            if (!recording && next >= measureFrom) {
+                // Throw away the warmup samples
+                requestLatency.getIntervalHistogram();
+                settlementLatency.getIntervalHistogram();
+                awaitingSettlement.clear();
+                recording = true;
+            }
+            if (recording) measuredSent++;
+            send(client, endpoint, next);
+            next += poisson ? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * intervalNanos) : intervalNanos;
+        }
+        long measuredNanos = end - measureFrom;
+
+        // Let the last requests answer and the outstanding payments settle
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(settleTimeoutSeconds);
+        while ((inFlight.get() > 0 || !awaitingSettlement.isEmpty()) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        recording = false;
+        clientExecutor.shutdownNow();
+
+        Histogram requests = requestLatency.getIntervalHistogram();
+        Histogram settlements = settlementLatency.getIntervalHistogram();
+        writeDistribution("request-latency.hgrm", requests);
+        writeDistribution("settlement-latency.hgrm", settlements);
+
+        double seconds = measuredNanos / 1e9;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timestamp", Instant.now().toString());
+        result.put("config", config());
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("sent", measuredSent);
+        counts.put("completed", requests.getTotalCount());
+        counts.put("accepted", accepted.sum());
+        counts.put("duplicates", duplicates.sum());
+        counts.put("dropped", dropped.sum());
+        Map<String, Long> errorCounts = new LinkedHashMap<>();
+        errors.forEach((kind, count) -> errorCounts.put(kind, count.sum()));
+        counts.put("errors", errorCounts);
+        counts.put("settled", settled.sum());
+        counts.put("settledFailed", settledFailed.sum());
+        counts.put("unsettled", awaitingSettlement.size());
+        result.put("counts", counts);
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        throughput.put("offeredPerSecond", measuredSent / seconds);
+        throughput.put("completedPerSecond", requests.getTotalCount() / seconds);
+        throughput.put("settledPerSecond", settled.sum() / seconds);
+        result.put("throughput", throughput);
+        result.put("requestLatencyMs", percentiles(requests));
+        result.put("settlementLatencyMs", percentiles(settlements));
+        return result;
+    }
+
+    private void send(HttpClient client, URI endpoint, long scheduledNanos) {
+        if (inFlight.get() >= maxInFlight) {
+            // The client can't keep up the schedule; counted instead of silently slowing down
+            if (recording) dropped.increment();
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key;
+        boolean duplicate = !sentKeys.isEmpty() && random.nextDouble() < duplicateRatio;
+        if (duplicate) {
+            key = sentKeys.get(random.nextInt(sentKeys.size()));
+        } else {
+            key = "lt-" + sentKeys.size() + "-" + Long.toHexString(random.nextLong());
+            sentKeys.add(key);
+            if (recording) awaitingSettlement.put(key, scheduledNanos);
+        }
+        int source = random.nextInt(accounts);
+        String body = "{\"idempotencyKey\":\"" + key + "\",\"amount\":" + (1 + random.nextInt(100_000)) / 100.0
+                + ",\"currency\":\"USD\",\"sourceAccount\":\"LT-" + source + "\",\"destinationAccount\":\"LT-"
+                + (source + 1) % accounts + "\",\"description\":\"load test\"}";
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .header("X-API-Key", "loadtest")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        boolean measured = recording;
+        inFlight.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, ex) -> {
+            inFlight.decrementAndGet();
+            if (!measured) return;
+            requestLatency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledNanos)));
+            if (ex != null) {
+                error(ex.getClass().getSimpleName());
+                awaitingSettlement.remove(key);
+            } else if (response.statusCode() == 202) {
+                if (duplicate) duplicates.increment();
+                else accepted.increment();
+            } else {
+                error("http-" + response.statusCode());
+                if (!duplicate) awaitingSettlement.remove(key);
+            }
+        });
+    }
+
+    private void onSettled(PaymentResponse response) {
+        // Nothing after the measurement has been closed, so counts and histograms agree
+        if (!recording) return;
+        if (response.getStatus() != PaymentStatus.SUCCESS && response.getStatus() != PaymentStatus.FAILED) return;
+        Long scheduledNanos = awaitingSettlement.remove(response.getIdempotencyKey());
+        if (scheduledNanos == null) return;
+        settlementLatency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledNanos)));
+        settled.increment();
+        if (response.getStatus() == PaymentStatus.FAILED) settledFailed.increment();
+    }
+
+    private void error(String kind) {
+        errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+    }
+
+    private Map<String, Object> config() {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("rate", rate);
+        config.put("arrival", poisson ? "poisson" : "constant");
+        config.put("durationSeconds", durationSeconds);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("duplicateRatio", duplicateRatio);
+        config.put("accounts", accounts);
+        config.put("maxInFlight", maxInFlight);
+        config.put("applicationProperties", options);
+        config.put("javaVersion", System.getProperty("java.version"));
+        config.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        return config;
+    }
+
+    // Recorded in microseconds, reported in milliseconds
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("count", histogram.getTotalCount());
+        percentiles.put("mean", histogram.getMean() / 1000.0);
+        percentiles.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+        percentiles.put("p90", histogram.getValueAtPercentile(90) / 1000.0);
+        percentiles.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+        percentiles.put("p99_9", histogram.getValueAtPercentile(99.9) / 1000.0);
+        percentiles.put("max", histogram.getMaxValue() / 1000.0);
+        return percentiles;
+    }
+
+    private void writeDistribution(String file, Histogram histogram) {
+        try {
+            Files.createDirectories(outputDir);
+            try (PrintStream out = new PrintStream(Files.newOutputStream(outputDir.resolve(file)))) {
+                histogram.outputPercentileDistribution(out, 1000.0);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write " + file + ": " + e);
+        }
+    }
+
+    private void writeResults(Map<String, Object> result) throws IOException {
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        Files.createDirectories(outputDir);
+        Path file = outputDir.resolve("result.json");
+        mapper.writeValue(file.toFile(), result);
+        System.out.println(mapper.writeValueAsString(result));
+        System.out.println("Results written to " + file.toAbsolutePath());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+// Reads what CompactWriter wrote; see CompactWriter for the encoding rules.
+public final class CompactReader {
+
+    private final byte[] buf;
+    private int pos;
+
+    public CompactReader(byte[] buf, int offset) {
+        this.buf = buf;
+        this.pos = offset;
+    }
+
+    public boolean hasRemaining() {
+        return pos < buf.length;
+    }
+
+    public int readByte() {
+        return buf[pos++] & 0xFF;
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Malformed varint at offset " + pos);
+            }
+            b = buf[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    public long readZigZag() {
+        long raw = readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public String readString() {
+        int length = (int) readVarLong() - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    public BigDecimal readDecimal() {
+        int tag = readByte();
+        switch (tag) {
+            case 0:
+                return null;
+            case 1: {
+                int scale = (int) readZigZag();
+                return BigDecimal.valueOf(readZigZag(), scale);
+            }
+            case 2: {
+                int scale = (int) readZigZag();
+                int length = (int) readVarLong();
+                BigInteger unscaled = new BigInteger(Arrays.copyOfRange(buf, pos, pos + length));
+                pos += length;
+                return new BigDecimal(unscaled, scale);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown decimal tag " + tag);
+        }
+    }
+
+    public LocalDateTime readDateTime() {
+        if (readByte() == 0) {
+            return null;
+        }
+        long epochSecond = readZigZag();
+        int nanos = (int) readVarLong();
+        return LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,110 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+// Minimal binary writer shared by the compact Redis and Kafka codecs.
+//
+// Encoding rules (mirrored by CompactReader):
+//   varint    → unsigned LEB128, 7 bits per byte
+//   string    → varint (byteLength + 1), 0 = null, then UTF-8 bytes
+//   decimal   → tag byte (0 null, 1 long unscaled, 2 big unscaled), zigzag scale, unscaled value
+//   date-time → tag byte (0 null, 1 present), zigzag epoch second (UTC), varint nanos
+//
+// One growable byte[] per message; ASCII strings (ids, currency codes, messages)
+// are copied char by char without an intermediate byte[].
+public final class CompactWriter {
+
+    private byte[] buf;
+    private int pos;
+
+    public CompactWriter(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    public CompactWriter writeByte(int value) {
+        ensure(1);
+        buf[pos++] = (byte) value;
+        return this;
+    }
+
+    public CompactWriter writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return this;
+    }
+
+    public CompactWriter writeZigZag(long value) {
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public CompactWriter writeString(String value) {
+        if (value == null) {
+            return writeVarLong(0);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(utf8.length + 1L);
+                ensure(utf8.length);
+                System.arraycopy(utf8, 0, buf, pos, utf8.length);
+                pos += utf8.length;
+                return this;
+            }
+        }
+        writeVarLong(length + 1L);
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buf[pos++] = (byte) value.charAt(i);
+        }
+        return this;
+    }
+
+    public CompactWriter writeDecimal(BigDecimal value) {
+        if (value == null) {
+            return writeByte(0);
+        }
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() < 64) {
+            writeByte(1);
+            writeZigZag(value.scale());
+            return writeZigZag(unscaled.longValue());
+        }
+        byte[] bytes = unscaled.toByteArray();
+        writeByte(2);
+        writeZigZag(value.scale());
+        writeVarLong(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+        return this;
+    }
+
+    public CompactWriter writeDateTime(LocalDateTime value) {
+        if (value == null) {
+            return writeByte(0);
+        }
+        writeByte(1);
+        writeZigZag(value.toEpochSecond(ZoneOffset.UTC));
+        return writeVarLong(value.getNano());
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    private void ensure(int extra) {
+        if (pos + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+// Compact binary value format for PaymentEvent on payment-events / payment-retry / payment-dlq.
+//
+// Layout (version 1):
+//   0xC6 magic | version | transactionId | idempotencyKey | amount | currency
+//   | sourceAccount | destinationAccount | status (0 = null, ordinal + 1)
+//   | timestamp | retryCount (zigzag) | failureReason
+//
+// Schema evolution rules:
+//   - fields are never removed or reordered; new fields are appended and bump VERSION
+//   - backward: a newer reader fills fields missing from an older message with defaults
+//   - forward: an older reader reads the fields it knows and ignores the rest, so
+//     producers can be upgraded before consumers within one version step
+//   - PaymentStatus is written by ordinal → enum constants may only be appended
+//   - the magic byte can never start a JSON document, which is how
+//     PaymentEventDeserializer tells binary and JSON records apart during a rollout
+public class PaymentEventBinarySerializer implements Serializer<PaymentEvent> {
+
+    public static final byte MAGIC = (byte) 0xC6;
+    public static final int VERSION = 1;
+
+    @Override
+    public byte[] serialize(String topic, PaymentEvent event) {
+        if (event == null) {
+            return null;
+        }
+        return new CompactWriter(192)
+                .writeByte(MAGIC)
+                .writeByte(VERSION)
+                .writeString(event.getTransactionId())
+                .writeString(event.getIdempotencyKey())
+                .writeDecimal(event.getAmount())
+                .writeString(event.getCurrency())
+                .writeString(event.getSourceAccount())
+                .writeString(event.getDestinationAccount())
+                .writeByte(event.getStatus() == null ? 0 : event.getStatus().ordinal() + 1)
+                .writeDateTime(event.getTimestamp())
+                .writeZigZag(event.getRetryCount())
+                .writeString(event.getFailureReason())
+                .toByteArray();
+    }
+}
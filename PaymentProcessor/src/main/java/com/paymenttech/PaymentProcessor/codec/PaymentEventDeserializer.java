@@ -0,0 +1,61 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+// Reads both value formats a payment topic can contain while producers move between
+// payment.kafka.value-format=json and =binary: records starting with the binary magic
+// byte go through the compact layout, everything else is handed to Spring's JsonDeserializer.
+public class PaymentEventDeserializer implements Deserializer<PaymentEvent> {
+
+    private static final PaymentStatus[] STATUSES = PaymentStatus.values();
+
+    // Target type is fixed, so the __TypeId__ header written by JsonSerializer is not needed;
+    // configured programmatically, so consumer properties are not forwarded to it
+    private final JsonDeserializer<PaymentEvent> jsonDeserializer = new JsonDeserializer<>(PaymentEvent.class, false);
+
+    @Override
+    public PaymentEvent deserialize(String topic, byte[] data) {
+        return deserialize(topic, null, data);
+    }
+
+    @Override
+    public PaymentEvent deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        if (data[0] != PaymentEventBinarySerializer.MAGIC) {
+            return jsonDeserializer.deserialize(topic, data);
+        }
+        try {
+            // Any version: read the version-1 prefix, ignore fields appended by newer writers
+            CompactReader reader = new CompactReader(data, 2);
+            PaymentEvent event = new PaymentEvent();
+            event.setTransactionId(reader.readString());
+            event.setIdempotencyKey(reader.readString());
+            event.setAmount(reader.readDecimal());
+            event.setCurrency(reader.readString());
+            event.setSourceAccount(reader.readString());
+            event.setDestinationAccount(reader.readString());
+            int status = reader.readByte();
+            event.setStatus(status == 0 ? null : STATUSES[status - 1]);
+            event.setTimestamp(reader.readDateTime());
+            event.setRetryCount((int) reader.readZigZag());
+            event.setFailureReason(reader.readString());
+            return event;
+        } catch (RuntimeException e) {
+            throw new SerializationException("Could not read binary PaymentEvent (version " + (data.length > 1 ? data[1] : -1)
+                    + ") from " + topic, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
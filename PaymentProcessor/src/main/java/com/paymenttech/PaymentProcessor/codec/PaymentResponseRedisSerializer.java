@@ -0,0 +1,92 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+
+// Redis value codec for cached PaymentResponse entries.
+//
+// Layout (version 1):
+//   0xC5 magic | version | transactionId | idempotencyKey | amount | currency
+//   | status (0 = null, ordinal + 1) | createdAt | processedAt | message
+//
+// Compatibility rules:
+//   - new fields are only ever appended, and bump the version byte
+//   - a reader reads the fields it knows and ignores trailing bytes, so an older
+//     node can read entries written by a newer one during a rolling deploy
+//   - PaymentStatus is stored by ordinal → constants may only be appended to the enum
+//   - entries written before this codec (plain JSON, optionally with "@class")
+//     start with '{' and are read through Jackson until they expire
+public class PaymentResponseRedisSerializer implements RedisSerializer<PaymentResponse> {
+
+    public static final byte MAGIC = (byte) 0xC5;
+    public static final int VERSION = 1;
+
+    private static final PaymentStatus[] STATUSES = PaymentStatus.values();
+
+    private final ObjectMapper legacyMapper = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    @Override
+    public byte[] serialize(PaymentResponse value) throws SerializationException {
+        if (value == null) {
+            return null;
+        }
+        return new CompactWriter(128)
+                .writeByte(MAGIC)
+                .writeByte(VERSION)
+                .writeString(value.getTransactionId())
+                .writeString(value.getIdempotencyKey())
+                .writeDecimal(value.getAmount())
+                .writeString(value.getCurrency())
+                .writeByte(value.getStatus() == null ? 0 : value.getStatus().ordinal() + 1)
+                .writeDateTime(value.getCreatedAt())
+                .writeDateTime(value.getProcessedAt())
+                .writeString(value.getMessage())
+                .toByteArray();
+    }
+
+    @Override
+    public PaymentResponse deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return readLegacyJson(bytes);
+        }
+        try {
+            CompactReader reader = new CompactReader(bytes, 2); // skip magic + version; v1 is the only layout so far
+            PaymentResponse response = new PaymentResponse();
+            response.setTransactionId(reader.readString());
+            response.setIdempotencyKey(reader.readString());
+            response.setAmount(reader.readDecimal());
+            response.setCurrency(reader.readString());
+            int status = reader.readByte();
+            response.setStatus(status == 0 ? null : STATUSES[status - 1]);
+            response.setCreatedAt(reader.readDateTime());
+            response.setProcessedAt(reader.readDateTime());
+            response.setMessage(reader.readString());
+            return response;
+        } catch (RuntimeException e) {
+            throw new SerializationException("Could not read PaymentResponse (version " + (bytes.length > 1 ? bytes[1] : -1) + ")", e);
+        }
+    }
+
+    private PaymentResponse readLegacyJson(byte[] bytes) {
+        try {
+            return legacyMapper.readValue(bytes, PaymentResponse.class);
+        } catch (IOException e) {
+            throw new SerializationException("Could not read legacy JSON PaymentResponse", e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.paymenttech.PaymentProcessor.config;
+
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+@Slf4j
+public class JpaConfig {
+
+//    payment.ids.storage
+//    string → ids in VARCHAR columns (default, what existing databases have)
+//    binary → Payment.id, Payment.transactionId, Transaction.id and Transaction.paymentId as
+//             BINARY(16): less than half the key size in the primary key and every index that
+//             carries it. Java side stays String (see BinaryIdType).
+//    Picked once per database: the column types differ, so switching needs a migration.
+    @Bean
+    @ConditionalOnProperty(name = "payment.ids.storage", havingValue = "binary")
+    public EntityManagerFactoryBuilderCustomizer binaryIdStorage() {
+        log.info("Storing payment and transaction ids as BINARY(16)");
+        return builder -> builder.setPersistenceUnitPostProcessors(
+                unit -> unit.addMappingFileName("META-INF/binary-ids.orm.xml"));
+    }
+}
@@ -10,8 +10,10 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.system.JavaVersion;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.KafkaListenerContainerFactory;
@@ -20,16 +22,27 @@ import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
-import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.support.serializer.JsonSerializer;
 
+import com.paymenttech.PaymentProcessor.codec.PaymentEventBinarySerializer;
+import com.paymenttech.PaymentProcessor.codec.PaymentEventDeserializer;
 import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.kafka.RedeliveryFilter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
 //@EnableKafka activates Spring’s Kafka listener infrastructure, which is NOT enabled by default in plain Spring.
 @Configuration
 @EnableKafka
+@RequiredArgsConstructor
+@Slf4j
 public class KafkaConfig {
 
 //    Spring starts
@@ -55,6 +68,14 @@ public class KafkaConfig {
 //    KafkaTemplate → works without @EnableKafka
 //    @KafkaListener → needs @EnableKafka
 
+//    Kafka client metrics (kafka.consumer.* / kafka.producer.*) are bound to it per client,
+//    incl. kafka.consumer.fetch.manager.records.lag{topic, partition} = consumer lag.
+//    Boot only does this for the factories it creates itself.
+    private final MeterRegistry meterRegistry;
+
+//    Rebalance listener of the payment listener containers, keeps per-partition dedup state
+    private final RedeliveryFilter redeliveryFilter;
+
     @Value("${kafka.bootstrap-servers:localhost:9092}")
     private String bootstrapServers;
 
@@ -64,6 +85,32 @@ public class KafkaConfig {
     @Value("${kafka.replication-factor:1}")
     private short replicationFactor;
 
+//    Optional org.apache.kafka.clients.producer.Partitioner implementation.
+//    Empty → Kafka's default murmur2(key) % partitions.
+//    Either way the key comes from payment.kafka.partition-key (see PartitionKeyStrategy).
+//    NOTE: adding partitions changes murmur2(key) % partitions for existing keys,
+//    so drain in-flight events per key before growing a topic.
+    @Value("${payment.kafka.partitioner-class:}")
+    private String partitionerClass;
+
+//    Value format written by the producer: json | binary (see PaymentEventBinarySerializer).
+//    Consumers read both, so the rollout order is:
+//    1. deploy everywhere with json (consumers now understand binary)
+//    2. switch producers to binary
+    @Value("${payment.kafka.value-format:json}")
+    private String valueFormat;
+
+//    Same switch Spring Boot uses for Tomcat and its task executors/schedulers.
+//    Boot doesn't build our listener container factories, so they opt in here.
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+//    How long send() may block for metadata or buffer space (Kafka's default is 60 s).
+//    With the broker gone a request thread would hang that long; failing fast instead lets
+//    PaymentProducer hand the event to the local spool and return.
+    @Value("${payment.kafka.max-block-ms:5000}")
+    private long maxBlockMillis;
+
 //    FLow
 //    App starts
 //    ProducerFactory bean created
@@ -89,7 +136,9 @@ public class KafkaConfig {
 //        Partition decides ordering//
 //        Ordering decides correctness
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);//Defines how message keys are converted to bytes.
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);//Converts PaymentEvent → JSON → byte[]
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "binary".equalsIgnoreCase(valueFormat)
+                ? PaymentEventBinarySerializer.class   //PaymentEvent → versioned compact binary
+                : JsonSerializer.class);               //Converts PaymentEvent → JSON → byte[]
 
 //        0	Fire-and-forget	💀 data loss
 //        1	Leader only	⚠️ leader crash
@@ -104,7 +153,19 @@ public class KafkaConfig {
 //        Low CPU
 //        Balanced compression ratio
         configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "snappy");//Compresses message batches before sending.
-        return new DefaultKafkaProducerFactory<>(configProps);
+
+//        Keyed records only keep their order if a retried batch can't overtake a later one.
+//        Idempotent producer (acks=all, retries>0, <=5 in-flight) guarantees exactly that per partition.
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        configProps.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        configProps.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, maxBlockMillis);
+
+        if (!partitionerClass.isBlank()) {
+            configProps.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, partitionerClass);
+        }
+        DefaultKafkaProducerFactory<String, PaymentEvent> factory = new DefaultKafkaProducerFactory<>(configProps);
+        factory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        return factory;
     }
 
     //    Runtime flow
@@ -128,6 +189,15 @@ public class KafkaConfig {
 
     @Bean
     public ConsumerFactory<String, PaymentEvent> consumerFactory() {
+        return withMetrics(new DefaultKafkaConsumerFactory<>(consumerProps()));
+    }
+
+    private ConsumerFactory<String, PaymentEvent> withMetrics(DefaultKafkaConsumerFactory<String, PaymentEvent> factory) {
+        factory.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return factory;
+    }
+
+    private Map<String, Object> consumerProps() {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);//Consumer later talks directly to partition leaders
 
@@ -144,8 +214,9 @@ public class KafkaConfig {
 
 //        Converts JSON → Java object
 //        Used with PaymentEvent
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
-        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, PaymentEvent.class.getName());//Kafka messages do not carry Java class info. so we need to define were to be mapped
+//        Binary records (magic byte) → compact reader, anything else → JsonDeserializer
+//        mapped to PaymentEvent, so mixed topics are fine during a format rollout
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, PaymentEventDeserializer.class);
 
 //        AUTO_OFFSET_RESET_CONFIG//
 //        Used only when no offset exists//
@@ -163,14 +234,17 @@ public class KafkaConfig {
 //
 //        Auto-commit = at-most-once
 //        Manual commit = at-least-once ie., false
-        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, true);
+//        Listeners ack after the event is applied (AckMode.MANUAL below). Rebalances and
+//        crashes then re-deliver whatever was applied but not committed yet, RedeliveryFilter
+//        drops those copies before they reach the DB.
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
         props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);//batch size per poll
         props.put(ConsumerConfig.FETCH_MAX_BYTES_CONFIG, 52428800);//Max data fetched per request
 
 //        Thread-safe
 //        Integrates with Spring listener containers
 //        Handles deserializer lifecycle
-        return new DefaultKafkaConsumerFactory<>(props);//
+        return props;
     }
 
     @Bean
@@ -186,9 +260,54 @@ public class KafkaConfig {
         ConcurrentKafkaListenerContainerFactory<String, PaymentEvent> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
         factory.setConcurrency(10);
+//        MANUAL → offsets of acked records are committed after the poll's records were handled
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setConsumerRebalanceListener(redeliveryFilter);
+        applyListenerThreading(factory, "payment-listener-");
         return factory;
     }
 
+//    payment.consumer.mode=batch
+//    Listener receives the whole poll (up to max.poll.records) as a List
+//    MANUAL ack → offsets committed only after the batch is durable
+//    Failure → no ack, DefaultErrorHandler re-delivers the same batch
+    @Bean
+    public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, PaymentEvent>> batchKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, PaymentEvent> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(10);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setConsumerRebalanceListener(redeliveryFilter);
+        applyListenerThreading(factory, "payment-batch-listener-");
+        return factory;
+    }
+
+//    spring.threads.virtual.enabled=true (Java 21, build with -Pjava21)
+//    Each consumer's poll loop + listener runs on its own virtual thread instead of a
+//    platform thread. Concurrency stays the same: one consumer per partition is still the
+//    upper bound, what changes is that a listener blocked on JDBC/Redis/Kafka no longer
+//    holds an OS thread.
+//
+//    Pinning: a virtual thread that blocks inside a synchronized block (or a native frame)
+//    keeps its carrier thread, and there are only #cores carriers.
+//    - Don't do I/O while holding a monitor; use ReentrantLock for new locking code
+//    - JDBC drivers/pools are the usual offenders, the Hikari pool size is the real
+//      concurrency limit for the DB path, not the thread count
+//    - Find pins with -Djdk.tracePinnedThreads=short (prints a stack on every pin)
+    private void applyListenerThreading(ConcurrentKafkaListenerContainerFactory<String, PaymentEvent> factory, String threadNamePrefix) {
+        if (!virtualThreads) return;
+        if (!JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            // Boot ignores the property below Java 21 as well, keep the platform-thread default
+            log.warn("spring.threads.virtual.enabled is set but running on Java {}, listener containers stay on platform threads",
+                    JavaVersion.getJavaVersion());
+            return;
+        }
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        factory.getContainerProperties().setListenerTaskExecutor(executor);
+    }
+
 
 //    NewTopic lets Spring create Kafka topics programmatically, where partitions control scalability and replicas ensure fault tolerance.
 
@@ -212,6 +331,16 @@ public class KafkaConfig {
                 .build();
     }
 
+    // Ledger entries, one per side of a settled payment. The partition is the AccountLedger
+    // shard: changing the count re-shards every account, rebuild the ledger from offset 0.
+    @Bean
+    public NewTopic paymentSettledTopic() {
+        return TopicBuilder.name("payment-settled")
+                .partitions(partitions)
+                .replicas(replicationFactor)
+                .build();
+    }
+
     @Bean
     public NewTopic paymentDlqTopic() {
         return TopicBuilder.name("payment-dlq")
@@ -219,4 +348,4 @@ public class KafkaConfig {
                 .replicas(replicationFactor)
                 .build();
     }
-}
\ No newline at end of file
+}
@@ -2,21 +2,27 @@ package com.paymenttech.PaymentProcessor.config;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paymenttech.PaymentProcessor.codec.PaymentResponseRedisSerializer;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.time.Duration;
 
@@ -35,9 +41,12 @@ public class RedisConfig {
 
     // 1. RedisConnectionFactory manages Redis connections and is the backbone
     //      for RedisTemplate and Spring Cache operations.
+    //      Host/port from spring.data.redis.*, defaults are the local server.
     @Bean
-    public RedisConnectionFactory redisConnectionFactory() {
-        return new LettuceConnectionFactory();
+    public RedisConnectionFactory redisConnectionFactory(
+            @Value("${spring.data.redis.host:localhost}") String host,
+            @Value("${spring.data.redis.port:6379}") int port) {
+        return new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
     }
 
     // 2. RedisTemplate bean (important!)
@@ -83,6 +92,43 @@ public class RedisConfig {
         return template;
     }
 
+//    Typed template for cached PaymentResponse values (idempotency cache).
+//    Generic JSON went Object → LinkedHashMap → hand-copied PaymentResponse on every read,
+//    with BigDecimal/LocalDateTime parsed back out of text.
+//    The compact codec writes a versioned binary layout straight from/to the DTO,
+//    and still reads JSON entries written before it was introduced.
+    @Bean
+    public RedisTemplate<String, PaymentResponse> paymentResponseRedisTemplate(RedisConnectionFactory factory) {
+        RedisTemplate<String, PaymentResponse> template = new RedisTemplate<>();
+        template.setConnectionFactory(factory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new PaymentResponseRedisSerializer());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+//    One shared pub/sub connection for the whole node.
+//    Listeners (near-cache invalidation, circuit breaker state, settled payments, ...)
+//    register their channels on it.
+//    Messages are handed to a small fixed pool: the default executor starts a new thread
+//    per message, which every settled payment would now pay for.
+//    Not a bean of its own: an Executor bean would replace Boot's applicationTaskExecutor.
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory,
+            @Value("${payment.redis.listener-threads:4}") int listenerThreads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(listenerThreads);
+        executor.setMaxPoolSize(listenerThreads);
+        executor.setThreadNamePrefix("redis-listener-");
+        executor.setDaemon(true);
+        executor.initialize();
+
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.setTaskExecutor(executor);
+        return container;
+    }
+
 //    👉 This is NOT RedisTemplate
 //👉 This is Spring Cache behavior config
     // 3. Cache configuration
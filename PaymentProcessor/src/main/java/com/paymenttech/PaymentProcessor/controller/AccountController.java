@@ -0,0 +1,28 @@
+package com.paymenttech.PaymentProcessor.controller;
+
+import com.paymenttech.PaymentProcessor.dto.AccountBalance;
+import com.paymenttech.PaymentProcessor.service.AccountLedger;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/v1/accounts")
+@RequiredArgsConstructor
+public class AccountController {
+    
+    private final AccountLedger accountLedger;
+    
+    // From this node's ledger projection; 503 while the account's shard is still loading
+    @GetMapping("/{account}/balance")
+    public ResponseEntity<AccountBalance> getBalance(@PathVariable String account, @RequestParam String currency) {
+        return accountLedger.balance(account, currency)
+                .map(balance -> ResponseEntity.ok(AccountBalance.builder()
+                        .account(account)
+                        .currency(currency)
+                        .balance(balance)
+                        .build()))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+}
@@ -0,0 +1,33 @@
+package com.paymenttech.PaymentProcessor.controller;
+
+import com.paymenttech.PaymentProcessor.dto.CircuitBreakerStatus;
+import com.paymenttech.PaymentProcessor.service.CircuitBreakerService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/circuit-breakers")
+@RequiredArgsConstructor
+public class CircuitBreakerController {
+    
+    private final CircuitBreakerService circuitBreakerService;
+    
+    // Accounts currently OPEN / HALF_OPEN
+    @GetMapping
+    public ResponseEntity<List<CircuitBreakerStatus>> getOpenBreakers() {
+        return ResponseEntity.ok(circuitBreakerService.getOpenBreakers());
+    }
+    
+    // Last state changes seen by this node, most recent first
+    @GetMapping("/transitions")
+    public ResponseEntity<List<CircuitBreakerStatus>> getTransitions() {
+        return ResponseEntity.ok(circuitBreakerService.getTransitions());
+    }
+    
+    @GetMapping("/{sourceAccount}")
+    public ResponseEntity<CircuitBreakerStatus> getStatus(@PathVariable String sourceAccount) {
+        return ResponseEntity.ok(circuitBreakerService.getStatus(sourceAccount));
+    }
+}
@@ -1,13 +1,22 @@
 package com.paymenttech.PaymentProcessor.controller;
 
+import com.paymenttech.PaymentProcessor.dto.BatchPaymentRequest;
+import com.paymenttech.PaymentProcessor.dto.BatchPaymentResponse;
 import com.paymenttech.PaymentProcessor.dto.PaymentRequest;
 import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
 import com.paymenttech.PaymentProcessor.service.PaymentServiceImpl;
+import com.paymenttech.PaymentProcessor.service.PaymentStatusNotifier;
+import com.paymenttech.PaymentProcessor.service.RateLimitService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/v1/payments")
@@ -15,11 +24,48 @@ import java.util.Optional;
 @CrossOrigin(origins = "*")
 public class PaymentController {
     
+    private static final String API_KEY_HEADER = "X-API-Key";
+    private static final String ANONYMOUS = "anonymous";
+    
     private final PaymentServiceImpl paymentService;
+    private final RateLimitService rateLimitService;
+    private final PaymentStatusNotifier statusNotifier;
+    
+    @Value("${payment.api.request-timeout-ms:30000}")
+    private long requestTimeoutMillis;
     
+    // Callers without a key share one bucket; the per-account limit applies either way.
+    // Async servlet: the request thread returns once the payment is handed to the pipeline,
+    // the 202 goes out when the future completes (after the commit, or after the broker ack
+    // with payment.api.ack-mode=BROKER). Still pending after request-timeout-ms → 503; the
+    // client retries with the same idempotency key and gets the payment's response.
     @PostMapping
-    public ResponseEntity<PaymentResponse> processPayment(@RequestBody PaymentRequest request) {
-        PaymentResponse response = paymentService.processPayment(request);
+    public DeferredResult<ResponseEntity<PaymentResponse>> processPayment(
+            @RequestHeader(value = API_KEY_HEADER, defaultValue = ANONYMOUS) String apiKey,
+            @RequestBody PaymentRequest request) {
+        rateLimitService.checkAllowed(RateLimitService.Scope.API_KEY, apiKey, 1);
+        DeferredResult<ResponseEntity<PaymentResponse>> result = new DeferredResult<>(requestTimeoutMillis,
+                () -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        paymentService.processPaymentAsync(request).whenComplete((response, ex) -> {
+            if (ex == null) {
+                result.setResult(ResponseEntity.status(HttpStatus.ACCEPTED).body(response));
+            } else {
+                // Unwrapped, so GlobalExceptionHandler maps it like a synchronous failure
+                result.setErrorResult(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            }
+        });
+        return result;
+    }
+    
+    @PostMapping("/batch")
+    public ResponseEntity<BatchPaymentResponse> processPayments(
+            @RequestHeader(value = API_KEY_HEADER, defaultValue = ANONYMOUS) String apiKey,
+            @RequestBody BatchPaymentRequest request) {
+        // Capped cost for the key, all or nothing; per-item limits are per source account
+        if (request.getPayments() != null) {
+            rateLimitService.checkBatchAllowed(apiKey, request.getPayments().size());
+        }
+        BatchPaymentResponse response = paymentService.processPayments(request.getPayments());
         return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
     }
     
@@ -29,4 +75,21 @@ public class PaymentController {
         return payment.map(ResponseEntity::ok)
                 .orElseGet(() -> ResponseEntity.notFound().build());
     }
+    
+    // Long-poll: ?waitSeconds=N answers as soon as the payment settles, else after N seconds
+    // (capped by payment.status-stream.max-wait-seconds) with the latest status
+    @GetMapping(value = "/{transactionId}", params = "waitSeconds")
+    public DeferredResult<ResponseEntity<PaymentResponse>> awaitPaymentStatus(@PathVariable String transactionId,
+            @RequestParam long waitSeconds) {
+        return statusNotifier.awaitSettled(transactionId, waitSeconds,
+                () -> paymentService.getPaymentStatus(transactionId));
+    }
+    
+    // Server-Sent Events: "status" events until the payment is settled
+    @GetMapping(value = "/{transactionId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamPaymentStatus(@PathVariable String transactionId) {
+        return statusNotifier.stream(transactionId, () -> paymentService.getPaymentStatus(transactionId))
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 }
@@ -0,0 +1,50 @@
+package com.paymenttech.PaymentProcessor.controller;
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.exception.PaymentException;
+import com.paymenttech.PaymentProcessor.service.PaymentExportService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.time.LocalDateTime;
+
+@RestController
+@RequestMapping("/api/v1/payments/export")
+@RequiredArgsConstructor
+public class PaymentExportController {
+    
+    private final PaymentExportService exportService;
+    
+    // GET /api/v1/payments/export?status=SUCCESS&from=2026-10-17T00:00&to=2026-10-18T00:00&format=csv
+    // [from, to) on createdAt, ordered by (createdAt, id). To resume, pass the last row received
+    // as after=<createdAt>,<id>.
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> exportPayments(
+            @RequestParam PaymentStatus status,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "ndjson") String format) {
+        PaymentExportService.Format exportFormat = parseFormat(format);
+        exportService.validate(from, to, after);
+        
+        StreamingResponseBody body = out -> exportService.export(status, from, to, after, exportFormat, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.contentType() + ";charset=UTF-8"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"payments-" + status.name().toLowerCase()
+                        + "." + exportFormat.name().toLowerCase() + "\"")
+                .body(body);
+    }
+    
+    private static PaymentExportService.Format parseFormat(String format) {
+        try {
+            return PaymentExportService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new PaymentException("Unsupported export format: " + format + " (ndjson | csv)");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.paymenttech.PaymentProcessor.controller;
+
+import com.paymenttech.PaymentProcessor.dto.PaymentStats;
+import com.paymenttech.PaymentProcessor.service.PaymentStatsService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/v1/payments/stats")
+@RequiredArgsConstructor
+public class PaymentStatsController {
+    
+    private final PaymentStatsService paymentStatsService;
+    
+    // GET /api/v1/payments/stats?minutes=60
+    // Count and amount by status and currency of the payments created in the last N minutes,
+    // served from the minute buckets in Redis, no database scan
+    @GetMapping
+    public ResponseEntity<PaymentStats> getStats(@RequestParam(defaultValue = "60") int minutes) {
+        return ResponseEntity.ok(paymentStatsService.getStats(minutes));
+    }
+}
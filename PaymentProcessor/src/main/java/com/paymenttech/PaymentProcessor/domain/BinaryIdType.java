@@ -0,0 +1,77 @@
+package com.paymenttech.PaymentProcessor.domain;
+
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Objects;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.usertype.UserType;
+
+//    String id ↔ BINARY(16) column, for payment.ids.storage=binary
+//    Entities keep their String ids (repositories, DTOs, Kafka and Redis are unchanged), only the
+//    column shrinks from a 36-char VARCHAR to 16 bytes. Mapped onto the id columns by
+//    META-INF/binary-ids.orm.xml, which JpaConfig adds to the persistence unit when enabled.
+public class BinaryIdType implements UserType<String> {
+
+    @Override
+    public int getSqlType() {
+        return Types.BINARY;
+    }
+
+    @Override
+    public Class<String> returnedClass() {
+        return String.class;
+    }
+
+    @Override
+    public boolean equals(String x, String y) {
+        return Objects.equals(x, y);
+    }
+
+    @Override
+    public int hashCode(String x) {
+        return Objects.hashCode(x);
+    }
+
+    @Override
+    public String nullSafeGet(ResultSet rs, int position, SharedSessionContractImplementor session, Object owner)
+            throws SQLException {
+        byte[] bytes = rs.getBytes(position);
+        return bytes == null ? null : TimeOrderedIds.fromBytes(bytes);
+    }
+
+    @Override
+    public void nullSafeSet(PreparedStatement st, String value, int index, SharedSessionContractImplementor session)
+            throws SQLException {
+        byte[] bytes = value == null ? null : TimeOrderedIds.toBytes(value);
+        if (bytes == null) {
+            st.setNull(index, Types.BINARY);
+        } else {
+            st.setBytes(index, bytes);
+        }
+    }
+
+    @Override
+    public String deepCopy(String value) {
+        return value;
+    }
+
+    @Override
+    public boolean isMutable() {
+        return false;
+    }
+
+    @Override
+    public Serializable disassemble(String value) {
+        return value;
+    }
+
+    @Override
+    public String assemble(Serializable cached, Object owner) {
+        return (String) cached;
+    }
+}
@@ -0,0 +1,8 @@
+package com.paymenttech.PaymentProcessor.domain;
+
+
+public enum CircuitState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+}
@@ -0,0 +1,50 @@
+package com.paymenttech.PaymentProcessor.domain;
+
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+// Transactional outbox row: a PaymentEvent waiting to be published to payment-events
+// (or payment-settled). Written in the same DB transaction as its Payment/Transaction,
+// removed by OutboxRelay once Kafka has acknowledged it (or moved to ParkedOutboxEvent). The relay publishes in id order,
+// which is allocation order, not commit order: ids come from per-node pools of 50, so a row
+// can commit after rows with higher ids (see OutboxRelay for what that does and doesn't promise).
+@Entity
+@Table(name = "outbox_events")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxEvent {
+    
+    // Sequence (not identity) so inserts keep using JDBC batching
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_event_seq")
+    @SequenceGenerator(name = "outbox_event_seq", sequenceName = "outbox_event_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(nullable = false)
+    private String transactionId;
+    
+    // null → payment-events, keyed by payment.kafka.partition-key
+    private String topic;
+    
+    // Explicit record key / partition, only set together with topic
+    private String recordKey;
+    
+    private Integer recordPartition;
+    
+    // PaymentEvent in the binary Kafka codec (PaymentEventBinarySerializer)
+    @Column(nullable = false, length = 4000)
+    private byte[] payload;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    // Relay rounds in which this row failed on its own; parked at payment.outbox.max-attempts
+    private int attempts;
+}
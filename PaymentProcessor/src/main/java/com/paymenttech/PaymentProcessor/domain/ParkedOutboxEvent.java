@@ -0,0 +1,48 @@
+package com.paymenttech.PaymentProcessor.domain;
+
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+// Outbox row OutboxRelay gave up on after payment.outbox.max-attempts rounds that failed on the
+// row itself (undecodable payload, record too large, unknown topic, ...). Moved here so it no
+// longer holds a slot in every relay batch; kept with its last error for a fix and manual replay.
+@Entity
+@Table(name = "parked_outbox_events")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ParkedOutboxEvent {
+    
+    // The id it had in outbox_events
+    @Id
+    private Long id;
+    
+    @Column(nullable = false)
+    private String transactionId;
+    
+    private String topic;
+    
+    private String recordKey;
+    
+    private Integer recordPartition;
+    
+    @Column(nullable = false, length = 4000)
+    private byte[] payload;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    private int attempts;
+    
+    @Column(length = 1000)
+    private String lastError;
+    
+    @Column(nullable = false)
+    private LocalDateTime parkedAt;
+}
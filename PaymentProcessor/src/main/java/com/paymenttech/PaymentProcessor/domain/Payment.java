@@ -13,7 +13,8 @@ import java.time.LocalDateTime;
 @Table(name = "payments", indexes = {
     @Index(name = "idx_idempotency_key", columnList = "idempotencyKey", unique = true),
     @Index(name = "idx_transaction_id", columnList = "transactionId"),
-    @Index(name = "idx_status", columnList = "status")
+    // status alone + keyset order of the export (status, createdAt, id)
+    @Index(name = "idx_status_created_id", columnList = "status, createdAt, id")
 })
 @Data
 @NoArgsConstructor
@@ -21,8 +22,8 @@ import java.time.LocalDateTime;
 @Builder
 public class Payment {
     
+    // Time-ordered (TimeOrderedIds), assigned in assignId() before the INSERT
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
     private String id;
     
     @Column(nullable = false, unique = true)
@@ -59,4 +60,9 @@ public class Payment {
 
     @Version
     private Long version;
+    
+    @PrePersist
+    void assignId() {
+        if (id == null) id = TimeOrderedIds.next();
+    }
 }
\ No newline at end of file
@@ -1,11 +1,50 @@
 package com.paymenttech.PaymentProcessor.domain;
 
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
 public enum PaymentStatus {
     PENDING,
     PROCESSING,
     SUCCESS,
     FAILED,
     CANCELLED,
-    RETRY_SCHEDULED
-}
\ No newline at end of file
+    RETRY_SCHEDULED;
+
+//    Legal transitions, target → statuses it can be entered from
+//    PENDING          initial only
+//    PROCESSING       ← PENDING, RETRY_SCHEDULED
+//    RETRY_SCHEDULED  ← PENDING, PROCESSING, RETRY_SCHEDULED (next attempt failed too)
+//    SUCCESS, FAILED  ← PENDING, PROCESSING, RETRY_SCHEDULED
+//    CANCELLED        ← PENDING, RETRY_SCHEDULED
+//    SUCCESS, FAILED and CANCELLED are terminal. Used as the WHERE status IN (...) guard of
+//    the conditional UPDATEs, so a late or duplicate event simply doesn't match.
+    private static final Map<PaymentStatus, Set<PaymentStatus>> ALLOWED_FROM = new EnumMap<>(PaymentStatus.class);
+
+    static {
+        Set<PaymentStatus> open = EnumSet.of(PENDING, PROCESSING, RETRY_SCHEDULED);
+        ALLOWED_FROM.put(PENDING, EnumSet.noneOf(PaymentStatus.class));
+        ALLOWED_FROM.put(PROCESSING, EnumSet.of(PENDING, RETRY_SCHEDULED));
+        ALLOWED_FROM.put(RETRY_SCHEDULED, open);
+        ALLOWED_FROM.put(SUCCESS, open);
+        ALLOWED_FROM.put(FAILED, open);
+        ALLOWED_FROM.put(CANCELLED, EnumSet.of(PENDING, RETRY_SCHEDULED));
+        ALLOWED_FROM.replaceAll((status, from) -> Collections.unmodifiableSet(from));
+    }
+
+    public Set<PaymentStatus> allowedFrom() {
+        return ALLOWED_FROM.get(this);
+    }
+
+    public boolean canTransitionTo(PaymentStatus target) {
+        return target.allowedFrom().contains(this);
+    }
+
+    public boolean isTerminal() {
+        return this == SUCCESS || this == FAILED || this == CANCELLED;
+    }
+}
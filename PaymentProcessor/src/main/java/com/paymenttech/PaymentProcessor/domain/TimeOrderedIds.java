@@ -0,0 +1,75 @@
+package com.paymenttech.PaymentProcessor.domain;
+
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+//    UUIDv7 (RFC 9562) ids for Payment.id, Payment.transactionId and Transaction.id
+//
+//    | 48 bit unix millis | ver 7 | 12 bit counter | variant | 62 bit random |
+//
+//    Random v4 ids land anywhere in the B-tree: every insert dirties a random leaf page, pages
+//    split half full and the whole index has to stay in cache. v7 ids grow with time, so inserts
+//    append to the right-most leaf and recent rows (the ones the consumer and sweeper touch)
+//    sit together.
+//
+//    - Sorted the same as a string (lower-case hex, fixed width) and as 16 unsigned bytes,
+//      so existing String columns and keyset paging (id > :afterId) keep working as they are
+//    - Per node: the counter makes ids strictly increasing within one millisecond (4096 per ms,
+//      beyond that the next millisecond is borrowed), and the clock going backwards doesn't
+//      break the order
+//    - Across nodes: ids interleave by time and the 62 random bits (SecureRandom, ids are
+//      visible to clients) keep them unique without coordination
+//
+//    java-uuid-generator 4.0.1 has no v7 generator (added in 4.1), hence the few lines here.
+public final class TimeOrderedIds {
+
+    // (millis << 12 | counter) of the last id handed out on this node
+    private static final AtomicLong LAST = new AtomicLong();
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private TimeOrderedIds() {
+    }
+
+    public static String next() {
+        return nextUuid().toString();
+    }
+
+    public static UUID nextUuid() {
+        long candidate = System.currentTimeMillis() << 12;
+        long stamp;
+        while (true) {
+            long last = LAST.get();
+            stamp = candidate > last ? candidate : last + 1;
+            if (LAST.compareAndSet(last, stamp)) break;
+        }
+        long msb = (stamp >>> 12) << 16 | 0x7000L | (stamp & 0xFFFL);
+        long lsb = RANDOM.get().nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    // 16-byte form for payment.ids.storage=binary. "" is the keyset start value (see
+    // PaymentSweeper / PaymentExportService) and maps to the lowest id. Anything else that isn't
+    // a UUID (a made-up transactionId in a lookup) → null, which matches no row.
+    public static byte[] toBytes(String id) {
+        if (id.isEmpty()) return new byte[16];
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    public static String fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+}
@@ -11,7 +11,9 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "transactions", indexes = {
     @Index(name = "idx_payment_id", columnList = "paymentId"),
-    @Index(name = "idx_retry_count", columnList = "retryCount")
+    @Index(name = "idx_retry_count", columnList = "retryCount"),
+    // open transactions by due time, keyset order of PaymentSweeper
+    @Index(name = "idx_unresolved_retry", columnList = "resolvedAt, lastRetryAt, id")
 })
 @Data
 @NoArgsConstructor
@@ -19,8 +21,8 @@ import java.time.LocalDateTime;
 @Builder
 public class Transaction {
     
+    // Time-ordered (TimeOrderedIds), assigned in assignId() before the INSERT
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
     private String id;
     
     @Column(nullable = false)
@@ -39,4 +41,9 @@ public class Transaction {
     private LocalDateTime createdAt;
     
     private LocalDateTime resolvedAt;
+    
+    @PrePersist
+    void assignId() {
+        if (id == null) id = TimeOrderedIds.next();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.paymenttech.PaymentProcessor.dto;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class AccountBalance {
+    private String account;
+    private String currency;
+    private BigDecimal balance;        // settled payments only, see AccountLedger
+}
@@ -0,0 +1,16 @@
+package com.paymenttech.PaymentProcessor.dto;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchPaymentRequest {
+    private List<PaymentRequest> payments;
+}
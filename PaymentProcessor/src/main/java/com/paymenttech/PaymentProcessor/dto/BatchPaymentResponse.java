@@ -0,0 +1,20 @@
+package com.paymenttech.PaymentProcessor.dto;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchPaymentResponse {
+    private int total;
+    private int accepted;
+    private int duplicates;
+    private int rejected;
+    private List<BatchPaymentResult> results;
+}
@@ -0,0 +1,19 @@
+package com.paymenttech.PaymentProcessor.dto;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchPaymentResult {
+    private int index;                 // position of the item in the submitted batch
+    private String idempotencyKey;
+    private boolean duplicate;         // true when the key was already known (or repeated in the batch)
+    private PaymentResponse payment;   // null when the item was rejected
+    private String error;              // validation error, null when the item was accepted
+}
@@ -0,0 +1,24 @@
+package com.paymenttech.PaymentProcessor.dto;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+import com.paymenttech.PaymentProcessor.domain.CircuitState;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CircuitBreakerStatus {
+    private String sourceAccount;
+    private CircuitState state;
+    private Long failures;             // in the current window, across all nodes (null when not read)
+    private Long calls;
+    private Double failureRate;
+    private LocalDateTime openUntil;   // OPEN: when trial requests are let through again
+    private LocalDateTime changedAt;
+}
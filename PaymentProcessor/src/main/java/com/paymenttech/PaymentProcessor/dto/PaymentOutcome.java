@@ -0,0 +1,28 @@
+package com.paymenttech.PaymentProcessor.dto;
+
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Result of processing one PaymentEvent, collected per poll in batch-listener mode
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentOutcome {
+    private String transactionId;
+    private boolean success;
+    private String failureReason;
+    // Status the event was produced in, see PaymentService.handlePaymentSuccess
+    private PaymentStatus from;
+
+    public static PaymentOutcome success(String transactionId, PaymentStatus from) {
+        return new PaymentOutcome(transactionId, true, null, from);
+    }
+
+    public static PaymentOutcome failure(String transactionId, PaymentStatus from, String reason) {
+        return new PaymentOutcome(transactionId, false, reason, from);
+    }
+}
@@ -13,7 +13,7 @@ import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class PaymentResponse {
     private String transactionId;
     private String idempotencyKey;
@@ -0,0 +1,34 @@
+package com.paymenttech.PaymentProcessor.dto;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PaymentStats {
+    private int minutes;
+    private LocalDateTime from;        // payments created in [from, to), whole minutes
+    private LocalDateTime to;
+    private List<Entry> entries;       // by status, then currency
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Entry {
+        private PaymentStatus status;
+        private String currency;
+        private long count;
+        private BigDecimal amount;
+    }
+}
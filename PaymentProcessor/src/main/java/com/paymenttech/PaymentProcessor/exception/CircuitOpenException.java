@@ -0,0 +1,23 @@
+package com.paymenttech.PaymentProcessor.exception;
+
+public class CircuitOpenException extends RuntimeException {
+    
+	private static final long serialVersionUID = 1L;
+	
+	private final String sourceAccount;
+	private final long retryAfterSeconds;
+
+	public CircuitOpenException(String sourceAccount, long retryAfterSeconds) {
+        super("Payments from account " + sourceAccount + " are temporarily suspended after repeated failures");
+        this.sourceAccount = sourceAccount;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+	
+	public String getSourceAccount() {
+		return sourceAccount;
+	}
+	
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
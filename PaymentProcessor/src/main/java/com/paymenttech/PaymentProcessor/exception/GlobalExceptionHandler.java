@@ -1,6 +1,7 @@
 package com.paymenttech.PaymentProcessor.exception;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -8,6 +9,7 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestControllerAdvice
 @Slf4j
@@ -25,6 +27,37 @@ public class GlobalExceptionHandler {
         return buildErrorResponse("IDEMPOTENCY_ERROR", ex.getMessage(), HttpStatus.CONFLICT);
     }
     
+    @ExceptionHandler(CircuitOpenException.class)
+    public ResponseEntity<Map<String, Object>> handleCircuitOpenException(CircuitOpenException ex) {
+        log.warn("Circuit open for account {}, rejecting payment", ex.getSourceAccount());
+        ResponseEntity<Map<String, Object>> response =
+                buildErrorResponse("CIRCUIT_OPEN", ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(response.getBody());
+    }
+    
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<Map<String, Object>> handleRateLimitExceededException(RateLimitExceededException ex) {
+        log.debug("Rate limit exceeded for {} {}", ex.getScope(), ex.getId());
+        ResponseEntity<Map<String, Object>> response =
+                buildErrorResponse("RATE_LIMITED", ex.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(response.getBody());
+    }
+    
+    // processPaymentAsync: the pipeline queue is full, nothing was written
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Map<String, Object>> handleRejectedExecutionException(RejectedExecutionException ex) {
+        log.warn("Payment pipeline saturated, rejecting payment");
+        ResponseEntity<Map<String, Object>> response =
+                buildErrorResponse("OVERLOADED", "Too many payments in flight, retry later", HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(response.getBody());
+    }
+    
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleGeneralException(Exception ex) {
         log.error("Unexpected error", ex);
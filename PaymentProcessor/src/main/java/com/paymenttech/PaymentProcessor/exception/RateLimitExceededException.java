@@ -0,0 +1,29 @@
+package com.paymenttech.PaymentProcessor.exception;
+
+public class RateLimitExceededException extends RuntimeException {
+    
+	private static final long serialVersionUID = 1L;
+	
+	private final String scope;
+	private final String id;
+	private final long retryAfterSeconds;
+
+	public RateLimitExceededException(String scope, String id, long retryAfterSeconds) {
+        super("Too many payments for " + scope + " " + id + ", retry in " + retryAfterSeconds + "s");
+        this.scope = scope;
+        this.id = id;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+	
+	public String getScope() {
+		return scope;
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,74 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+import java.util.Arrays;
+
+//    Fixed-size bloom filter over String keys, sized for expectedInsertions at fpp
+//
+//    bits   = -n * ln(fpp) / ln(2)^2
+//    hashes = bits / n * ln(2)
+//    One 64-bit hash per key (FNV-1a + murmur3 finalizer), split into two 32-bit halves:
+//    index_i = h1 + i * h2 (Kirsch-Mitzenmacher), same false positive rate as k real hashes.
+//
+//    Not thread-safe: one instance is only used by the consumer thread owning its partition.
+final class BloomFilter {
+
+    private final long[] words;
+    private final long bitCount;
+    private final int hashes;
+
+    BloomFilter(int expectedInsertions, double fpp) {
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(64, Math.min(bits, Integer.MAX_VALUE));
+        this.words = new long[(int) ((bits + 63) / 64)];
+        this.bitCount = words.length * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    void put(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = index(h1 + i * h2);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = index(h1 + i * h2);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    long sizeInBytes() {
+        return words.length * 8L;
+    }
+
+    private long index(int combined) {
+        // Negative → flip the bits, keeps the distribution uniform
+        return (combined < 0 ? ~combined : combined) % bitCount;
+    }
+
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,429 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+
+import com.paymenttech.PaymentProcessor.codec.PaymentEventBinarySerializer;
+import com.paymenttech.PaymentProcessor.codec.PaymentEventDeserializer;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+//    Local append-only spool for events the producer could not hand to Kafka (see PaymentProducer)
+//
+//    <dir>/<sequence>.spool, fixed-size segments, each memory-mapped while open:
+//    | magic | version | read position (long) | record | record | ... | 0 (unwritten) |
+//    record = | length | crc32c(body) | body = topic, key (-1 = none), PaymentEvent (binary codec) |
+//
+//    - Appends go to the last segment, a full one is closed and a new one started; a record
+//      never spans two segments
+//    - Strictly FIFO: SpoolReplayer reads from the first segment's read position, commits what
+//      Kafka acknowledged by moving that position, and deletes segments it has drained. A head
+//      record Kafka keeps refusing is committed past after replay-max-attempts (counted as
+//      payment.spool.dropped), so it cannot hold the spool until it fills up
+//    - Survives a process crash (the pages are the file); fsync=true also forces every append
+//      to disk for machine crashes, at the cost of a disk flush per event
+//    - Start-up rescans the segments: a record with a bad length or CRC is a torn write from a
+//      crash and marks the end of the segment, appends continue from there
+//    - Bounded: at max-segments a new event is refused (counted, logged) instead of filling the disk
+//
+//    One lock for appends and reads; appends are a memcpy into the mapping, the replayer only
+//    holds it while copying a batch out, never while waiting for Kafka.
+//
+//    A closed segment's mapping is released when the buffer is garbage collected (there is no
+//    supported way to unmap on Java 17). Linux and macOS delete the file regardless; on Windows
+//    the delete of a drained segment can fail until then, it is logged and retried at start-up.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EventSpool {
+
+    private static final int MAGIC = 0x53504F4C; // "SPOL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final String SUFFIX = ".spool";
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${payment.spool.enabled:true}")
+    private boolean enabled;
+
+    @Value("${payment.spool.dir:spool}")
+    private String dir;
+
+    @Value("${payment.spool.segment-bytes:16777216}")
+    private int segmentBytes;
+
+    @Value("${payment.spool.max-segments:64}")
+    private int maxSegments;
+
+    @Value("${payment.spool.fsync:false}")
+    private boolean fsync;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final PaymentEventBinarySerializer serializer = new PaymentEventBinarySerializer();
+    private final PaymentEventDeserializer deserializer = new PaymentEventDeserializer();
+    private Path directory;
+    private long nextSequence;
+    private volatile long pendingRecords;
+    private volatile long pendingBytes;
+    private Counter rejected;
+
+    // A spooled event read back for replay; commit(entry) marks it and everything before it done
+    static final class Entry {
+        final String topic;
+        final String key;
+        final PaymentEvent event;
+        private final Segment segment;
+        private final int nextPosition;
+
+        private Entry(String topic, String key, PaymentEvent event, Segment segment, int nextPosition) {
+            this.topic = topic;
+            this.key = key;
+            this.event = event;
+            this.segment = segment;
+            this.nextPosition = nextPosition;
+        }
+
+        // Same record of the spool, possibly read in another round
+        boolean isSameRecord(Entry other) {
+            return other != null && segment == other.segment && nextPosition == other.nextPosition;
+        }
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        rejected = Counter.builder("payment.spool.rejected")
+                .description("Events dropped because the spool was full or unwritable")
+                .register(meterRegistry);
+        Gauge.builder("payment.spool.records", this, spool -> spool.pendingRecords)
+                .description("Events waiting in the local spool for the broker")
+                .register(meterRegistry);
+        Gauge.builder("payment.spool.bytes", this, spool -> spool.pendingBytes)
+                .description("Bytes of spooled events not yet replayed")
+                .register(meterRegistry);
+        if (!enabled) return;
+
+        directory = Path.of(dir);
+        // Created with the first segment, a node that never spools leaves no trace
+        if (!Files.isDirectory(directory)) return;
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file);
+            if (segment == null) {
+                log.warn("Ignoring spool file {} with an unknown header", file);
+                continue;
+            }
+            segments.add(segment);
+            nextSequence = Math.max(nextSequence, segment.sequence + 1);
+        }
+        // Drained before the last shutdown, only the last segment is kept for appends
+        while (segments.size() > 1 && segments.peekFirst().drained()) {
+            segments.pollFirst().delete();
+        }
+        for (Segment segment : segments) {
+            pendingRecords += segment.count(segment.readPosition, segment.writePosition);
+            pendingBytes += segment.writePosition - segment.readPosition;
+        }
+        if (pendingRecords > 0) {
+            log.warn("Spool holds {} undelivered events from a previous run, replaying them", pendingRecords);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Lock-free check for PaymentProducer: new events queue up behind a backlog
+    public boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    // false = not spooled (disabled, full, I/O error), the event is lost
+    public boolean append(String topic, String key, PaymentEvent event) {
+        if (!enabled) return false;
+        byte[] body = encode(topic, key, event);
+        int recordBytes = 8 + body.length;
+        if (HEADER_BYTES + recordBytes > segmentBytes) {
+            log.error("Event {} ({} bytes) is larger than a spool segment, dropping it", event.getTransactionId(), body.length);
+            rejected.increment();
+            return false;
+        }
+        lock.lock();
+        try {
+            Segment active = segments.peekLast();
+            if (active == null || active.remaining() < recordBytes) {
+                if (segments.size() >= maxSegments) {
+                    log.error("Spool full ({} segments), dropping event {} for {}", segments.size(),
+                            event.getTransactionId(), topic);
+                    rejected.increment();
+                    return false;
+                }
+                Files.createDirectories(directory);
+                active = Segment.create(directory.resolve(String.format("%020d%s", nextSequence, SUFFIX)),
+                        nextSequence, segmentBytes);
+                nextSequence++;
+                segments.add(active);
+            }
+            active.write(body, fsync);
+            pendingRecords++;
+            pendingBytes += recordBytes;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to spool event {} for {}", event.getTransactionId(), topic, e);
+            rejected.increment();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Up to max events from the head of the spool, in append order. Nothing is removed until commit.
+    List<Entry> read(int max) {
+        List<Entry> entries = new ArrayList<>(Math.min(max, 1024));
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                int position = segment.readPosition;
+                while (entries.size() < max && position < segment.writePosition) {
+                    ByteBuffer body = segment.body(position);
+                    position += 8 + body.remaining();
+                    entries.add(decode(body, segment, position));
+                }
+                if (entries.size() >= max) break;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return entries;
+    }
+
+    // entry and everything read before it reached Kafka
+    void commit(Entry entry) {
+        lock.lock();
+        try {
+            while (!segments.isEmpty() && segments.peekFirst() != entry.segment) {
+                Segment drained = segments.pollFirst();
+                released(drained, drained.writePosition);
+                drained.delete();
+            }
+            Segment segment = entry.segment;
+            if (segments.peekFirst() != segment) return;
+            released(segment, entry.nextPosition);
+            segment.commit(entry.nextPosition);
+            // Drained and no longer appended to → gone
+            if (segment.drained() && segment != segments.peekLast()) {
+                segments.pollFirst().delete();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete a drained spool segment", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Forces outstanding appends to disk (fsync=false), called by the replayer on every round
+    void flush() {
+        lock.lock();
+        try {
+            Segment active = segments.peekLast();
+            if (active != null) active.buffer.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Only walks the records being committed, not the whole spool
+    private void released(Segment segment, int upTo) {
+        pendingRecords -= segment.count(segment.readPosition, upTo);
+        pendingBytes -= upTo - segment.readPosition;
+    }
+
+    private byte[] encode(String topic, String key, PaymentEvent event) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = serializer.serialize(topic, event);
+        ByteBuffer body = ByteBuffer.allocate(4 + topicBytes.length + 4 + (keyBytes == null ? 0 : keyBytes.length)
+                + payload.length);
+        body.putInt(topicBytes.length).put(topicBytes);
+        if (keyBytes == null) {
+            body.putInt(-1);
+        } else {
+            body.putInt(keyBytes.length).put(keyBytes);
+        }
+        body.put(payload);
+        return body.array();
+    }
+
+    private Entry decode(ByteBuffer body, Segment segment, int nextPosition) {
+        String topic = string(body, body.getInt());
+        int keyLength = body.getInt();
+        String key = keyLength < 0 ? null : string(body, keyLength);
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        return new Entry(topic, key, deserializer.deserialize(topic, payload), segment, nextPosition);
+    }
+
+    private static String string(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+
+        final Path path;
+        final long sequence;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int readPosition;
+        int writePosition;
+
+        private Segment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, long sequence, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segment.buffer.putInt(0, MAGIC).putInt(4, VERSION).putLong(READ_POSITION_OFFSET, HEADER_BYTES);
+            segment.readPosition = HEADER_BYTES;
+            segment.writePosition = HEADER_BYTES;
+            return segment;
+        }
+
+        // null when the file isn't a spool segment
+        static Segment open(Path path) throws IOException {
+            long sequence;
+            try {
+                String name = path.getFileName().toString();
+                sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                channel.close();
+                return null;
+            }
+            Segment segment = new Segment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+                segment.close();
+                return null;
+            }
+            // Valid records up to the first empty or torn one
+            int position = HEADER_BYTES;
+            while (segment.valid(position)) {
+                position += 8 + segment.buffer.getInt(position);
+            }
+            segment.writePosition = position;
+            long committed = segment.buffer.getLong(READ_POSITION_OFFSET);
+            segment.readPosition = (int) Math.max(HEADER_BYTES, Math.min(committed, position));
+            return segment;
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        void write(byte[] body, boolean force) {
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            // Body and CRC first, length last: a crash mid-write leaves a zero length or a CRC mismatch
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            buffer.put(writePosition + 8, body);
+            buffer.putInt(writePosition, body.length);
+            writePosition += 8 + body.length;
+            if (force) buffer.force();
+        }
+
+        ByteBuffer body(int position) {
+            int length = buffer.getInt(position);
+            return buffer.duplicate().position(position + 8).limit(position + 8 + length).slice();
+        }
+
+        boolean valid(int position) {
+            if (position + 8 > buffer.capacity()) return false;
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - 8) return false;
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate().position(position + 8).limit(position + 8 + length));
+            return (int) crc.getValue() == buffer.getInt(position + 4);
+        }
+
+        boolean drained() {
+            return readPosition == writePosition;
+        }
+
+        long count(int from, int to) {
+            long records = 0;
+            for (int position = from; position < to; position += 8 + buffer.getInt(position)) {
+                records++;
+            }
+            return records;
+        }
+
+        void commit(int position) {
+            readPosition = position;
+            buffer.putLong(READ_POSITION_OFFSET, position);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close spool segment {}", path, e);
+            }
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
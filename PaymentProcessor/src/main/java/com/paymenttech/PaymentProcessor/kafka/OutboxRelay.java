@@ -0,0 +1,277 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.repository.OutboxEventRepository;
+import com.paymenttech.PaymentProcessor.service.OutboxService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+//    Outbox → Kafka relay
+//    poll: lowest batch-size ids still in the table
+//    send all of them async, one producer flush
+//    wait for the acks (whenComplete per record)
+//    delete every acknowledged row; failed and unacknowledged ones stay and are resent next round
+//
+//    Poison rows: a row that fails on its own (undecodable, record too large, unknown topic...)
+//    would otherwise be resent forever. Its failure is charged to it (attempts + 1) when the
+//    error is not a retriable Kafka one, or when other rows of the same round got through; a
+//    round in which nothing is acknowledged is an outage and charges nobody. At max-attempts
+//    the row moves to parked_outbox_events (payment.outbox.relay.events{result=parked}).
+//
+//    Guarantee: at-least-once, nothing more. Ids come from pooled sequence blocks (50 per
+//    node), so id order is neither commit order nor order across nodes: a row that commits
+//    late can go out after rows written after it. Nothing is skipped for that (every round
+//    re-reads the table, there is no cursor), but consumers must not depend on the order
+//    of two outbox rows, and they don't:
+//    - payment-events: status transitions are conditional on the current status, a stale
+//      or repeated event is a no-op
+//    - payment-settled: balances are sums (order-free), AccountLedger drops repeats
+//    A crash between ack and delete resends, which the same rules absorb.
+//    Only one node relays at a time (Redis lease), so one node's view drives the deletes.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxRelay {
+    
+    private static final String LEASE_KEY = "payment:outbox:relay";
+    
+    // Keeps each DELETE ... IN (...) below the bind-parameter limits of common databases
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+    
+    // Acquire the lease, or extend it if we already hold it. 1 = we are the relay.
+    private static final RedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n"
+            + "  return redis.call('PEXPIRE', KEYS[1], ARGV[2])\n"
+            + "end\n"
+            + "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end\n"
+            + "return 0",
+            Long.class);
+    
+    private final OutboxEventRepository outboxEventRepository;
+    private final OutboxService outboxService;
+    private final PaymentProducer paymentProducer;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${payment.outbox.batch-size:500}")
+    private int batchSize;
+    
+    // How long to wait for the acks of one batch before leaving the rest for the next poll
+    @Value("${payment.outbox.send-timeout-ms:10000}")
+    private long sendTimeoutMillis;
+    
+    @Value("${payment.outbox.max-attempts:10}")
+    private int maxAttempts;
+    
+    @Value("${payment.outbox.lease-ms:30000}")
+    private long leaseMillis;
+    
+    // While there is a backlog the depth is counted (COUNT(*)) at most this often
+    @Value("${payment.outbox.depth-refresh-ms:5000}")
+    private long depthRefreshMillis;
+    
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong depth = new AtomicLong();
+    private long depthCountedAt;
+    private Timer relayLag;
+    private Counter published;
+    private Counter failed;
+    private Counter parked;
+    
+    @PostConstruct
+    void initMetrics() {
+        // Rows not yet acknowledged by Kafka, as last seen by the relay loop (a scrape never
+        // queries the table). Only the node holding the lease reports it, the others show 0.
+        Gauge.builder("payment.outbox.depth", depth, AtomicLong::get)
+                .description("Outbox rows waiting to be published")
+                .register(meterRegistry);
+        // Commit of the payment → Kafka ack of its event
+        relayLag = Timer.builder("payment.outbox.relay.lag")
+                .description("Time from outbox insert to Kafka acknowledgement")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        published = Counter.builder("payment.outbox.relay.events").tag("result", "published").register(meterRegistry);
+        failed = Counter.builder("payment.outbox.relay.events").tag("result", "failed").register(meterRegistry);
+        parked = Counter.builder("payment.outbox.relay.events").tag("result", "parked").register(meterRegistry);
+    }
+    
+    @Scheduled(fixedDelayString = "${payment.outbox.poll-interval-ms:100}")
+    public void relay() {
+        if (!holdLease()) {
+            depth.set(0);
+            return;
+        }
+        
+        // Full batches mean there is a backlog: keep draining without waiting for the next tick
+        int relayed;
+        do {
+            relayed = relayBatch();
+        } while (relayed == batchSize && holdLease());
+    }
+    
+    // Returns the number of rows removed from the outbox
+    int relayBatch() {
+        List<OutboxEvent> batch = outboxEventRepository.findByOrderByIdAsc(PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            depth.set(0);
+            return 0;
+        }
+        
+        List<CompletableFuture<?>> acks = new ArrayList<>(batch.size());
+        for (OutboxEvent row : batch) {
+            acks.add(send(row));
+        }
+        paymentProducer.flush();
+        
+        try {
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // individual failures are handled below
+        } catch (TimeoutException e) {
+            log.warn("Outbox batch not fully acknowledged within {} ms", sendTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        // Still pending after the timeout says nothing about the row: left as is
+        List<Long> done = new ArrayList<>(batch.size());
+        Map<OutboxEvent, Throwable> failures = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<?> ack = acks.get(i);
+            if (!ack.isDone()) continue;
+            Throwable error = ack.handle((result, ex) -> ex).join();
+            if (error == null) {
+                done.add(batch.get(i).getId());
+            } else {
+                failures.put(batch.get(i), error);
+            }
+        }
+        for (int from = 0; from < done.size(); from += MAX_IN_CLAUSE_SIZE) {
+            outboxEventRepository.deleteByIdIn(done.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, done.size())));
+        }
+        int removed = done.size() + chargeFailures(failures, !done.isEmpty());
+        
+        updateDepth(batch.size(), removed);
+        
+        if (done.size() < batch.size()) {
+            log.warn("Outbox relay: {} of {} events acknowledged, {} failed", done.size(), batch.size(), failures.size());
+        } else {
+            log.debug("Outbox relay: published {} events", done.size());
+        }
+        return removed;
+    }
+    
+    // Counts the round against the rows that failed on their own, parks those that reached
+    // max-attempts. Returns the number of rows parked.
+    private int chargeFailures(Map<OutboxEvent, Throwable> failures, boolean othersGotThrough) {
+        List<Long> charged = new ArrayList<>();
+        List<OutboxEvent> exhausted = new ArrayList<>();
+        Map<Long, String> errors = new HashMap<>();
+        failures.forEach((row, error) -> {
+            if (!othersGotThrough && retriable(error)) return;
+            if (row.getAttempts() + 1 >= maxAttempts) {
+                exhausted.add(row);
+                errors.put(row.getId(), String.valueOf(error));
+            } else {
+                charged.add(row.getId());
+            }
+        });
+        if (!charged.isEmpty()) {
+            outboxEventRepository.incrementAttemptsByIdIn(charged);
+        }
+        if (exhausted.isEmpty()) return 0;
+        outboxService.park(exhausted, errors);
+        parked.increment(exhausted.size());
+        for (OutboxEvent row : exhausted) {
+            log.error("Parked outbox event {} for payment {} after {} failed attempts: {}",
+                    row.getId(), row.getTransactionId(), maxAttempts, errors.get(row.getId()));
+        }
+        return exhausted.size();
+    }
+    
+    private static boolean retriable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetriableException) return true;
+        }
+        return false;
+    }
+    
+    // A partial batch was the whole outbox, so what is left of it is the depth. A full one is
+    // only a lower bound: count, but not more often than depth-refresh-ms, and in between
+    // take the previous value minus what this round removed.
+    private void updateDepth(int polled, int removed) {
+        if (polled < batchSize) {
+            depth.set(polled - removed);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - depthCountedAt >= depthRefreshMillis) {
+            depthCountedAt = now;
+            depth.set(outboxEventRepository.count());
+        } else {
+            depth.set(Math.max(depth.get() - removed, polled - removed));
+        }
+    }
+    
+    private CompletableFuture<?> send(OutboxEvent row) {
+        try {
+            PaymentEvent event = outboxService.decode(row);
+            CompletableFuture<?> ack = row.getTopic() == null
+                    ? paymentProducer.sendPaymentEvent(event)
+                    : paymentProducer.send(row.getTopic(), row.getRecordPartition(), row.getRecordKey(), event);
+            return ack.whenComplete((result, ex) -> {
+                if (ex != null) {
+                    failed.increment();
+                    log.error("Failed to publish outbox event {} for payment {}", row.getId(), row.getTransactionId(), ex);
+                } else {
+                    published.increment();
+                    relayLag.record(Duration.between(row.getCreatedAt(), LocalDateTime.now()));
+                }
+            });
+        } catch (Exception e) {
+            failed.increment();
+            log.error("Failed to publish outbox event {} for payment {}", row.getId(), row.getTransactionId(), e);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    private boolean holdLease() {
+        try {
+            Long held = stringRedisTemplate.execute(LEASE_SCRIPT, List.of(LEASE_KEY), nodeId, String.valueOf(leaseMillis));
+            return held != null && held == 1L;
+        } catch (Exception e) {
+            log.warn("Outbox relay lease check failed, skipping this round", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+// Decides the Kafka record key, and with it the partition, of every payment event.
+// Kafka only orders records within a partition, so whatever is chosen here is the unit
+// of ordering on payment-events, payment-retry and payment-dlq alike.
+public enum PartitionKeyStrategy {
+
+    // Orders the lifecycle of one payment (original → retry → DLQ)
+    TRANSACTION_ID {
+        @Override
+        public String keyFor(PaymentEvent event) {
+            return event.getTransactionId();
+        }
+    },
+
+    // Orders every payment debiting the same account; implies per-transaction ordering too
+    SOURCE_ACCOUNT {
+        @Override
+        public String keyFor(PaymentEvent event) {
+            return event.getSourceAccount() != null ? event.getSourceAccount() : event.getTransactionId();
+        }
+    };
+
+    public abstract String keyFor(PaymentEvent event);
+}
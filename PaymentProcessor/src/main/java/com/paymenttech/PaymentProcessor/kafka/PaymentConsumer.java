@@ -1,15 +1,22 @@
 package com.paymenttech.PaymentProcessor.kafka;
 
 import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentOutcome;
+import com.paymenttech.PaymentProcessor.service.PaymentMetrics;
 import com.paymenttech.PaymentProcessor.service.PaymentService;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 @Service
@@ -18,45 +25,132 @@ import java.util.Random;
 public class PaymentConsumer {
     
     private final PaymentService paymentService;
+    private final PaymentMetrics paymentMetrics;
+    private final RedeliveryFilter redeliveryFilter;
     private final Random random = new Random();
     
-    @KafkaListener(topics = "payment-events", groupId = "payment-processor-group", concurrency = "10")
-    public void processPaymentEvent(PaymentEvent event) {
+    // payment.consumer.mode picks which of the two payment-events listeners is started:
+    // record → processPaymentEvent (one transaction per event)
+    // batch  → processPaymentEventBatch (one transaction per poll)
+    // Both ack only once the event is applied; redelivered copies are dropped by RedeliveryFilter
+    @KafkaListener(topics = "payment-events", groupId = "payment-processor-group", concurrency = "10",
+            autoStartup = "#{'${payment.consumer.mode:record}' != 'batch'}")
+    public void processPaymentEvent(ConsumerRecord<String, PaymentEvent> record, Acknowledgment ack) {
+        PaymentEvent event = record.value();
+        if (redeliveryFilter.isDuplicate(record.topic(), record.partition(), record.offset(), event.getTransactionId())) {
+            log.debug("Dropping redelivered payment event: {} (offset {})", event.getTransactionId(), record.offset());
+            ack.acknowledge();
+            return;
+        }
+        long start = System.nanoTime();
         try {
             log.info("Processing payment event: {}", event.getTransactionId());
             
             // Simulate payment processing with random success (simulating 95% success rate)
             if (random.nextDouble() < 0.95) {
-                paymentService.handlePaymentSuccess(event.getTransactionId());
+                paymentService.handlePaymentSuccess(event.getTransactionId(), event.getStatus());
                 log.info("Payment processed successfully consumer: {}", event.getTransactionId());
             } else {
-                paymentService.handlePaymentFailure(event.getTransactionId(), "Simulated processing failure");
+                paymentService.handlePaymentFailure(event.getTransactionId(), event.getStatus(), "Simulated processing failure");
                 log.warn("Payment processing failed: {}", event.getTransactionId());
             }
+            paymentMetrics.recordConsume("payment-events", true, start);
         } catch (Exception e) {
+            paymentMetrics.recordConsume("payment-events", false, start);
             log.error("Error processing payment event: {}", event.getTransactionId(), e);
+            // No ack: the error handler seeks back and re-delivers it
             throw new RuntimeException("Payment processing failed", e);
         }
+        redeliveryFilter.markApplied(record.topic(), record.partition(), record.offset(), event.getTransactionId());
+        ack.acknowledge();
+    }
+    
+    @KafkaListener(topics = "payment-events", groupId = "payment-processor-group", concurrency = "10",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "#{'${payment.consumer.mode:record}' == 'batch'}")
+    public void processPaymentEventBatch(List<ConsumerRecord<String, PaymentEvent>> records, Acknowledgment ack) {
+        List<ConsumerRecord<String, PaymentEvent>> fresh = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, PaymentEvent> record : records) {
+            if (!redeliveryFilter.isDuplicate(record.topic(), record.partition(), record.offset(),
+                    record.value().getTransactionId())) {
+                fresh.add(record);
+            }
+        }
+        if (fresh.isEmpty()) {
+            log.debug("Dropping redelivered batch of {} payment events", records.size());
+            ack.acknowledge();
+            return;
+        }
+        log.info("Processing batch of {} payment events ({} redelivered)", fresh.size(), records.size() - fresh.size());
+        long start = System.nanoTime();
+        
+        List<PaymentOutcome> outcomes = new ArrayList<>(fresh.size());
+        for (ConsumerRecord<String, PaymentEvent> record : fresh) {
+            PaymentEvent event = record.value();
+            // Same simulated 95% success rate as the per-record listener
+            if (random.nextDouble() < 0.95) {
+                outcomes.add(PaymentOutcome.success(event.getTransactionId(), event.getStatus()));
+            } else {
+                outcomes.add(PaymentOutcome.failure(event.getTransactionId(), event.getStatus(),
+                        "Simulated processing failure"));
+            }
+        }
+        
+        try {
+            paymentService.handlePaymentOutcomes(outcomes);
+            // One sample per poll
+            paymentMetrics.recordConsume("payment-events", true, start);
+        } catch (Exception e) {
+            paymentMetrics.recordConsume("payment-events", false, start);
+            // No ack: the container's error handler seeks back and re-delivers this batch
+            log.error("Error processing payment event batch of {} events", fresh.size(), e);
+            throw new RuntimeException("Payment batch processing failed", e);
+        }
+        
+        // DB transaction committed and Redis refreshed → safe to commit the offsets
+        for (ConsumerRecord<String, PaymentEvent> record : fresh) {
+            redeliveryFilter.markApplied(record.topic(), record.partition(), record.offset(),
+                    record.value().getTransactionId());
+        }
+        ack.acknowledge();
     }
     
+    // A retry event is one attempt: the same transactionId comes back with the next retryCount
     @KafkaListener(topics = "payment-retry", groupId = "payment-retry-group", concurrency = "5")
-    public void processRetryEvent(PaymentEvent event) {
+    public void processRetryEvent(ConsumerRecord<String, PaymentEvent> record, Acknowledgment ack) {
+        PaymentEvent event = record.value();
+        String attempt = event.getTransactionId() + "#" + event.getRetryCount();
+        if (redeliveryFilter.isDuplicate(record.topic(), record.partition(), record.offset(), attempt)) {
+            log.debug("Dropping redelivered retry event: {}", attempt);
+            ack.acknowledge();
+            return;
+        }
+        long start = System.nanoTime();
         try {
             log.info("Processing retry event: {} (attempt {})", event.getTransactionId(), event.getRetryCount());
             
             if (random.nextDouble() < 0.98) {
-                paymentService.handlePaymentSuccess(event.getTransactionId());
+                paymentService.handlePaymentSuccess(event.getTransactionId(), event.getStatus());
             } else {
-                paymentService.handlePaymentFailure(event.getTransactionId(), "Retry failed");
+                paymentService.handlePaymentFailure(event.getTransactionId(), event.getStatus(), "Retry failed");
             }
+            paymentMetrics.recordConsume("payment-retry", true, start);
+            redeliveryFilter.markApplied(record.topic(), record.partition(), record.offset(), attempt);
         } catch (Exception e) {
+            paymentMetrics.recordConsume("payment-retry", false, start);
             log.error("Error processing retry event", e);
         }
+        // Failed attempts are not re-delivered either, same as before
+        ack.acknowledge();
     }
     
     @KafkaListener(topics = "payment-dlq", groupId = "payment-dlq-group")
-    public void processDLQEvent(PaymentEvent event) {
+    public void processDLQEvent(PaymentEvent event, Acknowledgment ack) {
+        long start = System.nanoTime();
         log.error("Payment sent to DLQ - Manual intervention required: {}", event.getTransactionId());
+        paymentMetrics.recordDlqReceived();
+        paymentMetrics.recordConsume("payment-dlq", true, start);
+        ack.acknowledge();
         // TODO: Send alert to ops team
     }
-}
\ No newline at end of file
+}
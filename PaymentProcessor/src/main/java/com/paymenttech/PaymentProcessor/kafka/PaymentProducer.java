@@ -3,18 +3,23 @@ package com.paymenttech.PaymentProcessor.kafka;
 
 import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
 import com.paymenttech.PaymentProcessor.service.IdempotencyService;
+import com.paymenttech.PaymentProcessor.service.PaymentMetrics;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -23,59 +28,91 @@ public class PaymentProducer {
 //            LoggerFactory.getLogger(PaymentProducer.class);
 	
     private final KafkaTemplate<String, PaymentEvent> kafkaTemplate;
+    private final PaymentMetrics paymentMetrics;
+    private final EventSpool eventSpool;
     
     private static final String PAYMENT_TOPIC = "payment-events";
     private static final String RETRY_TOPIC = "payment-retry";
     private static final String DLQ_TOPIC = "payment-dlq";
     
+    // Same key on all three topics, so a payment's retry and DLQ records land on the
+    // partition number its original did and keep their relative order per key
+    @Value("${payment.kafka.partition-key:SOURCE_ACCOUNT}")
+    private PartitionKeyStrategy partitionKeyStrategy;
+    
     public void publishPaymentEvent(PaymentEvent event) {
-        try {
-            Message<PaymentEvent> message = MessageBuilder
-                    .withPayload(event)
-                    .setHeader(KafkaHeaders.TOPIC, PAYMENT_TOPIC)
-//                    .setHeader(KafkaHeaders.MESSAGE_KEY, event.getTransactionId())
-                    .build();
-            
-            kafkaTemplate.send(message).whenComplete((result, ex) -> {
-                if (ex != null) {
-                    log.error("Failed to publish payment event: {}", event.getTransactionId(), ex);
-                } else {
-                    log.info("Payment event published: {}", event.getTransactionId());
-                }
-            });
-        } catch (Exception e) {
-            log.error("Error publishing payment event", e);
-            throw new RuntimeException("Payment event publication failed", e);
-        }
+        publishOrSpool(event, PAYMENT_TOPIC);
+    }
+    
+    // Used by OutboxRelay: the caller owns acknowledgement (whenComplete on the returned
+    // future), no logging per record here since the relay sends thousands per batch.
+    public CompletableFuture<SendResult<String, PaymentEvent>> sendPaymentEvent(PaymentEvent event) {
+        long start = System.nanoTime();
+        CompletableFuture<SendResult<String, PaymentEvent>> future = kafkaTemplate.send(buildMessage(event, PAYMENT_TOPIC));
+        future.whenComplete(paymentMetrics.sendCallback(PAYMENT_TOPIC, start));
+        return future;
+    }
+    
+    // Outbox rows with an explicit topic / key / partition (payment-settled ledger entries)
+    public CompletableFuture<SendResult<String, PaymentEvent>> send(String topic, Integer partition, String key,
+            PaymentEvent event) {
+        long start = System.nanoTime();
+        CompletableFuture<SendResult<String, PaymentEvent>> future = kafkaTemplate.send(topic, partition, key, event);
+        future.whenComplete(paymentMetrics.sendCallback(topic, start));
+        return future;
+    }
+    
+    // Pushes out everything sitting in the producer's batches (linger.ms) right away
+    public void flush() {
+        kafkaTemplate.flush();
     }
     
     public void publishToRetryTopic(PaymentEvent event) {
-        try {
-            Message<PaymentEvent> message = MessageBuilder
-                    .withPayload(event)
-                    .setHeader(KafkaHeaders.TOPIC, RETRY_TOPIC)
-//                    .setHeader(KafkaHeaders.MESSAGE_KEY, event.getTransactionId())
-                    .build();
-            
-            kafkaTemplate.send(message);
-            log.info("Retry event published: {}", event.getTransactionId());
-        } catch (Exception e) {
-            log.error("Error publishing retry event", e);
-        }
+        publishOrSpool(event, RETRY_TOPIC);
+        log.info("Retry event published: {}", event.getTransactionId());
     }
     
     public void publishToDLQ(PaymentEvent event) {
+        publishOrSpool(event, DLQ_TOPIC);
+        log.error("Payment sent to DLQ: {}", event.getTransactionId());
+    }
+    
+    // These three have no outbox row behind them: whatever Kafka doesn't take (send throws, e.g.
+    // max.block.ms without metadata, or the ack fails) goes to the EventSpool and SpoolReplayer
+    // publishes it once the broker is back. While the spool holds a backlog new events join it
+    // rather than overtake it, so the caller never waits on a broken broker either.
+    private void publishOrSpool(PaymentEvent event, String topic) {
+        String key = partitionKeyStrategy.keyFor(event);
+        if (!eventSpool.isEmpty()) {
+            spool(topic, key, event, null);
+            return;
+        }
+        long start = System.nanoTime();
         try {
-            Message<PaymentEvent> message = MessageBuilder
-                    .withPayload(event)
-                    .setHeader(KafkaHeaders.TOPIC, DLQ_TOPIC)
-//                    .setHeader(KafkaHeaders.MESSAGE_KEY, event.getTransactionId())
-                    .build();
-            
-            kafkaTemplate.send(message);
-            log.error("Payment sent to DLQ: {}", event.getTransactionId());
+            kafkaTemplate.send(buildMessage(event, topic)).whenComplete((result, ex) -> {
+                paymentMetrics.recordSend(topic, ex == null, start);
+                if (ex != null) spool(topic, key, event, ex);
+            });
         } catch (Exception e) {
-            log.error("Error publishing to DLQ", e);
+            paymentMetrics.recordSend(topic, false, start);
+            spool(topic, key, event, e);
+        }
+    }
+    
+    private void spool(String topic, String key, PaymentEvent event, Throwable cause) {
+        if (eventSpool.append(topic, key, event)) {
+            log.warn("Event {} for {} spooled for replay: {}", event.getTransactionId(), topic,
+                    cause == null ? "spool backlog" : cause.toString());
+        } else {
+            log.error("Failed to publish event {} to {}", event.getTransactionId(), topic, cause);
         }
     }
+    
+    private Message<PaymentEvent> buildMessage(PaymentEvent event, String topic) {
+        return MessageBuilder
+                .withPayload(event)
+                .setHeader(KafkaHeaders.TOPIC, topic)
+                .setHeader(KafkaHeaders.KEY, partitionKeyStrategy.keyFor(event))
+                .build();
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,277 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+//    Drops events the consumer already applied, before they reach the database
+//
+//    Offsets are committed by the listeners (manual ack) after the event is applied, so anything
+//    applied but not yet committed comes back after a rebalance or a crash. Without this every
+//    copy costs handlePaymentSuccess a round trip for a conditional UPDATE that matches nothing.
+//
+//    Per assigned partition:
+//    Watermark → highest offset applied. offset <= watermark = redelivery, dropped. Exact, no
+//                false positives. Written behind to Redis (flush-interval-ms, and on revoke) so
+//                the next owner of the partition starts from it
+//    Filter    → bloom filter over the dedup keys applied recently, for the same event appended
+//                twice at different offsets (outbox relay resend, sweeper re-drive of an event
+//                that was only lagging). Two generations: the current one takes the inserts and
+//                rotates after filter-capacity keys or filter-window-ms, the previous one is still
+//                checked. A false positive (new event dropped) is not sticky: the sweeper
+//                re-drives the payment after stuck-after, by then both generations are replaced
+//
+//    Memory per node = assigned partitions x 2 x filter size, reported as
+//    payment.consumer.dedup.memory. A partition's state is dropped when it is revoked.
+//
+//    Thread-safety: a partition is owned by one consumer thread (listener calls and rebalance
+//    callbacks), the flush only reads the watermarks.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RedeliveryFilter implements ConsumerAwareRebalanceListener {
+
+    // payment-events and payment-retry each have a single consumer group, the topic is enough
+    private static final String WATERMARK_KEY_PREFIX = "payment:consumer:applied:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${payment.consumer.dedup.enabled:true}")
+    private boolean enabled;
+
+    // Keys per filter generation; the bloom filter is sized for it at filter-fpp
+    @Value("${payment.consumer.dedup.filter-capacity:50000}")
+    private int filterCapacity;
+
+    @Value("${payment.consumer.dedup.filter-fpp:0.0001}")
+    private double filterFpp;
+
+    // 2 x window must stay below payment.sweeper.stuck-after-ms (see above)
+    @Value("${payment.consumer.dedup.filter-window-ms:240000}")
+    private long filterWindowMillis;
+
+    @Value("${payment.consumer.dedup.watermark-ttl-ms:86400000}")
+    private long watermarkTtlMillis;
+
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    private Counter redelivered;
+    private Counter duplicates;
+
+    @PostConstruct
+    void init() {
+        redelivered = Counter.builder("payment.consumer.dedup.dropped").tag("reason", "offset").register(meterRegistry);
+        duplicates = Counter.builder("payment.consumer.dedup.dropped").tag("reason", "filter").register(meterRegistry);
+        Gauge.builder("payment.consumer.dedup.memory", this, RedeliveryFilter::memoryBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("payment.consumer.dedup.partitions", partitions, Map::size).register(meterRegistry);
+    }
+
+    // true → already applied, ack and skip
+    public boolean isDuplicate(String topic, int partition, long offset, String key) {
+        if (!enabled) return false;
+        PartitionState state = state(new TopicPartition(topic, partition));
+        if (offset <= state.watermark) {
+            redelivered.increment();
+            return true;
+        }
+        if (key != null && state.mightContain(key, System.nanoTime())) {
+            duplicates.increment();
+            return true;
+        }
+        return false;
+    }
+
+    // Call after the event's DB transaction committed, before acking
+    public void markApplied(String topic, int partition, long offset, String key) {
+        if (!enabled) return;
+        PartitionState state = state(new TopicPartition(topic, partition));
+        if (offset > state.watermark) state.watermark = offset;
+        if (key != null) state.put(key, System.nanoTime());
+    }
+
+    // Picks up the watermark the previous owner left in Redis. Only trusted when the group has a
+    // committed offset and it lies inside the log, otherwise it belongs to an older incarnation
+    // of the topic.
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> assigned) {
+        if (!enabled || assigned.isEmpty()) return;
+        List<TopicPartition> ordered = new ArrayList<>(assigned);
+        Map<TopicPartition, Long> watermarks = Map.of();
+        try {
+            Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(ordered));
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(ordered);
+            List<String> stored = stringRedisTemplate.opsForValue()
+                    .multiGet(ordered.stream().map(RedeliveryFilter::watermarkKey).toList());
+            watermarks = new HashMap<>();
+            for (int i = 0; i < ordered.size(); i++) {
+                TopicPartition tp = ordered.get(i);
+                String value = stored == null ? null : stored.get(i);
+                OffsetAndMetadata offset = committed.get(tp);
+                Long end = endOffsets.get(tp);
+                if (value == null || offset == null || end == null) continue;
+                long watermark = Long.parseLong(value);
+                if (watermark < end) watermarks.put(tp, watermark);
+            }
+        } catch (RuntimeException e) {
+            // Costs DB round-trips for the redelivered events, not correctness
+            log.warn("Could not load applied-offset watermarks for {}, starting without", ordered, e);
+        }
+        for (TopicPartition tp : ordered) {
+            PartitionState state = new PartitionState();
+            Long watermark = watermarks.get(tp);
+            if (watermark != null) {
+                state.watermark = watermark;
+                state.flushed = watermark;
+            }
+            partitions.put(tp, state);
+        }
+        log.info("Dedup state for {} assigned partitions, {} with a stored watermark", ordered.size(), watermarks.size());
+    }
+
+    // Container committed the acked offsets; hand the watermark over before letting go
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        if (!enabled) return;
+        Map<TopicPartition, PartitionState> leaving = new HashMap<>();
+        for (TopicPartition tp : revoked) {
+            PartitionState state = partitions.remove(tp);
+            if (state != null) leaving.put(tp, state);
+        }
+        flush(leaving);
+    }
+
+    // Someone else owns them already, a late watermark from here could only be lower than theirs
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> lost) {
+        lost.forEach(partitions::remove);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.consumer.dedup.flush-interval-ms:1000}")
+    public void flush() {
+        if (enabled) flush(partitions);
+    }
+
+    private void flush(Map<TopicPartition, PartitionState> states) {
+        Map<TopicPartition, Long> dirty = new HashMap<>();
+        states.forEach((tp, state) -> {
+            long watermark = state.watermark;
+            if (watermark > state.flushed) dirty.put(tp, watermark);
+        });
+        if (dirty.isEmpty()) return;
+        try {
+            // Plain SET, not max(): a topic that was re-created must be able to move it back down
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    dirty.forEach((tp, watermark) -> ops.opsForValue().set(watermarkKey(tp), Long.toString(watermark),
+                            watermarkTtlMillis, TimeUnit.MILLISECONDS));
+                    return null;
+                }
+            });
+            dirty.forEach((tp, watermark) -> {
+                PartitionState state = states.get(tp);
+                if (state != null) state.flushed = watermark;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Failed to store applied-offset watermarks for {} partitions", dirty.size(), e);
+        }
+    }
+
+    long memoryBytes() {
+        long bytes = 0;
+        for (PartitionState state : partitions.values()) bytes += state.memoryBytes();
+        return bytes;
+    }
+
+    private PartitionState state(TopicPartition tp) {
+        // Listener containers without this rebalance listener: no stored watermark, filter only
+        return partitions.computeIfAbsent(tp, ignored -> new PartitionState());
+    }
+
+    private static String watermarkKey(TopicPartition tp) {
+        return WATERMARK_KEY_PREFIX + tp.topic() + ":" + tp.partition();
+    }
+
+    private final class PartitionState {
+
+        volatile long watermark = -1;
+        volatile long flushed = -1;
+
+        // Allocated on first insert, so idle partitions cost nothing
+        private volatile BloomFilter current;
+        private volatile BloomFilter previous;
+        private long currentSince;
+        private int currentCount;
+
+        boolean mightContain(String key, long now) {
+            rotateIfDue(now);
+            return (current != null && current.mightContain(key))
+                    || (previous != null && previous.mightContain(key));
+        }
+
+        void put(String key, long now) {
+            rotateIfDue(now);
+            if (current == null) {
+                current = new BloomFilter(filterCapacity, filterFpp);
+                currentSince = now;
+            }
+            current.put(key);
+            currentCount++;
+        }
+
+        private void rotateIfDue(long now) {
+            if (current == null) return;
+            long age = now - currentSince;
+            long window = TimeUnit.MILLISECONDS.toNanos(filterWindowMillis);
+            if (age >= 2 * window) {
+                // Both generations expired: keep one array for reuse, drop the other
+                current.clear();
+                previous = null;
+            } else if (age >= window || currentCount >= filterCapacity) {
+                BloomFilter recycled = previous != null ? previous : new BloomFilter(filterCapacity, filterFpp);
+                recycled.clear();
+                previous = current;
+                current = recycled;
+            } else {
+                return;
+            }
+            currentSince = now;
+            currentCount = 0;
+        }
+
+        long memoryBytes() {
+            BloomFilter c = current;
+            BloomFilter p = previous;
+            return (c == null ? 0 : c.sizeInBytes()) + (p == null ? 0 : p.sizeInBytes());
+        }
+    }
+}
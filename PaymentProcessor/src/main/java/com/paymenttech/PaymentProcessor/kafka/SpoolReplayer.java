@@ -0,0 +1,165 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//    Drains EventSpool into Kafka once the broker takes events again
+//
+//    Same shape as OutboxRelay: one batch in flight, flush, wait for the acks, commit the
+//    acknowledged prefix. The first failure ends the round (the broker is still unhappy) and the
+//    rest waits for the next tick, so a down broker costs one failed batch per interval, not a
+//    tight retry loop. Sends go straight to the KafkaTemplate: a failed replay stays where it
+//    is in the spool instead of being appended again behind newer events.
+//
+//    Poison records: the spool is FIFO, so an event Kafka refuses on its own (record too large,
+//    unknown topic, not serializable...) would stop the replay for good and new events would
+//    pile up behind it until max-segments drops them. Each failed round is charged to the head
+//    record when the error is not a retriable Kafka one, or when events before it got through
+//    in the same round; a round that fails at its first event with a retriable error is an
+//    outage and charges nobody. At replay-max-attempts the record is committed past, logged
+//    and counted (payment.spool.dropped). The count lives in memory, a restart starts it over.
+//
+//    Per node, no lease: every node replays its own spool.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SpoolReplayer {
+
+    private final EventSpool eventSpool;
+    private final KafkaTemplate<String, PaymentEvent> kafkaTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${payment.spool.replay-batch-size:500}")
+    private int batchSize;
+
+    @Value("${payment.spool.replay-timeout-ms:10000}")
+    private long replayTimeoutMillis;
+
+    @Value("${payment.spool.replay-max-attempts:10}")
+    private int maxAttempts;
+
+    private Counter replayed;
+    private Counter failedRounds;
+    private Counter dropped;
+
+    // Head record that failed the last round(s), and how many rounds it was charged
+    private EventSpool.Entry stuck;
+    private int stuckAttempts;
+
+    @PostConstruct
+    void initMetrics() {
+        replayed = Counter.builder("payment.spool.replayed")
+                .description("Spooled events acknowledged by Kafka")
+                .register(meterRegistry);
+        failedRounds = Counter.builder("payment.spool.replay.failed")
+                .description("Replay rounds ended by an unacknowledged event")
+                .register(meterRegistry);
+        dropped = Counter.builder("payment.spool.dropped")
+                .description("Spooled events given up on after replay-max-attempts refusals")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.spool.replay-interval-ms:1000}")
+    public void replay() {
+        if (!eventSpool.isEnabled() || eventSpool.isEmpty()) return;
+        eventSpool.flush();
+
+        int replayedInBatch;
+        do {
+            replayedInBatch = replayBatch();
+        } while (replayedInBatch == batchSize);
+    }
+
+    // Returns the number of events committed (removed from the spool)
+    int replayBatch() {
+        List<EventSpool.Entry> batch = eventSpool.read(batchSize);
+        if (batch.isEmpty()) return 0;
+
+        List<CompletableFuture<?>> acks = new ArrayList<>(batch.size());
+        for (EventSpool.Entry entry : batch) {
+            try {
+                acks.add(kafkaTemplate.send(entry.topic, entry.key, entry.event));
+            } catch (Exception e) {
+                // Typically max.block.ms: no metadata, the broker is still away
+                acks.add(CompletableFuture.failedFuture(e));
+                break;
+            }
+        }
+        kafkaTemplate.flush();
+
+        try {
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(replayTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // handled per event below
+        } catch (TimeoutException e) {
+            log.warn("Spool replay batch not fully acknowledged within {} ms", replayTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Acknowledged prefix, in spool order
+        int done = 0;
+        while (done < acks.size() && acks.get(done).isDone() && !acks.get(done).isCompletedExceptionally()) {
+            done++;
+        }
+        if (done > 0) {
+            eventSpool.commit(batch.get(done - 1));
+            replayed.increment(done);
+        }
+        if (done == batch.size()) {
+            log.info("Spool replay: published {} spooled events", done);
+            return done;
+        }
+        failedRounds.increment();
+        EventSpool.Entry head = batch.get(done);
+        Throwable error = done < acks.size() && acks.get(done).isDone()
+                ? acks.get(done).handle((result, ex) -> ex).join()
+                : null;
+        if (error != null && (done > 0 || !retriable(error)) && charge(head) >= maxAttempts) {
+            eventSpool.commit(head);
+            dropped.increment();
+            stuck = null;
+            log.error("Spool replay: dropping event {} for {} after {} refused attempts: {}",
+                    head.event.getTransactionId(), head.topic, maxAttempts, String.valueOf(error));
+            return done + 1;
+        }
+        log.warn("Spool replay: {} of {} events acknowledged, retrying from event {} on the next round",
+                done, batch.size(), head.event.getTransactionId());
+        return done;
+    }
+
+    // Rounds charged to this head record so far, this one included
+    private int charge(EventSpool.Entry head) {
+        if (!head.isSameRecord(stuck)) {
+            stuck = head;
+            stuckAttempts = 0;
+        }
+        return ++stuckAttempts;
+    }
+
+    private static boolean retriable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetriableException) return true;
+        }
+        return false;
+    }
+}
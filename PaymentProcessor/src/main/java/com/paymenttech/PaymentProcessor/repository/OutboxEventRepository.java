@@ -0,0 +1,31 @@
+package com.paymenttech.PaymentProcessor.repository;
+
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+    
+    // Lowest ids first (allocation order, not commit order), page size = relay batch size
+    List<OutboxEvent> findByOrderByIdAsc(Pageable pageable);
+    
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.id IN :ids")
+    int deleteByIdIn(Collection<Long> ids);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.attempts = e.attempts + 1 WHERE e.id IN :ids")
+    int incrementAttemptsByIdIn(Collection<Long> ids);
+}
@@ -0,0 +1,11 @@
+package com.paymenttech.PaymentProcessor.repository;
+
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.paymenttech.PaymentProcessor.domain.ParkedOutboxEvent;
+
+@Repository
+public interface ParkedOutboxEventRepository extends JpaRepository<ParkedOutboxEvent, Long> {
+}
@@ -2,21 +2,30 @@ package com.paymenttech.PaymentProcessor.repository;
 
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import com.paymenttech.PaymentProcessor.domain.Payment;
 import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
 
+import jakarta.persistence.QueryHint;
+
 @Repository
-public interface PaymentRepository extends JpaRepository<Payment, String> {
+public interface PaymentRepository extends JpaRepository<Payment, String>, PaymentTransitions {
     
     Optional<Payment> findByIdempotencyKey(String idempotencyKey);
     
+    List<Payment> findByIdempotencyKeyIn(Collection<String> idempotencyKeys);
+    
     Optional<Payment> findByTransactionId(String transactionId);
     
     List<Payment> findByStatus(PaymentStatus status);
@@ -26,4 +35,25 @@ public interface PaymentRepository extends JpaRepository<Payment, String> {
     
     @Query("SELECT COUNT(p) FROM Payment p WHERE p.status = :status AND p.createdAt >= :since")
     long countByStatusSince(PaymentStatus status, LocalDateTime since);
+    
+    // Per (status, currency): COUNT, SUM(amount) of the payments created in [from, to), for the
+    // stats reconciliation. statuses = all of them, so each status is a range scan on
+    // idx_status_created_id instead of a table scan.
+    @Query("SELECT p.status, p.currency, COUNT(p), SUM(p.amount) FROM Payment p " +
+           "WHERE p.status IN :statuses AND p.createdAt >= :from AND p.createdAt < :to " +
+           "GROUP BY p.status, p.currency")
+    List<Object[]> sumByStatusAndCurrency(Collection<PaymentStatus> statuses, LocalDateTime from, LocalDateTime to);
+    
+    // Keyset page for the streaming export: rows after (afterCreatedAt, afterId) in (createdAt, id)
+    // order, served by idx_status_created_id. Read-only entities (no dirty-checking snapshot),
+    // fetched from the cursor in chunks of 500 rows; must be consumed inside a transaction.
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Payment p WHERE p.status = :status AND p.createdAt >= :from AND p.createdAt < :to " +
+           "AND (p.createdAt > :afterCreatedAt OR (p.createdAt = :afterCreatedAt AND p.id > :afterId)) " +
+           "ORDER BY p.createdAt, p.id")
+    Stream<Payment> streamByStatusAfter(PaymentStatus status, LocalDateTime from, LocalDateTime to,
+                                        LocalDateTime afterCreatedAt, String afterId, Limit limit);
 }
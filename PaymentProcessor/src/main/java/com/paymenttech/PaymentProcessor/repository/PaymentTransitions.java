@@ -0,0 +1,28 @@
+package com.paymenttech.PaymentProcessor.repository;
+
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+
+// Custom fragment of PaymentRepository (implemented by PaymentTransitionsImpl)
+public interface PaymentTransitions {
+
+    // Compare-and-set on the status alone: one UPDATE ... WHERE transaction_id = ? AND status IN
+    // (target.allowedFrom()) whose update count says whether this call moved the payment. Entering
+    // SUCCESS also closes the payment's Transaction (resolvedAt = processedAt).
+    // Returns the row as it is AFTER the update (plain read, detached), or empty if nothing
+    // matched: unknown transactionId, or the payment already left the allowed statuses.
+    Optional<Payment> transition(String transactionId, PaymentStatus target, String failureReason,
+                                 LocalDateTime processedAt);
+
+    // transition() for many payments at once (batch consumer). Returns the updated rows of the
+    // payments this call moved, and only those: anything unknown, already settled, or settled by
+    // a concurrent writer first is absent.
+    List<Payment> transitionAll(Collection<String> transactionIds, PaymentStatus target, String failureReason,
+                                LocalDateTime processedAt);
+}
@@ -0,0 +1,174 @@
+package com.paymenttech.PaymentProcessor.repository;
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.domain.TimeOrderedIds;
+
+import lombok.RequiredArgsConstructor;
+
+//    Conditional UPDATE instead of load → mutate → save under @Version
+//
+//    Before: SELECT payment, UPDATE payment (version check, OptimisticLockException when the
+//            main and the retry listener race), SELECT transaction, UPDATE transaction
+//    Now:    UPDATE payments ... WHERE transaction_id = ? AND status IN (allowed). Its update
+//            count is the whole compare-and-set: 1 = this call moved the payment, 0 = unknown
+//            or someone else got there first. No version in the WHERE, no re-read, no retry.
+//            Entering SUCCESS adds UPDATE transactions ... WHERE payment_id IN (SELECT id FROM
+//            payments WHERE transaction_id IN (...)), joined through the payment so it needs no
+//            lookup of its own, only for the payments this call moved.
+//
+//    The caller gets the row back from a plain read after the UPDATE (the row lock is ours by
+//    then, so it is exactly what we wrote). The previous status is not in it: callers that need
+//    it take it from the event they consumed. version is still bumped so that a JPA save of a
+//    copy loaded earlier fails instead of overwriting the new status.
+//
+//    The batch path sends its UPDATEs as one JDBC batch and reads the winners off the per-statement
+//    counts. Every supported driver reports them for UPDATE batches (MySQL's rewriteBatchedStatements
+//    only folds INSERTs); a driver answering SUCCESS_NO_INFO is refused with an exception rather than
+//    guessed at.
+//
+//    Plain JDBC on the transaction's connection (JpaTransactionManager exposes it), so nothing
+//    ends up in the persistence context with stale state. Being native SQL it has to follow
+//    payment.ids.storage itself (BinaryIdType only covers the JPA side).
+@RequiredArgsConstructor
+public class PaymentTransitionsImpl implements PaymentTransitions {
+
+    private static final String UPDATE_SQL =
+            "UPDATE payments SET status = :target, processed_at = :processedAt, failure_reason = :failureReason, "
+            + "version = version + 1 WHERE transaction_id = :transactionId AND status IN (:allowedFrom)";
+
+    private static final String RESOLVE_SQL =
+            "UPDATE transactions SET resolved_at = :resolvedAt WHERE resolved_at IS NULL AND payment_id IN "
+            + "(SELECT id FROM payments WHERE transaction_id IN (:transactionIds))";
+
+    private static final String SELECT_SQL =
+            "SELECT id, idempotency_key, transaction_id, amount, currency, source_account, destination_account, "
+            + "status, failure_reason, created_at, processed_at, description, version "
+            + "FROM payments WHERE transaction_id IN (:transactionIds)";
+
+    // Keeps each JDBC batch and IN (...) list well below the bind-parameter limits of common databases
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Value("${payment.ids.storage:string}")
+    private String idStorage;
+
+    @Override
+    public Optional<Payment> transition(String transactionId, PaymentStatus target, String failureReason,
+                                        LocalDateTime processedAt) {
+        if (jdbcTemplate.update(UPDATE_SQL, updateParams(transactionId, target, failureReason, processedAt)) == 0) {
+            return Optional.empty();
+        }
+        List<String> moved = List.of(transactionId);
+        if (target == PaymentStatus.SUCCESS) resolve(moved, processedAt);
+        return read(moved).stream().findFirst();
+    }
+
+    @Override
+    public List<Payment> transitionAll(Collection<String> transactionIds, PaymentStatus target, String failureReason,
+                                       LocalDateTime processedAt) {
+        List<Payment> result = new ArrayList<>();
+        List<String> all = new ArrayList<>(transactionIds);
+        for (int from = 0; from < all.size(); from += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, all.size()));
+            int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, chunk.stream()
+                    .map(transactionId -> updateParams(transactionId, target, failureReason, processedAt))
+                    .toArray(SqlParameterSource[]::new));
+            List<String> moved = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                    throw new IllegalStateException("JDBC driver returned no update counts for the payment "
+                            + "transition batch, disable statement rewriting for this datasource");
+                }
+                if (counts[i] > 0) moved.add(chunk.get(i));
+            }
+            if (moved.isEmpty()) continue;
+            if (target == PaymentStatus.SUCCESS) resolve(moved, processedAt);
+            result.addAll(read(moved));
+        }
+        return result;
+    }
+
+    private MapSqlParameterSource updateParams(String transactionId, PaymentStatus target, String failureReason,
+                                               LocalDateTime processedAt) {
+        if (target.allowedFrom().isEmpty()) {
+            throw new IllegalArgumentException("No transition leads to " + target);
+        }
+        return new MapSqlParameterSource()
+                .addValue("target", target.name())
+                .addValue("processedAt", processedAt)
+                .addValue("failureReason", failureReason)
+                .addValue("transactionId", writeId(transactionId))
+                .addValue("allowedFrom", target.allowedFrom().stream().map(Enum::name).toList());
+    }
+
+    private void resolve(List<String> transactionIds, LocalDateTime resolvedAt) {
+        jdbcTemplate.update(RESOLVE_SQL, new MapSqlParameterSource()
+                .addValue("resolvedAt", resolvedAt)
+                .addValue("transactionIds", transactionIds.stream().map(this::writeId).toList()));
+    }
+
+    // In the order given
+    private List<Payment> read(List<String> transactionIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("transactionIds", transactionIds.stream().map(this::writeId).toList());
+        Map<String, Payment> byTransactionId = new HashMap<>();
+        for (Payment payment : jdbcTemplate.query(SELECT_SQL, params, (rs, rowNum) -> mapRow(rs))) {
+            byTransactionId.put(payment.getTransactionId(), payment);
+        }
+        List<Payment> rows = new ArrayList<>(transactionIds.size());
+        for (String transactionId : transactionIds) {
+            Payment payment = byTransactionId.get(transactionId);
+            if (payment != null) rows.add(payment);
+        }
+        return rows;
+    }
+
+    private Payment mapRow(ResultSet rs) throws SQLException {
+        return Payment.builder()
+                .id(readId(rs, "id"))
+                .idempotencyKey(rs.getString("idempotency_key"))
+                .transactionId(readId(rs, "transaction_id"))
+                .amount(rs.getBigDecimal("amount"))
+                .currency(rs.getString("currency"))
+                .sourceAccount(rs.getString("source_account"))
+                .destinationAccount(rs.getString("destination_account"))
+                .status(PaymentStatus.valueOf(rs.getString("status")))
+                .failureReason(rs.getString("failure_reason"))
+                .createdAt(rs.getObject("created_at", LocalDateTime.class))
+                .processedAt(rs.getObject("processed_at", LocalDateTime.class))
+                .description(rs.getString("description"))
+                .version(rs.getObject("version", Long.class))
+                .build();
+    }
+
+    private Object writeId(String id) {
+        return binaryIds() ? TimeOrderedIds.toBytes(id) : id;
+    }
+
+    private String readId(ResultSet rs, String column) throws SQLException {
+        return binaryIds() ? TimeOrderedIds.fromBytes(rs.getBytes(column)) : rs.getString(column);
+    }
+
+    private boolean binaryIds() {
+        return "binary".equals(idStorage);
+    }
+}
@@ -1,11 +1,16 @@
 package com.paymenttech.PaymentProcessor.repository;
 
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.paymenttech.PaymentProcessor.domain.Transaction;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,7 +19,31 @@ public interface TransactionRepository extends JpaRepository<Transaction, String
     
     Optional<Transaction> findByPaymentId(String paymentId);
     
+    List<Transaction> findByPaymentIdIn(Collection<String> paymentIds);
+    
     List<Transaction> findByRetryCountGreaterThan(int retryCount);
     
-    List<Transaction> findByResolvedAtIsNull();
+    // Start of the sweeper's scan: oldest open transaction, from idx_unresolved_retry
+    @Query("SELECT MIN(t.lastRetryAt) FROM Transaction t WHERE t.resolvedAt IS NULL")
+    Optional<LocalDateTime> findOldestUnresolved();
+    
+    // Keyset page of open transactions with lastRetryAt in [from, to), after (afterLastRetryAt, afterId)
+    // in (lastRetryAt, id) order, served by idx_unresolved_retry
+    @Query("SELECT t FROM Transaction t WHERE t.resolvedAt IS NULL AND t.lastRetryAt >= :from AND t.lastRetryAt < :to " +
+           "AND (t.lastRetryAt > :afterLastRetryAt OR (t.lastRetryAt = :afterLastRetryAt AND t.id > :afterId)) " +
+           "ORDER BY t.lastRetryAt, t.id")
+    List<Transaction> findUnresolvedAfter(LocalDateTime from, LocalDateTime to, LocalDateTime afterLastRetryAt,
+                                          String afterId, Limit limit);
+    
+    // Conditional claim for the sweeper: only rows that are still open and still due
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Transaction t SET t.lastRetryAt = :claimedAt " +
+           "WHERE t.id IN :ids AND t.resolvedAt IS NULL AND t.lastRetryAt < :cutoff")
+    int claimStuck(Collection<String> ids, LocalDateTime cutoff, LocalDateTime claimedAt);
+    
+    List<Transaction> findByIdInAndLastRetryAt(Collection<String> ids, LocalDateTime lastRetryAt);
+    
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Transaction t SET t.resolvedAt = :resolvedAt WHERE t.paymentId IN :paymentIds AND t.resolvedAt IS NULL")
+    int markResolvedByPaymentIdIn(Collection<String> paymentIds, LocalDateTime resolvedAt);
 }
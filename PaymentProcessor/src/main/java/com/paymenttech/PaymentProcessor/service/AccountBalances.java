@@ -0,0 +1,112 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ObjLongConsumer;
+
+//    String → long map for one ledger shard: open addressing, linear probing, no boxing
+//
+//    One writer (the consumer thread owning the shard), any number of readers, no locks:
+//    - A balance is a plain long slot, written with setRelease and read with getAcquire
+//    - A new key's balance is written before the key itself, so a reader that finds the key
+//      also sees its first balance
+//    - Growing builds a complete new table and publishes it through the volatile field;
+//      a reader still on the old table gets a slightly older balance, never a wrong slot
+//    Keys are never removed (accounts don't go away), which is what keeps probing this simple.
+final class AccountBalances {
+
+    static final long MISSING = Long.MIN_VALUE;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private volatile Table table;
+    // Written by the writer only, volatile for the metrics gauge
+    private volatile int size;
+
+    AccountBalances(int expectedKeys) {
+        this.table = new Table(capacityFor(expectedKeys));
+    }
+
+    // MISSING when the key was never written
+    long get(String key) {
+        Table current = table;
+        int mask = current.keys.length() - 1;
+        for (int slot = spread(key.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            String candidate = current.keys.getAcquire(slot);
+            if (candidate == null) return MISSING;
+            if (candidate.equals(key)) return current.values.getAcquire(slot);
+        }
+    }
+
+    // Writer thread only
+    void add(String key, long delta) {
+        Table current = table;
+        int mask = current.keys.length() - 1;
+        int slot = spread(key.hashCode()) & mask;
+        while (true) {
+            String candidate = current.keys.getPlain(slot);
+            if (candidate == null) break;
+            if (candidate.equals(key)) {
+                current.values.setRelease(slot, current.values.getPlain(slot) + delta);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        current.values.setRelease(slot, delta);
+        current.keys.setRelease(slot, key);
+        if (++size > current.keys.length() * LOAD_FACTOR) {
+            grow(current);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Writer thread only (snapshots are taken by the writer)
+    void forEach(ObjLongConsumer<String> action) {
+        Table current = table;
+        for (int slot = 0; slot < current.keys.length(); slot++) {
+            String key = current.keys.getPlain(slot);
+            if (key != null) action.accept(key, current.values.getPlain(slot));
+        }
+    }
+
+    private void grow(Table old) {
+        Table grown = new Table(old.keys.length() * 2);
+        int mask = grown.keys.length() - 1;
+        for (int from = 0; from < old.keys.length(); from++) {
+            String key = old.keys.getPlain(from);
+            if (key == null) continue;
+            int slot = spread(key.hashCode()) & mask;
+            while (grown.keys.getPlain(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            grown.values.setPlain(slot, old.values.getPlain(from));
+            grown.keys.setPlain(slot, key);
+        }
+        table = grown;
+    }
+
+    private static int capacityFor(int expectedKeys) {
+        int needed = (int) Math.ceil(Math.max(expectedKeys, 16) / LOAD_FACTOR);
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+
+    // String.hashCode() is weak in the low bits for similar ids ("acc-1", "acc-2", ...)
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Table {
+        final AtomicReferenceArray<String> keys;
+        final AtomicLongArray values;
+
+        Table(int capacity) {
+            this.keys = new AtomicReferenceArray<>(capacity);
+            this.values = new AtomicLongArray(capacity);
+        }
+    }
+}
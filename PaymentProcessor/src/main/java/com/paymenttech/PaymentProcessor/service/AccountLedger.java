@@ -0,0 +1,196 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Service;
+
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+//    Balance per account and currency, projected from payment-settled
+//
+//    handlePaymentSuccess / handlePaymentOutcomes put one record per side of a settled payment
+//    in the outbox, keyed by the account and sent to partition shardOf(account). So every account
+//    lives in exactly one partition, and one partition = one LedgerShard:
+//    - Single writer: the shard is only written by the consumer thread the partition is assigned
+//      to, no locks on the write path; readers go through AccountBalances' published slots
+//    - Every node keeps the whole ledger: the partitions are assigned manually (no consumer group
+//      rebalancing), nothing is committed, the position lives in the snapshot
+//    - Restart: each shard loads <snapshot-dir>/shard-<partition>.snapshot (balances, applied
+//      offset, recent dedup window) and seeks right after its offset, instead of replaying the
+//      topic from the start. No or broken snapshot → replay from offset 0.
+//    - Snapshots are written by the owner thread between two records, every snapshot-interval-ms
+//      and when the partition is revoked (container stop)
+//    - Stoppable without a broker: seeks are resolved by position() on the consumer thread, which
+//      blocks for default.api.timeout.ms (60 s by default) and does not look at container stop.
+//      api-timeout-ms bounds every such call, so a stop waits one timeout at most.
+//
+//    balance() is one hash lookup. It only knows settled payments: in-flight ones (PENDING,
+//    RETRY_SCHEDULED) are not in it, and a shard that is still catching up answers with an
+//    older balance. Good for pre-checks, not a source of truth.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AccountLedger implements ConsumerSeekAware {
+
+    private static final String SETTLED_TOPIC = "payment-settled";
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${kafka.partitions:10}")
+    private int partitions;
+
+    @Value("${payment.ledger.snapshot-dir:ledger}")
+    private String snapshotDir;
+
+    @Value("${payment.ledger.snapshot-interval-ms:60000}")
+    private long snapshotIntervalMillis;
+
+    @Value("${payment.ledger.expected-accounts:10000}")
+    private int expectedAccounts;
+
+    @Value("${payment.ledger.dedup-window:10000}")
+    private int dedupWindow;
+
+    // Index = partition; null until this node has loaded the shard
+    private AtomicReferenceArray<LedgerShard> shards;
+    private Path directory;
+    private Timer snapshotTimer;
+
+    @PostConstruct
+    void init() {
+        shards = new AtomicReferenceArray<>(partitions);
+        directory = Path.of(snapshotDir);
+        Gauge.builder("payment.ledger.accounts", this, AccountLedger::accounts)
+                .description("Account/currency balances held by the ledger projection")
+                .register(meterRegistry);
+        Gauge.builder("payment.ledger.shards", this, AccountLedger::loadedShards)
+                .description("payment-settled partitions loaded on this node")
+                .register(meterRegistry);
+        snapshotTimer = Timer.builder("payment.ledger.snapshot")
+                .description("Writing one shard snapshot")
+                .register(meterRegistry);
+    }
+
+    // Same as Kafka's default partitioner for a String key, but fixed here so the shard does
+    // not depend on payment.kafka.partitioner-class
+    public static int shardOf(String account, int partitions) {
+        return Utils.toPositive(Utils.murmur2(account.getBytes(StandardCharsets.UTF_8))) % partitions;
+    }
+
+    // Empty while the account's shard isn't loaded on this node; zero for an account without
+    // settled payments
+    public Optional<BigDecimal> balance(String account, String currency) {
+        LedgerShard shard = shards.get(shardOf(account, partitions));
+        if (shard == null) return Optional.empty();
+        long hundredths = shard.balance(account, currency);
+        return Optional.of(LedgerShard.toAmount(hundredths == LedgerShard.MISSING ? 0 : hundredths));
+    }
+
+    @KafkaListener(id = "account-ledger", groupId = "payment-ledger",
+            topicPartitions = @org.springframework.kafka.annotation.TopicPartition(topic = SETTLED_TOPIC,
+                    partitions = "0-#{${kafka.partitions:10} - 1}"),
+            concurrency = "${payment.ledger.consumer-threads:2}",
+            autoStartup = "${payment.ledger.enabled:true}",
+            properties = "default.api.timeout.ms=${payment.ledger.api-timeout-ms:5000}")
+    public void onSettled(ConsumerRecord<String, PaymentEvent> record) {
+        LedgerShard shard = shards.get(record.partition());
+        if (shard == null) return;
+        shard.apply(record.offset(), record.key(), record.value());
+        if (shard.snapshotDue(System.currentTimeMillis(), snapshotIntervalMillis)) {
+            snapshot(shard);
+        }
+    }
+
+    // Called on the consumer thread that will own these partitions
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        for (TopicPartition partition : assignments.keySet()) {
+            LedgerShard shard = load(partition.partition());
+            shards.set(partition.partition(), shard);
+            if (shard.appliedOffset() >= 0) {
+                callback.seek(partition.topic(), partition.partition(), shard.appliedOffset() + 1);
+            } else {
+                callback.seekToBeginning(partition.topic(), partition.partition());
+            }
+            log.info("Ledger shard {} loaded: {} balances, resuming after offset {}",
+                    partition.partition(), shard.accounts(), shard.appliedOffset());
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            LedgerShard shard = shards.getAndSet(partition.partition(), null);
+            if (shard != null) snapshot(shard);
+        }
+    }
+
+    LedgerShard load(int partition) {
+        try {
+            LedgerShard shard = LedgerShard.readSnapshot(snapshotFile(partition), partition, expectedAccounts, dedupWindow);
+            if (shard != null) return shard;
+            if (Files.exists(snapshotFile(partition))) {
+                log.warn("Ledger snapshot of shard {} is unreadable, rebuilding it from the topic", partition);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read the ledger snapshot of shard {}, rebuilding it from the topic", partition, e);
+        }
+        return new LedgerShard(partition, expectedAccounts, dedupWindow);
+    }
+
+    // A failed snapshot only costs a longer replay on the next start
+    void snapshot(LedgerShard shard) {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            shard.writeSnapshot(snapshotFile(shard.partition()));
+            snapshotTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write the ledger snapshot of shard {}", shard.partition(), e);
+        }
+    }
+
+    private Path snapshotFile(int partition) {
+        return directory.resolve("shard-" + partition + ".snapshot");
+    }
+
+    private double accounts() {
+        long total = 0;
+        for (int i = 0; i < shards.length(); i++) {
+            LedgerShard shard = shards.get(i);
+            if (shard != null) total += shard.accounts();
+        }
+        return total;
+    }
+
+    private double loadedShards() {
+        int loaded = 0;
+        for (int i = 0; i < shards.length(); i++) {
+            if (shards.get(i) != null) loaded++;
+        }
+        return loaded;
+    }
+}
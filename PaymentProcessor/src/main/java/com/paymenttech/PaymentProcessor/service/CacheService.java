@@ -1,92 +1,299 @@
 package com.paymenttech.PaymentProcessor.service;
 
 
-import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.LinkedHashMap;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class CacheService {
     
-    private final RedisTemplate<String, Object> redisTemplate ;
+    private final RedisTemplate<String, PaymentResponse> paymentResponseRedisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MeterRegistry meterRegistry;
     private static final String CACHE_PREFIX = "payment:";
     private static final long CACHE_TTL_MINUTES = 30;
     
+    // GET-or-SET in one round-trip: returns the existing value, or stores ARGV[1] with a
+    // PX of ARGV[2] and returns nil. Atomic on the Redis side, so exactly one caller per key
+    // gets nil back.
+    private static final RedisScript<PaymentResponse> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "local existing = redis.call('GET', KEYS[1])\n"
+            + "if existing then return existing end\n"
+            + "redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])\n"
+            + "return false",
+            PaymentResponse.class);
+    
+    // RESERVE_SCRIPT for many keys at once: KEYS[i] gets ARGV[i] unless it exists, ARGV[#KEYS+1]
+    // is the PX. Returns the existing value per key, false (nil) where the caller now owns it.
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RESERVE_ALL_SCRIPT = new DefaultRedisScript<>(
+            "local ttl = ARGV[#KEYS + 1]\n"
+            + "local existing = {}\n"
+            + "for i, key in ipairs(KEYS) do\n"
+            + "  local value = redis.call('GET', key)\n"
+            + "  if value then existing[i] = value else\n"
+            + "    redis.call('SET', key, ARGV[i], 'PX', ttl)\n"
+            + "    existing[i] = false\n"
+            + "  end\n"
+            + "end\n"
+            + "return existing",
+            List.class);
+    
+    // Pub/sub channel used to drop stale near-cache entries on the other nodes
+    private static final String INVALIDATION_CHANNEL = "payment:cache:invalidate";
+    
+//    Two tiers:
+//    L1 near cache → in-process Caffeine (size + TTL bound, lock-free reads)
+//    L2 Redis      → shared by all nodes
+//    Retried / duplicate submissions hitting the same node are answered from L1
+//    without a network round-trip. The short TTL bounds staleness if an
+//    invalidation message is ever lost.
+    @Value("${payment.cache.near.max-size:10000}")
+    private long nearCacheMaxSize;
+    
+    @Value("${payment.cache.near.ttl-seconds:30}")
+    private long nearCacheTtlSeconds;
+    
+    private final String nodeId = UUID.randomUUID().toString();
+    private Cache<String, PaymentResponse> nearCache;
+    private Counter redisHits;
+    private Counter redisMisses;
+    private Counter redisEvictions;
+    
+    @PostConstruct
+    void initNearCache() {
+        nearCache = Caffeine.newBuilder()
+                .maximumSize(nearCacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(nearCacheTtlSeconds))
+                .recordStats()
+                .build();
+        
+        // cache.gets{result=hit|miss}, cache.evictions, cache.size ... for the L1 tier
+        CaffeineCacheMetrics.monitor(meterRegistry, nearCache, "idempotency.near");
+        
+        // Same meter names for the L2 tier so both show up side by side
+        redisHits = Counter.builder("cache.gets").tag("cache", "idempotency.redis").tag("result", "hit")
+                .register(meterRegistry);
+        redisMisses = Counter.builder("cache.gets").tag("cache", "idempotency.redis").tag("result", "miss")
+                .register(meterRegistry);
+        redisEvictions = Counter.builder("cache.evictions").tag("cache", "idempotency.redis")
+                .register(meterRegistry);
+        
+        listenerContainer.addMessageListener(this::onInvalidation, new ChannelTopic(INVALIDATION_CHANNEL));
+    }
+    
     public void cachePayment(String idempotencyKey, PaymentResponse response) {
         String key = CACHE_PREFIX + idempotencyKey;
-        redisTemplate.opsForValue().set(key, response, CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+        paymentResponseRedisTemplate.opsForValue().set(key, response, CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+        nearCache.put(idempotencyKey, response);
     }
     
-    public PaymentResponse getCachedPayment(String idempotencyKey) {
-        String key = CACHE_PREFIX + idempotencyKey;
-        return toPaymentResponse((LinkedHashMap<String, Object>)redisTemplate.opsForValue().get(key));
+    // Claims idempotencyKey for a new payment, with `pending` (the response the caller is about
+    // to produce) as the in-flight value. The short TTL frees the key if the node dies before
+    // it either caches the final response or releases the reservation.
+    // Returns null when the key was free (caller owns it now), otherwise the value already there.
+    public PaymentResponse reservePayment(String idempotencyKey, PaymentResponse pending, long ttlMillis) {
+        PaymentResponse near = nearCache.getIfPresent(idempotencyKey);
+        if (near != null) return near;
+        
+        @SuppressWarnings("unchecked")
+        RedisSerializer<PaymentResponse> valueSerializer =
+                (RedisSerializer<PaymentResponse>) paymentResponseRedisTemplate.getValueSerializer();
+        PaymentResponse existing = paymentResponseRedisTemplate.execute(RESERVE_SCRIPT,
+                RedisSerializer.byteArray(), valueSerializer,
+                List.of(CACHE_PREFIX + idempotencyKey),
+                valueSerializer.serialize(pending), String.valueOf(ttlMillis).getBytes(StandardCharsets.US_ASCII));
+        if (existing != null) {
+            redisHits.increment();
+            nearCache.put(idempotencyKey, existing);
+        } else {
+            redisMisses.increment();
+        }
+        return existing;
     }
     
-    public void invalidateCache(String idempotencyKey) {
-        String key = CACHE_PREFIX + idempotencyKey;
-        redisTemplate.delete(key);
+    // reservePayment for a whole batch in one round-trip. Returns the value already held by
+    // each key that was taken; keys absent from the result are now reserved by the caller.
+    public Map<String, PaymentResponse> reservePayments(Map<String, PaymentResponse> pending, long ttlMillis) {
+        Map<String, PaymentResponse> existing = new HashMap<>(nearCache.getAllPresent(pending.keySet()));
+        List<String> idempotencyKeys = new ArrayList<>(pending.size());
+        List<String> keys = new ArrayList<>(pending.size());
+        List<byte[]> args = new ArrayList<>(pending.size() + 1);
+        @SuppressWarnings("unchecked")
+        RedisSerializer<PaymentResponse> valueSerializer =
+                (RedisSerializer<PaymentResponse>) paymentResponseRedisTemplate.getValueSerializer();
+        for (Map.Entry<String, PaymentResponse> entry : pending.entrySet()) {
+            if (existing.containsKey(entry.getKey())) continue;
+            idempotencyKeys.add(entry.getKey());
+            keys.add(CACHE_PREFIX + entry.getKey());
+            args.add(valueSerializer.serialize(entry.getValue()));
+        }
+        if (keys.isEmpty()) return existing;
+        args.add(String.valueOf(ttlMillis).getBytes(StandardCharsets.US_ASCII));
+        
+        // The result serializer is applied to each element of the returned list
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        List<?> values = paymentResponseRedisTemplate.execute(RESERVE_ALL_SCRIPT,
+                RedisSerializer.byteArray(), (RedisSerializer) valueSerializer, keys, args.toArray());
+        int hits = 0;
+        for (int i = 0; values != null && i < idempotencyKeys.size(); i++) {
+            if (values.get(i) instanceof PaymentResponse response) {
+                existing.put(idempotencyKeys.get(i), response);
+                nearCache.put(idempotencyKeys.get(i), response);
+                hits++;
+            }
+        }
+        redisHits.increment(hits);
+        redisMisses.increment(idempotencyKeys.size() - hits);
+        return existing;
     }
     
-    public void incrementFailureCount(String sourceAccount) {
-        String key = "failures:" + sourceAccount;
-        redisTemplate.opsForValue().increment(key);
-        redisTemplate.expire(key, 5, TimeUnit.MINUTES);
+    // Used when an existing entry is rewritten (payment settled): other nodes may hold the
+    // old value in their near cache, so tell them to drop it.
+    public void refreshCachedPayment(String idempotencyKey, PaymentResponse response) {
+        cachePayment(idempotencyKey, response);
+        publishInvalidation(List.of(idempotencyKey));
     }
     
-    public long getFailureCount(String sourceAccount) {
-        String key = "failures:" + sourceAccount;
-        Object count = redisTemplate.opsForValue().get(key);
-        return count != null ? (Long) count : 0;
+    public PaymentResponse getCachedPayment(String idempotencyKey) {
+        PaymentResponse near = nearCache.getIfPresent(idempotencyKey);
+        if (near != null) return near;
+        
+        String key = CACHE_PREFIX + idempotencyKey;
+        PaymentResponse response = paymentResponseRedisTemplate.opsForValue().get(key);
+        if (response != null) {
+            redisHits.increment();
+            nearCache.put(idempotencyKey, response);
+        } else {
+            redisMisses.increment();
+        }
+        return response;
     }
+    
+    // Near cache first, then one MGET for whatever it did not have.
+    // Keys without a cached entry are simply absent from the returned map.
+    public Map<String, PaymentResponse> getCachedPayments(Collection<String> idempotencyKeys) {
+        Map<String, PaymentResponse> cached = new HashMap<>(nearCache.getAllPresent(idempotencyKeys));
+        if (cached.size() == idempotencyKeys.size()) return cached;
 
-    public PaymentResponse toPaymentResponse(LinkedHashMap<String, Object> map) {
-
-        if (map == null) return null;
-
-        PaymentResponse pr = new PaymentResponse();
-
-        pr.setTransactionId((String) map.get("transactionId"));
-        pr.setIdempotencyKey((String) map.get("idempotencyKey"));
-
-        // BigDecimal handling
-        Object amount = map.get("amount");
-        if (amount != null) {
-            pr.setAmount(new BigDecimal(amount.toString()));
+        List<String> misses = new ArrayList<>(idempotencyKeys.size() - cached.size());
+        List<String> keys = new ArrayList<>(idempotencyKeys.size() - cached.size());
+        for (String idempotencyKey : idempotencyKeys) {
+            if (!cached.containsKey(idempotencyKey)) {
+                misses.add(idempotencyKey);
+                keys.add(CACHE_PREFIX + idempotencyKey);
+            }
         }
 
-        pr.setCurrency((String) map.get("currency"));
+        List<PaymentResponse> values = paymentResponseRedisTemplate.opsForValue().multiGet(keys);
+        if (values == null) return cached;
 
-        // Enum handling
-        Object status = map.get("status");
-        if (status != null) {
-            pr.setStatus(PaymentStatus.valueOf(status.toString()));
+        for (int i = 0; i < misses.size(); i++) {
+            PaymentResponse response = values.get(i);
+            if (response != null) {
+                cached.put(misses.get(i), response);
+                nearCache.put(misses.get(i), response);
+            }
         }
-
-        // LocalDateTime handling
-        pr.setCreatedAt(parseDate(map.get("createdAt")));
-        pr.setProcessedAt(parseDate(map.get("processedAt")));
-
-        pr.setMessage((String) map.get("message"));
-
-        return pr;
+        redisHits.increment(cached.size() - (idempotencyKeys.size() - misses.size()));
+        redisMisses.increment(idempotencyKeys.size() - cached.size());
+        return cached;
     }
 
-    private LocalDateTime parseDate(Object value) {
-        if (value == null) return null;
+    // SET ... EX for every entry, sent as a single pipeline (one network round-trip).
+    public void cachePayments(Map<String, PaymentResponse> responses) {
+        if (responses.isEmpty()) return;
 
-        if (value instanceof String) {
-            return LocalDateTime.parse((String) value);
+        paymentResponseRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, PaymentResponse> ops = (RedisOperations<String, PaymentResponse>) operations;
+                responses.forEach((idempotencyKey, response) -> ops.opsForValue()
+                        .set(CACHE_PREFIX + idempotencyKey, response, CACHE_TTL_MINUTES, TimeUnit.MINUTES));
+                return null;
+            }
+        });
+        nearCache.putAll(responses);
+    }
+    
+    public void refreshCachedPayments(Map<String, PaymentResponse> responses) {
+        if (responses.isEmpty()) return;
+        cachePayments(responses);
+        publishInvalidation(responses.keySet());
+    }
+    
+    public void invalidateCache(String idempotencyKey) {
+        String key = CACHE_PREFIX + idempotencyKey;
+        paymentResponseRedisTemplate.delete(key);
+        redisEvictions.increment();
+        nearCache.invalidate(idempotencyKey);
+        publishInvalidation(List.of(idempotencyKey));
+    }
+    
+    public void invalidateCaches(Collection<String> idempotencyKeys) {
+        if (idempotencyKeys.isEmpty()) return;
+        List<String> keys = new ArrayList<>(idempotencyKeys.size());
+        for (String idempotencyKey : idempotencyKeys) {
+            keys.add(CACHE_PREFIX + idempotencyKey);
+        }
+        paymentResponseRedisTemplate.delete(keys);
+        redisEvictions.increment(keys.size());
+        nearCache.invalidateAll(idempotencyKeys);
+        publishInvalidation(idempotencyKeys);
+    }
+    
+    // Message: "<nodeId>|key1\nkey2..." - one PUBLISH per write, however many keys it touched
+    private void publishInvalidation(Collection<String> idempotencyKeys) {
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL, nodeId + "|" + String.join("\n", idempotencyKeys));
+        } catch (Exception e) {
+            // Peers fall back to the near-cache TTL
+            log.warn("Failed to publish near-cache invalidation for {} keys", idempotencyKeys.size(), e);
+        }
+    }
+    
+    private void onInvalidation(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf('|');
+        if (separator < 0 || body.substring(0, separator).equals(nodeId)) return; // our own write
+        
+        for (String idempotencyKey : body.substring(separator + 1).split("\n")) {
+            nearCache.invalidate(idempotencyKey);
         }
-
-        throw new IllegalArgumentException("Unsupported date format: " + value);
     }
 }
\ No newline at end of file
@@ -0,0 +1,454 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.paymenttech.PaymentProcessor.domain.CircuitState;
+import com.paymenttech.PaymentProcessor.dto.CircuitBreakerStatus;
+import com.paymenttech.PaymentProcessor.exception.CircuitOpenException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+//    Per-sourceAccount failure-rate circuit breaker
+//
+//    Counting     → settlement outcomes go into per-account LongAdders (striped, no lock,
+//                   no Redis call on the consumer thread)
+//    Flush        → every flush-interval-ms one pipeline of HINCRBY into the current time
+//                   bucket  payment:cb:window:<account>:<bucket>  {f, t}, shared by all nodes
+//    Evaluate     → right after, one pipeline of HMGET over the window's buckets for every
+//                   account touched here (or not CLOSED); failure rate = f / t over the window
+//    State        → CLOSED → OPEN when t >= minimum-calls and f/t >= threshold
+//                   OPEN for open-seconds, then HALF_OPEN: half-open-calls trial requests per
+//                   node; outcomes settled while HALF_OPEN are also counted in
+//                   payment:cb:trial:<account>, and those alone close it again or re-open it.
+//                   Closing also deletes the account's window buckets: the failures that
+//                   opened it would otherwise stay in the window (longer than open-seconds)
+//                   and re-open it on the next evaluation
+//    Distribution → transitions go to the payment:cb:open hash (startup state) and the
+//                   payment:cb:state channel; every node keeps the non-CLOSED accounts in a
+//                   local map, so processPayment decides without any I/O
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CircuitBreakerService {
+    
+    private static final String WINDOW_KEY_PREFIX = "payment:cb:window:";
+    private static final String TRIAL_KEY_PREFIX = "payment:cb:trial:";
+    private static final String OPEN_KEY = "payment:cb:open";
+    private static final String STATE_CHANNEL = "payment:cb:state";
+    private static final int MAX_TRANSITIONS = 100;
+    
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${payment.circuit-breaker.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${payment.circuit-breaker.window-seconds:60}")
+    private long windowSeconds;
+    
+    @Value("${payment.circuit-breaker.bucket-seconds:10}")
+    private long bucketSeconds;
+    
+    @Value("${payment.circuit-breaker.failure-rate-threshold:0.5}")
+    private double failureRateThreshold;
+    
+    @Value("${payment.circuit-breaker.minimum-calls:20}")
+    private long minimumCalls;
+    
+    @Value("${payment.circuit-breaker.open-seconds:30}")
+    private long openSeconds;
+    
+    @Value("${payment.circuit-breaker.half-open-calls:5}")
+    private int halfOpenCalls;
+    
+    private final String nodeId = UUID.randomUUID().toString();
+    
+    // Outcomes recorded since the last flush (trials = settled while the account was HALF_OPEN)
+    private final ConcurrentHashMap<String, Counts> unflushed = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counts> unflushedTrials = new ConcurrentHashMap<>();
+    // Accounts that are not CLOSED; absent = CLOSED
+    private final ConcurrentHashMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+    
+    private final ArrayDeque<CircuitBreakerStatus> transitions = new ArrayDeque<>();
+    private final ReentrantLock transitionsLock = new ReentrantLock();
+    
+    private static final class Counts {
+        final LongAdder failures = new LongAdder();
+        final LongAdder calls = new LongAdder();
+    }
+    
+    // OPEN until openUntil, HALF_OPEN after that
+    private static final class Breaker {
+        final long openUntil;
+        final long changedAt;
+        final AtomicInteger trialPermits;
+        
+        Breaker(long openUntil, long changedAt, int trialPermits) {
+            this.openUntil = openUntil;
+            this.changedAt = changedAt;
+            this.trialPermits = new AtomicInteger(trialPermits);
+        }
+        
+        CircuitState state(long now) {
+            return now < openUntil ? CircuitState.OPEN : CircuitState.HALF_OPEN;
+        }
+    }
+    
+    @PostConstruct
+    void init() {
+        Gauge.builder("payment.circuit.open", breakers, Map::size)
+                .description("Source accounts whose breaker is OPEN or HALF_OPEN")
+                .register(meterRegistry);
+        listenerContainer.addMessageListener(this::onStateMessage, new ChannelTopic(STATE_CHANNEL));
+        
+        if (!enabled) return;
+        try {
+            long now = System.currentTimeMillis();
+            Map<Object, Object> open = stringRedisTemplate.opsForHash().entries(OPEN_KEY);
+            open.forEach((account, openUntil) ->
+                    breakers.put((String) account, new Breaker(Long.parseLong((String) openUntil), now, halfOpenCalls)));
+            if (!open.isEmpty()) log.info("Loaded {} open circuit breakers", open.size());
+        } catch (Exception e) {
+            // Picked up from the state channel / next evaluation instead
+            log.warn("Could not load circuit breaker state from Redis", e);
+        }
+    }
+    
+    // Fast path for processPayment: local map lookup only
+    public void checkAllowed(String sourceAccount) {
+        long retryAfterSeconds = rejectFor(sourceAccount);
+        if (retryAfterSeconds > 0) {
+            throw new CircuitOpenException(sourceAccount, retryAfterSeconds);
+        }
+    }
+    
+    // 0 = let the request through, otherwise seconds until it is worth trying again
+    public long rejectFor(String sourceAccount) {
+        if (!enabled || sourceAccount == null) return 0;
+        Breaker breaker = breakers.get(sourceAccount);
+        if (breaker == null) return 0;
+        
+        long now = System.currentTimeMillis();
+        if (now < breaker.openUntil) {
+            return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(breaker.openUntil - now + 999));
+        }
+        // HALF_OPEN: a few trial requests, the rest wait for their outcome
+        return breaker.trialPermits.getAndDecrement() > 0 ? 0 : bucketSeconds;
+    }
+    
+    public void recordSuccess(String sourceAccount) {
+        record(sourceAccount, false);
+    }
+    
+    public void recordFailure(String sourceAccount) {
+        record(sourceAccount, true);
+    }
+    
+    private void record(String sourceAccount, boolean failure) {
+        if (!enabled || sourceAccount == null) return;
+        Breaker breaker = breakers.get(sourceAccount);
+        boolean trial = breaker != null && breaker.state(System.currentTimeMillis()) == CircuitState.HALF_OPEN;
+        Counts counts = (trial ? unflushedTrials : unflushed).computeIfAbsent(sourceAccount, account -> new Counts());
+        counts.calls.increment();
+        if (failure) counts.failures.increment();
+    }
+    
+    @Scheduled(fixedDelayString = "${payment.circuit-breaker.flush-interval-ms:1000}")
+    public void flushAndEvaluate() {
+        if (!enabled) return;
+        long now = System.currentTimeMillis();
+        long bucket = now / TimeUnit.SECONDS.toMillis(bucketSeconds);
+        
+        Map<String, long[]> deltas = drain(unflushed);
+        Map<String, long[]> trialDeltas = drain(unflushedTrials);
+        
+        Set<String> accounts = new LinkedHashSet<>(deltas.keySet());
+        accounts.addAll(trialDeltas.keySet());
+        accounts.addAll(breakers.keySet());
+        if (accounts.isEmpty()) return;
+        
+        try {
+            flush(deltas, trialDeltas, bucket);
+        } catch (Exception e) {
+            // Put the counts back, next round retries them
+            restore(unflushed, deltas);
+            restore(unflushedTrials, trialDeltas);
+            log.warn("Circuit breaker flush failed for {} accounts", accounts.size(), e);
+            return;
+        }
+        
+        List<String> ordered = new ArrayList<>(accounts);
+        List<long[]> windows;
+        try {
+            windows = readWindows(ordered, bucket, now);
+        } catch (Exception e) {
+            log.warn("Circuit breaker evaluation failed for {} accounts", ordered.size(), e);
+            return;
+        }
+        for (int i = 0; i < ordered.size(); i++) {
+            evaluate(ordered.get(i), windows.get(i)[0], windows.get(i)[1], now);
+        }
+    }
+    
+    private static Map<String, long[]> drain(ConcurrentHashMap<String, Counts> pending) {
+        Map<String, long[]> deltas = new HashMap<>();
+        for (Map.Entry<String, Counts> entry : pending.entrySet()) {
+            long calls = entry.getValue().calls.sumThenReset();
+            long failures = entry.getValue().failures.sumThenReset();
+            if (calls == 0) {
+                // Idle for a whole interval: drop it so the map only holds active accounts
+                pending.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+            deltas.put(entry.getKey(), new long[] { failures, calls });
+        }
+        return deltas;
+    }
+    
+    private static void restore(ConcurrentHashMap<String, Counts> pending, Map<String, long[]> deltas) {
+        deltas.forEach((account, delta) -> {
+            Counts counts = pending.computeIfAbsent(account, a -> new Counts());
+            counts.failures.add(delta[0]);
+            counts.calls.add(delta[1]);
+        });
+    }
+    
+    // One pipeline: HINCRBY f, HINCRBY t, PEXPIRE per account (trial outcomes count in both)
+    private void flush(Map<String, long[]> deltas, Map<String, long[]> trialDeltas, long bucket) {
+        if (deltas.isEmpty() && trialDeltas.isEmpty()) return;
+        long ttlMillis = TimeUnit.SECONDS.toMillis(windowSeconds + bucketSeconds);
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                deltas.forEach((account, delta) -> increment(ops, windowKey(account, bucket), delta, ttlMillis));
+                trialDeltas.forEach((account, delta) -> {
+                    increment(ops, windowKey(account, bucket), delta, ttlMillis);
+                    increment(ops, TRIAL_KEY_PREFIX + account, delta, ttlMillis);
+                });
+                return null;
+            }
+        });
+    }
+    
+    private static void increment(RedisOperations<String, String> ops, String key, long[] delta, long ttlMillis) {
+        if (delta[0] > 0) ops.opsForHash().increment(key, "f", delta[0]);
+        ops.opsForHash().increment(key, "t", delta[1]);
+        ops.expire(key, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    // One pipeline: HMGET f t for every bucket of every account's window, or of the trial
+    // counts for HALF_OPEN accounts (earlier failures must not decide the trial).
+    private List<long[]> readWindows(List<String> accounts, long currentBucket, long now) {
+        List<List<String>> keysPerAccount = new ArrayList<>(accounts.size());
+        for (String account : accounts) {
+            Breaker breaker = breakers.get(account);
+            if (breaker != null && breaker.state(now) == CircuitState.HALF_OPEN) {
+                keysPerAccount.add(List.of(TRIAL_KEY_PREFIX + account));
+                continue;
+            }
+            keysPerAccount.add(windowKeys(account, currentBucket));
+        }
+        
+        List<Object> replies = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (List<String> keys : keysPerAccount) {
+                    for (String key : keys) {
+                        ops.opsForHash().multiGet(key, List.of("f", "t"));
+                    }
+                }
+                return null;
+            }
+        });
+        
+        List<long[]> windows = new ArrayList<>(accounts.size());
+        int reply = 0;
+        for (List<String> keys : keysPerAccount) {
+            long failures = 0;
+            long calls = 0;
+            for (int k = 0; k < keys.size(); k++) {
+                List<?> values = (List<?>) replies.get(reply++);
+                failures += parse(values.get(0));
+                calls += parse(values.get(1));
+            }
+            windows.add(new long[] { failures, calls });
+        }
+        return windows;
+    }
+    
+    private void evaluate(String account, long failures, long calls, long now) {
+        double rate = calls == 0 ? 0 : (double) failures / calls;
+        Breaker breaker = breakers.get(account);
+        
+        if (breaker == null) {
+            if (calls >= minimumCalls && rate >= failureRateThreshold) {
+                transition(account, CircuitState.OPEN, now, failures, calls);
+            }
+        } else if (now >= breaker.openUntil) {
+            if (calls >= halfOpenCalls) {
+                transition(account, rate >= failureRateThreshold ? CircuitState.OPEN : CircuitState.CLOSED, now, failures, calls);
+            } else if (now - breaker.openUntil > TimeUnit.SECONDS.toMillis(openSeconds)) {
+                // No trial outcome came back for a whole open period: don't hold the account forever
+                transition(account, CircuitState.CLOSED, now, failures, calls);
+            }
+        }
+    }
+    
+    private void transition(String account, CircuitState state, long now, long failures, long calls) {
+        long openUntil = state == CircuitState.OPEN ? now + TimeUnit.SECONDS.toMillis(openSeconds) : 0;
+        // A new trial starts from zero, and a closed breaker from an empty window
+        List<String> reset = new ArrayList<>();
+        reset.add(TRIAL_KEY_PREFIX + account);
+        if (state == CircuitState.CLOSED) {
+            reset.addAll(windowKeys(account, now / TimeUnit.SECONDS.toMillis(bucketSeconds)));
+        }
+        stringRedisTemplate.delete(reset);
+        if (state == CircuitState.OPEN) {
+            stringRedisTemplate.opsForHash().put(OPEN_KEY, account, String.valueOf(openUntil));
+            log.warn("Circuit OPEN for account {}: {} of {} payments failed", account, failures, calls);
+        } else {
+            stringRedisTemplate.opsForHash().delete(OPEN_KEY, account);
+            log.info("Circuit CLOSED for account {}: {} of {} trial payments failed", account, failures, calls);
+        }
+        apply(account, state, openUntil, now, failures, calls);
+        stringRedisTemplate.convertAndSend(STATE_CHANNEL,
+                String.join("|", nodeId, account, state.name(), String.valueOf(openUntil),
+                        String.valueOf(failures), String.valueOf(calls)));
+    }
+    
+    // "<nodeId>|<account>|<state>|<openUntil>|<failures>|<calls>"
+    private void onStateMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|");
+        if (parts.length != 6 || parts[0].equals(nodeId)) return; // malformed or our own transition
+        apply(parts[1], CircuitState.valueOf(parts[2]), Long.parseLong(parts[3]), System.currentTimeMillis(),
+                Long.parseLong(parts[4]), Long.parseLong(parts[5]));
+    }
+    
+    private void apply(String account, CircuitState state, long openUntil, long now, long failures, long calls) {
+        if (state == CircuitState.OPEN) {
+            breakers.put(account, new Breaker(openUntil, now, halfOpenCalls));
+        } else {
+            breakers.remove(account);
+        }
+        meterRegistry.counter("payment.circuit.transitions", "state", state.name()).increment();
+        
+        CircuitBreakerStatus status = CircuitBreakerStatus.builder()
+                .sourceAccount(account)
+                .state(state)
+                .failures(failures)
+                .calls(calls)
+                .failureRate(calls == 0 ? 0 : (double) failures / calls)
+                .openUntil(state == CircuitState.OPEN ? toDateTime(openUntil) : null)
+                .changedAt(toDateTime(now))
+                .build();
+        transitionsLock.lock();
+        try {
+            if (transitions.size() == MAX_TRANSITIONS) transitions.removeFirst();
+            transitions.addLast(status);
+        } finally {
+            transitionsLock.unlock();
+        }
+    }
+    
+    // Accounts that are currently not CLOSED, as seen by this node (no Redis call)
+    public List<CircuitBreakerStatus> getOpenBreakers() {
+        long now = System.currentTimeMillis();
+        List<CircuitBreakerStatus> open = new ArrayList<>(breakers.size());
+        breakers.forEach((account, breaker) -> open.add(CircuitBreakerStatus.builder()
+                .sourceAccount(account)
+                .state(breaker.state(now))
+                .openUntil(toDateTime(breaker.openUntil))
+                .changedAt(toDateTime(breaker.changedAt))
+                .build()));
+        return open;
+    }
+    
+    // State plus the cluster-wide counts it is judged on (window, or trial when HALF_OPEN)
+    public CircuitBreakerStatus getStatus(String sourceAccount) {
+        long now = System.currentTimeMillis();
+        long bucket = now / TimeUnit.SECONDS.toMillis(bucketSeconds);
+        long[] window = readWindows(List.of(sourceAccount), bucket, now).get(0);
+        Optional<Breaker> breaker = Optional.ofNullable(breakers.get(sourceAccount));
+        return CircuitBreakerStatus.builder()
+                .sourceAccount(sourceAccount)
+                .state(breaker.map(b -> b.state(now)).orElse(CircuitState.CLOSED))
+                .failures(window[0])
+                .calls(window[1])
+                .failureRate(window[1] == 0 ? 0 : (double) window[0] / window[1])
+                .openUntil(breaker.map(b -> toDateTime(b.openUntil)).orElse(null))
+                .changedAt(breaker.map(b -> toDateTime(b.changedAt)).orElse(null))
+                .build();
+    }
+    
+    // Most recent first
+    public List<CircuitBreakerStatus> getTransitions() {
+        transitionsLock.lock();
+        try {
+            List<CircuitBreakerStatus> recent = new ArrayList<>(transitions);
+            Collections.reverse(recent);
+            return recent;
+        } finally {
+            transitionsLock.unlock();
+        }
+    }
+    
+    private List<String> windowKeys(String account, long currentBucket) {
+        int bucketsPerWindow = (int) Math.max(1, windowSeconds / bucketSeconds);
+        List<String> keys = new ArrayList<>(bucketsPerWindow);
+        for (long b = currentBucket - bucketsPerWindow + 1; b <= currentBucket; b++) {
+            keys.add(windowKey(account, b));
+        }
+        return keys;
+    }
+    
+    private static String windowKey(String account, long bucket) {
+        return WINDOW_KEY_PREFIX + account + ":" + bucket;
+    }
+    
+    private static long parse(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+    
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
@@ -4,15 +4,23 @@ package com.paymenttech.PaymentProcessor.service;
 import com.paymenttech.PaymentProcessor.domain.Payment;
 import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
 import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+import com.paymenttech.PaymentProcessor.service.PaymentMetrics.Outcome;
+import com.paymenttech.PaymentProcessor.service.PaymentMetrics.Stage;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -22,19 +30,59 @@ public class IdempotencyService {
     
     private final PaymentRepository paymentRepository;
     private final CacheService cacheService ;
+    private final PaymentMetrics paymentMetrics;
+    
+    // Keeps each IN (...) list well below the bind-parameter limits of common databases.
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+    
+    // How long a reservation survives if its owner never finishes (crash between reserve and cache)
+    @Value("${payment.idempotency.reservation-ttl-ms:30000}")
+    private long reservationTtlMillis;
+    
+    // Single round-trip idempotency check for a new payment: claims the key in Redis with the
+    // caller's initiated response as the in-flight value.
+    //   empty   → key was free, the caller owns it and must cache its result or release()
+    //   present → earlier or in-flight payment for the key, return it as is
+    // No database lookup here: if Redis lost the entry the unique index on idempotencyKey
+    // rejects the insert and the caller falls back to findPersistedResult().
+    public Optional<PaymentResponse> reserve(String idempotencyKey, PaymentResponse pending) {
+        PaymentResponse existing = cacheService.reservePayment(idempotencyKey, pending, reservationTtlMillis);
+        if (existing != null) {
+            log.info("Idempotency hit for key: {} (transaction {})", idempotencyKey, existing.getTransactionId());
+        }
+        return Optional.ofNullable(existing);
+    }
+    
+    // Drops a reservation whose payment was never persisted, so the client can retry the key
+    public void release(String idempotencyKey) {
+        log.debug("Releasing idempotency reservation for key: {}", idempotencyKey);
+        cacheService.invalidateCache(idempotencyKey);
+    }
+    
+    // Database only - the cache may hold our own reservation at this point
+    public Optional<PaymentResponse> findPersistedResult(String idempotencyKey) {
+        long start = System.nanoTime();
+        Optional<Payment> payment = paymentRepository.findByIdempotencyKey(idempotencyKey);
+        paymentMetrics.recordStage(Stage.IDEMPOTENCY_DB, payment.isPresent() ? Outcome.HIT : Outcome.MISS, start);
+        return payment.map(this::mapToResponse);
+    }
     
     public Optional<PaymentResponse> getIdempotentResult(String idempotencyKey) {
         log.debug("Checking idempotency for key: {}", idempotencyKey);
         
         // Check cache first
+        long start = System.nanoTime();
         PaymentResponse cachedResult = cacheService.getCachedPayment(idempotencyKey);
+        paymentMetrics.recordStage(Stage.IDEMPOTENCY_LOOKUP, cachedResult != null ? Outcome.HIT : Outcome.MISS, start);
         if (cachedResult != null) {
             log.info("Idempotency cache hit for key: {}", idempotencyKey);
             return Optional.of(cachedResult);
         }
         
         // Check database
+        start = System.nanoTime();
         Optional<Payment> payment = paymentRepository.findByIdempotencyKey(idempotencyKey);
+        paymentMetrics.recordStage(Stage.IDEMPOTENCY_DB, payment.isPresent() ? Outcome.HIT : Outcome.MISS, start);
         if (payment.isPresent()) {
             log.info("Idempotency database hit for key: {}", idempotencyKey);
             PaymentResponse response = mapToResponse(payment.get());
@@ -45,7 +93,53 @@ public class IdempotencyService {
         return Optional.empty();
     }
     
-    private PaymentResponse mapToResponse(Payment payment) {
+    // Set-based variant of reserve() for bulk ingestion: one Redis script claims every key
+    // that is free, then one IN query checks the claimed ones against the database in case
+    // Redis lost an entry whose payment is stored.
+    //   returned        → earlier, in-flight or persisted payment for the key, return it as is
+    //   absent from it  → the caller owns the key and must cache its result or releaseAll()
+    public Map<String, PaymentResponse> reserveAll(Map<String, PaymentResponse> pending) {
+        long start = System.nanoTime();
+        Map<String, PaymentResponse> results = new HashMap<>(cacheService.reservePayments(pending, reservationTtlMillis));
+        // One sample per batch: HIT = every key was taken already
+        paymentMetrics.recordStage(Stage.IDEMPOTENCY_RESERVE,
+                results.size() == pending.size() ? Outcome.HIT : Outcome.MISS, start);
+        log.debug("Idempotency reservations: {} of {} keys already taken", results.size(), pending.size());
+
+        List<String> reserved = new ArrayList<>();
+        for (String idempotencyKey : pending.keySet()) {
+            if (!results.containsKey(idempotencyKey)) {
+                reserved.add(idempotencyKey);
+            }
+        }
+        if (reserved.isEmpty()) return results;
+
+        Map<String, PaymentResponse> fromDatabase = new HashMap<>();
+        start = System.nanoTime();
+        for (int from = 0; from < reserved.size(); from += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = reserved.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, reserved.size()));
+            for (Payment payment : paymentRepository.findByIdempotencyKeyIn(chunk)) {
+                fromDatabase.put(payment.getIdempotencyKey(), mapToResponse(payment));
+            }
+        }
+        paymentMetrics.recordStage(Stage.IDEMPOTENCY_DB, fromDatabase.isEmpty() ? Outcome.MISS : Outcome.HIT, start);
+
+        if (!fromDatabase.isEmpty()) {
+            log.info("Idempotency database hits: {}", fromDatabase.size());
+            // Replaces our reservations with the stored payments
+            cacheService.cachePayments(fromDatabase);
+            results.putAll(fromDatabase);
+        }
+        return results;
+    }
+    
+    public void releaseAll(Collection<String> idempotencyKeys) {
+        log.debug("Releasing {} idempotency reservations", idempotencyKeys.size());
+        cacheService.invalidateCaches(idempotencyKeys);
+    }
+    
+    // package-private so the JMH benchmarks (src/jmh/java) can measure it directly
+    PaymentResponse mapToResponse(Payment payment) {
         return PaymentResponse.builder()
                 .transactionId(payment.getTransactionId())
                 .idempotencyKey(payment.getIdempotencyKey())
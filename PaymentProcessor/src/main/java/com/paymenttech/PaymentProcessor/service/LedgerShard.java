@@ -0,0 +1,205 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+//    Balances of the accounts of one payment-settled partition, written by the one consumer
+//    thread that owns the partition (see AccountLedger)
+//
+//    Each record is one side of a settled payment, keyed by its account: key == sourceAccount
+//    debits, key == destinationAccount credits (both for a payment to oneself, net zero).
+//    Amounts are kept in hundredths, like the payments.amount column (scale 2).
+//
+//    Applied once: records at or below appliedOffset are skipped (redelivery after an error
+//    seek, replay after a restart), and the last dedupWindow "transactionId|account" pairs catch
+//    the copies the outbox relay can publish twice (crash between ack and delete, a few
+//    seconds apart in the log).
+//
+//    Snapshot file, built in a heap buffer, written to <name>.tmp in one channel write, forced,
+//    then renamed over <name>:
+//    | magic | partition | appliedOffset | n | n × (len, key utf-8, balance) | m | m × (len, id) | crc32c |
+final class LedgerShard {
+
+    static final long MISSING = AccountBalances.MISSING;
+
+    private static final int MAGIC = 0x4C444752; // "LDGR"
+
+    private final int partition;
+    private final AccountBalances balances;
+    private final int dedupWindow;
+    private final String[] recent;
+    private final Set<String> recentSet;
+    private int recentNext;
+    private volatile long appliedOffset = -1;
+    private long lastSnapshotMillis = System.currentTimeMillis();
+
+    LedgerShard(int partition, int expectedAccounts, int dedupWindow) {
+        this.partition = partition;
+        this.balances = new AccountBalances(expectedAccounts);
+        this.dedupWindow = dedupWindow;
+        this.recent = new String[dedupWindow];
+        this.recentSet = new HashSet<>(dedupWindow * 2);
+    }
+
+    int partition() {
+        return partition;
+    }
+
+    long appliedOffset() {
+        return appliedOffset;
+    }
+
+    int accounts() {
+        return balances.size();
+    }
+
+    // Any thread
+    long balance(String account, String currency) {
+        return balances.get(balanceKey(account, currency));
+    }
+
+    // Owner thread only. false = already applied, nothing changed. The offset only moves once
+    // the record is done with: if the amount does not fit, the error leaves the record to be
+    // redelivered instead of skipped.
+    boolean apply(long offset, String account, PaymentEvent event) {
+        if (offset <= appliedOffset) return false;
+        if (account == null || event.getAmount() == null) {
+            appliedOffset = offset;
+            return false;
+        }
+        long amount = event.getAmount().setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+        String entry = event.getTransactionId() + "|" + account;
+        if (remember(entry)) {
+            String key = balanceKey(account, event.getCurrency());
+            if (account.equals(event.getSourceAccount())) balances.add(key, -amount);
+            if (account.equals(event.getDestinationAccount())) balances.add(key, amount);
+            appliedOffset = offset;
+            return true;
+        }
+        appliedOffset = offset;
+        return false;
+    }
+
+    boolean snapshotDue(long nowMillis, long intervalMillis) {
+        return nowMillis - lastSnapshotMillis >= intervalMillis;
+    }
+
+    // Owner thread only
+    void writeSnapshot(Path file) throws IOException {
+        List<byte[]> keys = new ArrayList<>(balances.size());
+        long[] values = new long[balances.size()];
+        long[] size = { 4 + 4 + 8 + 4 + 4 + 4 };
+        balances.forEach((key, value) -> {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            values[keys.size()] = value;
+            keys.add(bytes);
+            size[0] += 4 + bytes.length + 8;
+        });
+        List<byte[]> ids = new ArrayList<>(recentSet.size());
+        for (String id : recentSet) {
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            ids.add(bytes);
+            size[0] += 4 + bytes.length;
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Written once and renamed: a heap buffer and one write, no mapping left holding the file
+            ByteBuffer buffer = ByteBuffer.allocate((int) size[0]);
+            buffer.putInt(MAGIC).putInt(partition).putLong(appliedOffset).putInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                buffer.putInt(keys.get(i).length).put(keys.get(i)).putLong(values[i]);
+            }
+            buffer.putInt(ids.size());
+            for (byte[] id : ids) {
+                buffer.putInt(id.length).put(id);
+            }
+            buffer.putInt((int) crc(buffer, buffer.position()));
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSnapshotMillis = System.currentTimeMillis();
+    }
+
+    // null when there is no usable snapshot (missing, torn, other partition): rebuild from offset 0
+    static LedgerShard readSnapshot(Path file, int partition, int expectedAccounts, int dedupWindow) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < 28 || length > Integer.MAX_VALUE) return null;
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) return null;
+            }
+            buffer.flip();
+
+            int contentLength = (int) length - 4;
+            if (buffer.getInt(contentLength) != (int) crc(buffer, contentLength)) return null;
+            if (buffer.getInt() != MAGIC || buffer.getInt() != partition) return null;
+
+            long appliedOffset = buffer.getLong();
+            int accounts = buffer.getInt();
+            LedgerShard shard = new LedgerShard(partition, Math.max(expectedAccounts, accounts), dedupWindow);
+            for (int i = 0; i < accounts; i++) {
+                String key = string(buffer);
+                shard.balances.add(key, buffer.getLong());
+            }
+            int ids = buffer.getInt();
+            for (int i = 0; i < ids; i++) {
+                shard.remember(string(buffer));
+            }
+            shard.appliedOffset = appliedOffset;
+            return shard;
+        }
+    }
+
+    private boolean remember(String entry) {
+        if (!recentSet.add(entry)) return false;
+        String evicted = recent[recentNext];
+        if (evicted != null) recentSet.remove(evicted);
+        recent[recentNext] = entry;
+        recentNext = (recentNext + 1) % dedupWindow;
+        return true;
+    }
+
+    private static String balanceKey(String account, String currency) {
+        return account + "|" + currency;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long crc(ByteBuffer buffer, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(0).limit(length));
+        return crc.getValue();
+    }
+
+    static BigDecimal toAmount(long hundredths) {
+        return BigDecimal.valueOf(hundredths, 2);
+    }
+}
@@ -0,0 +1,124 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.paymenttech.PaymentProcessor.codec.PaymentEventBinarySerializer;
+import com.paymenttech.PaymentProcessor.codec.PaymentEventDeserializer;
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
+import com.paymenttech.PaymentProcessor.domain.ParkedOutboxEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.repository.OutboxEventRepository;
+import com.paymenttech.PaymentProcessor.repository.ParkedOutboxEventRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxService {
+    
+    private static final String PAYMENT_TOPIC = "payment-events";
+    private static final String SETTLED_TOPIC = "payment-settled";
+    
+    private final OutboxEventRepository outboxEventRepository;
+    private final ParkedOutboxEventRepository parkedOutboxEventRepository;
+    
+    @Value("${kafka.partitions:10}")
+    private int partitions;
+    
+    // Stored in the compact Kafka codec: small rows, cheap to decode in the relay
+    private final PaymentEventBinarySerializer serializer = new PaymentEventBinarySerializer();
+    private final PaymentEventDeserializer deserializer = new PaymentEventDeserializer();
+    
+    // MANDATORY: an outbox row only makes sense inside the transaction that writes the
+    // payment, otherwise we are back to publish-and-hope.
+    @Transactional(propagation = Propagation.MANDATORY)
+    public OutboxEvent append(PaymentEvent event) {
+        return outboxEventRepository.save(toOutboxEvent(event));
+    }
+    
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void appendAll(List<PaymentEvent> events) {
+        List<OutboxEvent> rows = new ArrayList<>(events.size());
+        for (PaymentEvent event : events) {
+            rows.add(toOutboxEvent(event));
+        }
+        outboxEventRepository.saveAll(rows);
+    }
+    
+    // Ledger entries of settled payments (AccountLedger): one record per side, keyed and
+    // partitioned by the account it moves money on, so every account has exactly one shard
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void appendSettled(List<PaymentEvent> settled) {
+        List<OutboxEvent> rows = new ArrayList<>(settled.size() * 2);
+        for (PaymentEvent event : settled) {
+            rows.add(toSettledEvent(event, event.getSourceAccount()));
+            rows.add(toSettledEvent(event, event.getDestinationAccount()));
+        }
+        outboxEventRepository.saveAll(rows);
+    }
+    
+    // The event went out by another path (processPaymentAsync in ack-mode BROKER) and was
+    // acknowledged: the relay has nothing left to do for this row. Already gone (the relay got
+    // there first) is fine too.
+    public void remove(Long id) {
+        outboxEventRepository.deleteById(id);
+    }
+    
+    // Rows the relay gave up on: copied to parked_outbox_events and deleted from the outbox in
+    // one transaction. errors: outbox id → last error.
+    @Transactional
+    public void park(List<OutboxEvent> rows, Map<Long, String> errors) {
+        LocalDateTime now = LocalDateTime.now();
+        List<ParkedOutboxEvent> parked = new ArrayList<>(rows.size());
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (OutboxEvent row : rows) {
+            String error = errors.get(row.getId());
+            parked.add(ParkedOutboxEvent.builder()
+                    .id(row.getId())
+                    .transactionId(row.getTransactionId())
+                    .topic(row.getTopic())
+                    .recordKey(row.getRecordKey())
+                    .recordPartition(row.getRecordPartition())
+                    .payload(row.getPayload())
+                    .createdAt(row.getCreatedAt())
+                    .attempts(row.getAttempts() + 1)
+                    .lastError(error == null || error.length() <= 1000 ? error : error.substring(0, 1000))
+                    .parkedAt(now)
+                    .build());
+            ids.add(row.getId());
+        }
+        parkedOutboxEventRepository.saveAll(parked);
+        outboxEventRepository.deleteByIdIn(ids);
+    }
+    
+    public PaymentEvent decode(OutboxEvent row) {
+        return deserializer.deserialize(PAYMENT_TOPIC, row.getPayload());
+    }
+    
+    private OutboxEvent toSettledEvent(PaymentEvent event, String account) {
+        OutboxEvent row = toOutboxEvent(event);
+        row.setTopic(SETTLED_TOPIC);
+        row.setRecordKey(account);
+        row.setRecordPartition(AccountLedger.shardOf(account, partitions));
+        return row;
+    }
+    
+    private OutboxEvent toOutboxEvent(PaymentEvent event) {
+        return OutboxEvent.builder()
+                .transactionId(event.getTransactionId())
+                .payload(serializer.serialize(PAYMENT_TOPIC, event))
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+}
@@ -0,0 +1,213 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.exception.PaymentException;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+//    Streaming export of payments by status and createdAt range
+//
+//    Keyset pages  → WHERE (createdAt, id) > last row ORDER BY createdAt, id LIMIT page-size,
+//                    on idx_status_created_id: page N costs the same as page 1 (no OFFSET)
+//    Per page      → one short read-only transaction; rows come off the JDBC cursor in
+//                    fetch-size chunks and are detached one by one into a page-size list, so
+//                    the persistence context never holds more than one entity
+//    Output        → the page is written as NDJSON or CSV to the response stream after its
+//                    transaction has ended, flushed after every page
+//    Resume        → the token is "<createdAt>,<id>" of the last row received (both formats
+//                    carry both fields); ?after=<token> continues right behind it
+//    Memory stays at one page of entities however large the range; the connection is only
+//    held while a page is read, not while a slow client drains the output.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson"),
+        CSV("text/csv");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+    }
+
+    private static final String CSV_HEADER = "id,transactionId,idempotencyKey,amount,currency,sourceAccount,"
+            + "destinationAccount,status,failureReason,createdAt,processedAt,description";
+
+    private final PaymentRepository paymentRepository;
+    private final EntityManager entityManager;
+    private final PlatformTransactionManager transactionManager;
+    private final ObjectMapper objectMapper;
+
+    @Value("${payment.export.page-size:1000}")
+    private int pageSize;
+
+    // Validates everything up front, so bad input is a 400 before any output is written
+    public void validate(LocalDateTime from, LocalDateTime to, String after) {
+        if (!from.isBefore(to)) {
+            throw new PaymentException("from must be before to");
+        }
+        if (after != null) parseCursor(after, from, to);
+    }
+
+    // Returns the number of rows written
+    public long export(PaymentStatus status, LocalDateTime from, LocalDateTime to, String after, Format format,
+            OutputStream out) throws IOException {
+        Cursor cursor = after == null ? new Cursor(from, "") : parseCursor(after, from, to);
+
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        JsonGenerator json = objectMapper.getFactory().createGenerator(writer)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        if (format == Format.CSV) writer.write(CSV_HEADER + "\n");
+
+        // An IOException means the client went away; it can come back with the last row it got as ?after=
+        long total = 0;
+        while (true) {
+            Cursor start = cursor;
+            List<Payment> page = readOnly.execute(tx -> {
+                List<Payment> read = new ArrayList<>(Math.min(pageSize, 1024));
+                try (Stream<Payment> rows = paymentRepository.streamByStatusAfter(status, from, to,
+                        start.createdAt(), start.id(), Limit.of(pageSize))) {
+                    Iterator<Payment> iterator = rows.iterator();
+                    while (iterator.hasNext()) {
+                        Payment payment = iterator.next();
+                        entityManager.detach(payment);
+                        read.add(payment);
+                    }
+                }
+                return read;
+            });
+            // Connection is back in the pool, the client sets the pace from here
+            for (Payment payment : page) {
+                if (format == Format.CSV) {
+                    writeCsv(writer, payment);
+                } else {
+                    writeJson(json, writer, payment);
+                }
+                cursor = new Cursor(payment.getCreatedAt(), payment.getId());
+            }
+            total += page.size();
+            json.flush();
+            writer.flush();
+            if (page.size() < pageSize) break;
+        }
+        log.info("Exported {} {} payments created in [{}, {}) as {}", total, status, from, to, format);
+        return total;
+    }
+
+    private static void writeJson(JsonGenerator json, Writer writer, Payment payment) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("id", payment.getId());
+        json.writeStringField("transactionId", payment.getTransactionId());
+        json.writeStringField("idempotencyKey", payment.getIdempotencyKey());
+        json.writeNumberField("amount", payment.getAmount());
+        json.writeStringField("currency", payment.getCurrency());
+        json.writeStringField("sourceAccount", payment.getSourceAccount());
+        json.writeStringField("destinationAccount", payment.getDestinationAccount());
+        json.writeStringField("status", payment.getStatus().name());
+        json.writeStringField("failureReason", payment.getFailureReason());
+        json.writeStringField("createdAt", toText(payment.getCreatedAt()));
+        json.writeStringField("processedAt", toText(payment.getProcessedAt()));
+        json.writeStringField("description", payment.getDescription());
+        json.writeEndObject();
+        json.flush();
+        writer.write('\n');
+    }
+
+    private static void writeCsv(Writer writer, Payment payment) throws IOException {
+        writer.write(csv(payment.getId()));
+        writer.write(',');
+        writer.write(csv(payment.getTransactionId()));
+        writer.write(',');
+        writer.write(csv(payment.getIdempotencyKey()));
+        writer.write(',');
+        writer.write(payment.getAmount().toPlainString());
+        writer.write(',');
+        writer.write(csv(payment.getCurrency()));
+        writer.write(',');
+        writer.write(csv(payment.getSourceAccount()));
+        writer.write(',');
+        writer.write(csv(payment.getDestinationAccount()));
+        writer.write(',');
+        writer.write(payment.getStatus().name());
+        writer.write(',');
+        writer.write(csv(payment.getFailureReason()));
+        writer.write(',');
+        writer.write(csv(toText(payment.getCreatedAt())));
+        writer.write(',');
+        writer.write(csv(toText(payment.getProcessedAt())));
+        writer.write(',');
+        writer.write(csv(payment.getDescription()));
+        writer.write('\n');
+    }
+
+    // RFC 4180: quote when needed, double embedded quotes; null → empty field
+    private static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String toText(LocalDateTime value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static Cursor parseCursor(String token, LocalDateTime from, LocalDateTime to) {
+        int separator = token.indexOf(',');
+        if (separator < 0) {
+            throw new PaymentException("Invalid resume token, expected <createdAt>,<id>");
+        }
+        LocalDateTime createdAt;
+        try {
+            createdAt = LocalDateTime.parse(token.substring(0, separator));
+        } catch (DateTimeParseException e) {
+            throw new PaymentException("Invalid resume token, expected <createdAt>,<id>", e);
+        }
+        if (createdAt.isBefore(from) || !createdAt.isBefore(to)) {
+            throw new PaymentException("Resume token is outside the requested range");
+        }
+        return new Cursor(createdAt, token.substring(separator + 1));
+    }
+
+    private record Cursor(LocalDateTime createdAt, String id) {
+    }
+}
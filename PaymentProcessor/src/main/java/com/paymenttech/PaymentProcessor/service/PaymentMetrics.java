@@ -0,0 +1,141 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+//    Where the time goes, per payment
+//
+//    payment.stage{stage, outcome}          → each step of processPayment / processPayments
+//    payment.kafka.send{topic, outcome}     → send() to broker ack, from the whenComplete callback
+//    payment.kafka.consume{topic, outcome}  → listener handling time per record / per poll
+//    payment.lifecycle{status}              → createdAt to SUCCESS / FAILED
+//    payment.dlq.received                   → rate() of this is the DLQ rate
+//    Consumer lag and producer internals come from the Kafka clients themselves
+//    (kafka.consumer.fetch.manager.records.lag*, see KafkaConfig).
+//
+//    All timers publish histogram buckets, so Prometheus can aggregate percentiles across nodes.
+//    Hot path cost: System.nanoTime() twice and an array lookup; meters are built once per
+//    stage/outcome on first use, so combinations that never happen never show up.
+@Service
+@RequiredArgsConstructor
+public class PaymentMetrics {
+
+    public enum Stage {
+        IDEMPOTENCY_RESERVE("idempotency.reserve"),   // Redis GET-or-SET (processPayment)
+        IDEMPOTENCY_LOOKUP("idempotency.lookup"),     // near cache + Redis MGET (batch)
+        IDEMPOTENCY_DB("idempotency.db"),             // database fallback for cache misses
+        PAYMENT_SAVE("db.payment.save"),
+        TRANSACTION_SAVE("db.transaction.save"),
+        OUTBOX_APPEND("db.outbox.append"),
+        DB_COMMIT("db.commit"),                       // whole transaction incl. flush + commit
+        CACHE_WRITE("cache.write"),
+        PIPELINE_QUEUE("pipeline.queue"),             // processPaymentAsync: request → a pipeline thread picks it up
+        BROKER_ACK("kafka.ack");                      // ack-mode BROKER: commit → Kafka ack of the payment's event
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum Outcome {
+        SUCCESS, ERROR, HIT, MISS;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private static final Duration STAGE_MIN = Duration.ofNanos(50_000);
+    private static final Duration STAGE_MAX = Duration.ofSeconds(30);
+
+    private final MeterRegistry meterRegistry;
+
+    // [stage][outcome], filled on first use; a racing first use registers the same meter twice,
+    // which the registry resolves to one instance
+    private final Timer[][] stageTimers = new Timer[Stage.values().length][Outcome.values().length];
+    private final ConcurrentHashMap<String, Timer> sendTimers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> consumeTimers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<PaymentStatus, Timer> lifecycleTimers = new ConcurrentHashMap<>();
+    private volatile Counter dlqReceived;
+
+    public void recordStage(Stage stage, Outcome outcome, long startNanos) {
+        Timer timer = stageTimers[stage.ordinal()][outcome.ordinal()];
+        if (timer == null) {
+            timer = Timer.builder("payment.stage")
+                    .tag("stage", stage.tag)
+                    .tag("outcome", outcome.tag)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(STAGE_MIN)
+                    .maximumExpectedValue(STAGE_MAX)
+                    .register(meterRegistry);
+            stageTimers[stage.ordinal()][outcome.ordinal()] = timer;
+        }
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // For CompletableFuture.whenComplete on a KafkaTemplate send
+    public <T> BiConsumer<T, Throwable> sendCallback(String topic, long startNanos) {
+        return (result, ex) -> recordSend(topic, ex == null, startNanos);
+    }
+
+    public void recordSend(String topic, boolean success, long startNanos) {
+        kafkaTimer(sendTimers, "payment.kafka.send", topic, success)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordConsume(String topic, boolean success, long startNanos) {
+        kafkaTimer(consumeTimers, "payment.kafka.consume", topic, success)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer kafkaTimer(ConcurrentHashMap<String, Timer> timers, String name, String topic, boolean success) {
+        String key = success ? topic : topic + "|error";
+        Timer timer = timers.get(key);
+        if (timer != null) return timer;
+        return timers.computeIfAbsent(key, k -> Timer.builder(name)
+                .tag("topic", topic)
+                .tag("outcome", success ? Outcome.SUCCESS.tag : Outcome.ERROR.tag)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(STAGE_MIN)
+                .maximumExpectedValue(STAGE_MAX)
+                .register(meterRegistry));
+    }
+
+    // End-to-end: createdAt (request accepted) to a terminal status. RETRY_SCHEDULED is not
+    // terminal, a retried payment is recorded once it finally succeeds or fails.
+    public void recordLifecycle(LocalDateTime createdAt, PaymentStatus status, LocalDateTime settledAt) {
+        if (createdAt == null || (status != PaymentStatus.SUCCESS && status != PaymentStatus.FAILED)) return;
+        lifecycleTimers.computeIfAbsent(status, s -> Timer.builder("payment.lifecycle")
+                        .description("Payment creation to SUCCESS / FAILED")
+                        .tag("status", s.name())
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(1))
+                        .maximumExpectedValue(Duration.ofHours(1))
+                        .register(meterRegistry))
+                .record(Duration.between(createdAt, settledAt));
+    }
+
+    public void recordDlqReceived() {
+        Counter counter = dlqReceived;
+        if (counter == null) {
+            counter = Counter.builder("payment.dlq.received")
+                    .description("Payments that reached payment-dlq")
+                    .register(meterRegistry);
+            dlqReceived = counter;
+        }
+        counter.increment();
+    }
+}
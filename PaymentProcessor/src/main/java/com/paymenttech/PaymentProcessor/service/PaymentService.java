@@ -1,8 +1,13 @@
 package com.paymenttech.PaymentProcessor.service;
 
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.BatchPaymentResponse;
+import com.paymenttech.PaymentProcessor.dto.PaymentOutcome;
 import com.paymenttech.PaymentProcessor.dto.PaymentRequest;
 import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
 
@@ -10,9 +15,17 @@ public interface PaymentService {
     
     PaymentResponse processPayment(PaymentRequest request);
     
+    CompletableFuture<PaymentResponse> processPaymentAsync(PaymentRequest request);
+    
+    BatchPaymentResponse processPayments(List<PaymentRequest> requests);
+    
     Optional<PaymentResponse> getPaymentStatus(String transactionId);
     
-    void handlePaymentSuccess(String transactionId);
+    // from: the status the consumed event was produced in (PaymentEvent.status), the one the
+    // payment is expected to leave; it only feeds the status counters
+    void handlePaymentSuccess(String transactionId, PaymentStatus from);
+    
+    void handlePaymentFailure(String transactionId, PaymentStatus from, String reason);
     
-    void handlePaymentFailure(String transactionId, String reason);
+    void handlePaymentOutcomes(List<PaymentOutcome> outcomes);
 }
@@ -2,24 +2,54 @@ package com.paymenttech.PaymentProcessor.service;
 
 
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
 import com.paymenttech.PaymentProcessor.domain.Payment;
 import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.domain.TimeOrderedIds;
 import com.paymenttech.PaymentProcessor.domain.Transaction;
+import com.paymenttech.PaymentProcessor.dto.BatchPaymentResponse;
+import com.paymenttech.PaymentProcessor.dto.BatchPaymentResult;
 import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentOutcome;
 import com.paymenttech.PaymentProcessor.dto.PaymentRequest;
 import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+import com.paymenttech.PaymentProcessor.exception.PaymentException;
 import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
 import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
 import com.paymenttech.PaymentProcessor.repository.TransactionRepository;
+import com.paymenttech.PaymentProcessor.service.PaymentMetrics.Outcome;
+import com.paymenttech.PaymentProcessor.service.PaymentMetrics.Stage;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -33,27 +63,580 @@ public class PaymentServiceImpl implements PaymentService {
     @Autowired
     private final TransactionRepository transactionRepository;
     @Autowired
-    private final PaymentProducer paymentProducer;
-    @Autowired
     private final IdempotencyService idempotencyService;
     @Autowired
     private final CacheService cacheService;
+    @Autowired
+    private final EntityManager entityManager;
+    @Autowired
+    private final TransactionTemplate transactionTemplate;
+    @Autowired
+    private final OutboxService outboxService;
+    @Autowired
+    private final RetryService retryService;
+    @Autowired
+    private final CircuitBreakerService circuitBreakerService;
+    @Autowired
+    private final RateLimitService rateLimitService;
+    @Autowired
+    private final PaymentStatusNotifier statusNotifier;
+    @Autowired
+    private final PaymentMetrics paymentMetrics;
+    @Autowired
+    private final PaymentStatsService paymentStatsService;
+    @Autowired
+    private final PaymentProducer paymentProducer;
+    @Autowired
+    private final AccountLedger accountLedger;
+    
+    @Value("${payment.batch.max-size:5000}")
+    private int maxBatchSize;
+    
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:20}")
+    private int jdbcBatchSize;
+    
+    // processPaymentAsync: when the returned future completes, see there
+    public enum AckMode { OUTBOX, BROKER }
+    
+    private static final String PUBLISHED_MESSAGE = "Payment initiated, event published";
+    private static final String QUEUED_MESSAGE = "Payment initiated, event queued for publishing";
+    
+    @Value("${payment.api.ack-mode:OUTBOX}")
+    private AckMode ackMode;
+    
+    // Unset → no balance pre-check
+    @Value("${payment.ledger.precheck.max-overdraft:#{null}}")
+    private BigDecimal maxOverdraft;
+    
+    @Value("${payment.api.broker-ack-timeout-ms:5000}")
+    private long brokerAckTimeoutMillis;
+    
+    // Blocking stages of processPaymentAsync. Threads beyond the Hikari pool would only wait
+    // for a connection; the queue absorbs bursts, beyond it requests are turned away.
+    @Value("${payment.api.pipeline-threads:10}")
+    private int pipelineThreads;
+    
+    @Value("${payment.api.pipeline-queue-capacity:10000}")
+    private int pipelineQueueCapacity;
     
+    private ExecutorService pipelineExecutor;
+    
+    private record Submission(PaymentResponse response, Long outboxId, PaymentEvent event) {
+    }
+    
+    @PostConstruct
+    void init() {
+        AtomicInteger threads = new AtomicInteger();
+        pipelineExecutor = new ThreadPoolExecutor(pipelineThreads, pipelineThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(pipelineQueueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "payment-pipeline-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+    
+    @PreDestroy
+    void shutdown() {
+        pipelineExecutor.shutdown();
+    }
+    
+    // Not @Transactional: the idempotency reservation happens before the transaction and
+    // has to be released if it rolls back, and a duplicate-key violation only surfaces at
+    // flush/commit, i.e. outside a method-level transaction.
     @Override
-    @Transactional
     public PaymentResponse processPayment(PaymentRequest request) {
+        checkAllowed(request);
+        return submit(request).response();
+    }
+    
+//    Same payment flow without holding the caller's (servlet) thread:
+//
+//    request thread   circuit breaker + account quota (local), hand-off to the pipeline pool
+//    pipeline pool    idempotency reservation, DB transaction, cache write   (blocking I/O)
+//    producer thread  ack-mode BROKER: Kafka acknowledges the event           (callback)
+//    pipeline pool    drop the acknowledged outbox row                       (blocking I/O)
+//
+//    ack-mode OUTBOX completes after the commit, same guarantee as processPayment: the event
+//    is durable in the outbox and OutboxRelay publishes it. ack-mode BROKER also sends the event
+//    right away and completes once the broker has it (acks=all), so a 202 means it is on the
+//    topic. Ack failed or late → still completes (the row stays, the relay publishes it) but
+//    says so in the message. Both paths may publish the same event; consumers are idempotent
+//    per transactionId.
+//    Pipeline pool full → RejectedExecutionException right away (503), nothing was written.
+    @Override
+    public CompletableFuture<PaymentResponse> processPaymentAsync(PaymentRequest request) {
+        CompletableFuture<Submission> submitted;
+        try {
+            checkAllowed(request);
+            long queued = System.nanoTime();
+            submitted = CompletableFuture.supplyAsync(() -> {
+                paymentMetrics.recordStage(Stage.PIPELINE_QUEUE, Outcome.SUCCESS, queued);
+                return submit(request);
+            }, pipelineExecutor);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (ackMode == AckMode.BROKER) {
+            return submitted.thenCompose(this::awaitBrokerAck);
+        }
+        return submitted.thenApply(Submission::response);
+    }
+    
+    private CompletableFuture<PaymentResponse> awaitBrokerAck(Submission submission) {
+        // Duplicate request: the first one already took care of the event
+        if (submission.outboxId() == null) return CompletableFuture.completedFuture(submission.response());
+        
+        long start = System.nanoTime();
+        CompletableFuture<?> ack;
+        try {
+            ack = paymentProducer.sendPaymentEvent(submission.event());
+            paymentProducer.flush();
+        } catch (RuntimeException e) {
+            ack = CompletableFuture.failedFuture(e);
+        }
+        // Continues on the pipeline pool: the outbox DELETE must not run on the producer's I/O thread
+        return ack.orTimeout(brokerAckTimeoutMillis, TimeUnit.MILLISECONDS).handleAsync((result, ex) -> {
+            PaymentResponse response = submission.response();
+            if (ex != null) {
+                paymentMetrics.recordStage(Stage.BROKER_ACK, Outcome.ERROR, start);
+                log.warn("Event for payment {} not acknowledged, left to the outbox relay: {}",
+                        response.getTransactionId(), ex.toString());
+                return response.toBuilder().message(QUEUED_MESSAGE).build();
+            }
+            paymentMetrics.recordStage(Stage.BROKER_ACK, Outcome.SUCCESS, start);
+            try {
+                outboxService.remove(submission.outboxId());
+            } catch (RuntimeException e) {
+                // Harmless: the relay sends it once more
+                log.warn("Could not remove outbox row {} of payment {}", submission.outboxId(),
+                        response.getTransactionId(), e);
+            }
+            return response.toBuilder().message(PUBLISHED_MESSAGE).build();
+        }, pipelineExecutor);
+    }
+    
+    private void checkAllowed(PaymentRequest request) {
+        // Fail fast for accounts whose payments keep failing: local lookup, no Redis/DB/Kafka
+        circuitBreakerService.checkAllowed(request.getSourceAccount());
+        
+        // Per-account quota, mostly decided from this node's token lease
+        rateLimitService.checkAllowed(RateLimitService.Scope.ACCOUNT, request.getSourceAccount(), 1);
+        
+        // Opt-in overdraft guard, one in-memory lookup. The ledger only has settled payments and
+        // no answer while the account's shard is loading, then the payment is let through.
+        if (maxOverdraft != null && request.getAmount() != null && request.getSourceAccount() != null) {
+            accountLedger.balance(request.getSourceAccount(), request.getCurrency()).ifPresent(balance -> {
+                if (balance.subtract(request.getAmount()).compareTo(maxOverdraft.negate()) < 0) {
+                    throw new PaymentException("Insufficient balance on account " + request.getSourceAccount());
+                }
+            });
+        }
+    }
+    
+    // Reservation, DB transaction and cache write of one payment. outboxId/event are null when
+    // an earlier request with the same idempotency key answers this one.
+    private Submission submit(PaymentRequest request) {
         log.info("Processing payment with idempotency key: {}", request.getIdempotencyKey());
         
-        // Check idempotency
-        Optional<PaymentResponse> existingPayment = idempotencyService.getIdempotentResult(request.getIdempotencyKey());
+        // Build the payment up front so its response can serve as the in-flight value
+        Payment payment = buildPayment(request, TimeOrderedIds.next());
+        PaymentResponse response = buildInitiatedResponse(request, payment);
+        
+        // Check idempotency and claim the key in one Redis round-trip.
+        // A concurrent duplicate gets this same response (same transactionId) back.
+        long start = System.nanoTime();
+        Optional<PaymentResponse> existingPayment = idempotencyService.reserve(request.getIdempotencyKey(), response);
+        paymentMetrics.recordStage(Stage.IDEMPOTENCY_RESERVE, existingPayment.isPresent() ? Outcome.HIT : Outcome.MISS, start);
         if (existingPayment.isPresent()) {
             log.info("Returning cached payment for idempotency key: {}", request.getIdempotencyKey());
-            return existingPayment.get();
+            return new Submission(existingPayment.get(), null, null);
+        }
+        
+        PaymentEvent event = buildEvent(request, payment.getTransactionId());
+        OutboxEvent outboxRow;
+        long transactionStart = System.nanoTime();
+        try {
+            outboxRow = transactionTemplate.execute(status -> {
+                // Create payment record, flushed now so a duplicate key fails here and not at commit
+                long stageStart = System.nanoTime();
+                Payment saved = paymentRepository.saveAndFlush(payment);
+                paymentMetrics.recordStage(Stage.PAYMENT_SAVE, Outcome.SUCCESS, stageStart);
+                
+                // Create transaction record
+                stageStart = System.nanoTime();
+                transactionRepository.save(buildTransaction(saved));
+                paymentMetrics.recordStage(Stage.TRANSACTION_SAVE, Outcome.SUCCESS, stageStart);
+                
+                // Queue the event in the outbox, same transaction: OutboxRelay publishes it to
+                // Kafka after commit, so a rollback never leaves an event behind and the
+                // request doesn't wait on the producer
+                stageStart = System.nanoTime();
+                OutboxEvent row = outboxService.append(event);
+                paymentMetrics.recordStage(Stage.OUTBOX_APPEND, Outcome.SUCCESS, stageStart);
+                return row;
+            });
+            paymentMetrics.recordStage(Stage.DB_COMMIT, Outcome.SUCCESS, transactionStart);
+            paymentStatsService.recordAfterCommit(List.of(PaymentStatsService.Change.created(payment)));
+        } catch (DataIntegrityViolationException e) {
+            paymentMetrics.recordStage(Stage.DB_COMMIT, Outcome.ERROR, transactionStart);
+            // Redis no longer had the key (TTL/eviction) but the payment exists:
+            // the unique index caught it, answer with the stored payment instead.
+            Optional<PaymentResponse> stored = idempotencyService.findPersistedResult(request.getIdempotencyKey());
+            if (stored.isEmpty()) {
+                // Some other constraint: nothing was stored under the key, let the client retry it
+                idempotencyService.release(request.getIdempotencyKey());
+                throw e;
+            }
+            PaymentResponse persisted = stored.get();
+            log.info("Idempotency key {} already persisted, returning transaction {}",
+                    request.getIdempotencyKey(), persisted.getTransactionId());
+            cacheService.cachePayment(request.getIdempotencyKey(), persisted);
+            return new Submission(persisted, null, null);
+        } catch (RuntimeException e) {
+            paymentMetrics.recordStage(Stage.DB_COMMIT, Outcome.ERROR, transactionStart);
+            idempotencyService.release(request.getIdempotencyKey());
+            throw e;
         }
         
-        // Create payment record
-        String transactionId = UUID.randomUUID().toString();
-        Payment payment = Payment.builder()
+        // Cache response (replaces the reservation with the full TTL)
+        start = System.nanoTime();
+        cacheService.cachePayment(request.getIdempotencyKey(), response);
+        paymentMetrics.recordStage(Stage.CACHE_WRITE, Outcome.SUCCESS, start);
+        
+        return new Submission(response, outboxRow == null ? null : outboxRow.getId(), event);
+    }
+    
+    @Override
+    @Transactional
+    public BatchPaymentResponse processPayments(List<PaymentRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new PaymentException("Batch must contain at least one payment");
+        }
+        if (requests.size() > maxBatchSize) {
+            throw new PaymentException("Batch size " + requests.size() + " exceeds the limit of " + maxBatchSize);
+        }
+        log.info("Processing payment batch of {} items", requests.size());
+        
+        BatchPaymentResult[] results = new BatchPaymentResult[requests.size()];
+        
+        // Validate up front so one bad item cannot fail the whole batch at flush time, and build
+        // the payment each new key would get: its response is the in-flight reservation value
+        Map<String, Payment> candidates = new LinkedHashMap<>();
+        Map<String, PaymentResponse> pending = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            PaymentRequest request = requests.get(i);
+            String error = validate(request);
+            if (error != null) {
+                results[i] = BatchPaymentResult.builder()
+                        .index(i)
+                        .idempotencyKey(request != null ? request.getIdempotencyKey() : null)
+                        .error(error)
+                        .build();
+            } else if (!candidates.containsKey(request.getIdempotencyKey())) {
+                Payment payment = buildPayment(request, TimeOrderedIds.next());
+                candidates.put(request.getIdempotencyKey(), payment);
+                pending.put(request.getIdempotencyKey(), buildInitiatedResponse(request, payment));
+            }
+        }
+        
+        // Claim every key at once, like submit() does for one. An item whose key a concurrent
+        // request (single or batch) already holds is answered as a duplicate of that payment,
+        // instead of hitting the unique index and rolling back this whole transaction.
+        Map<String, PaymentResponse> known = idempotencyService.reserveAll(pending);
+        Set<String> reserved = new LinkedHashSet<>(pending.keySet());
+        reserved.removeAll(known.keySet());
+        
+        List<Payment> payments = new ArrayList<>();
+        List<PaymentEvent> events = new ArrayList<>();
+        Map<String, PaymentResponse> created = new HashMap<>();
+        boolean synchronizedWithTransaction = TransactionSynchronizationManager.isSynchronizationActive();
+        if (synchronizedWithTransaction) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    settleReservations(reserved, created, status == STATUS_COMMITTED);
+                }
+            });
+        }
+        int duplicates = 0;
+        
+        for (int i = 0; i < requests.size(); i++) {
+            if (results[i] != null) continue;
+            PaymentRequest request = requests.get(i);
+            String key = request.getIdempotencyKey();
+            
+            // Already processed before, or repeated earlier in this same batch
+            PaymentResponse existing = known.containsKey(key) ? known.get(key) : created.get(key);
+            if (existing != null) {
+                duplicates++;
+                results[i] = BatchPaymentResult.builder()
+                        .index(i)
+                        .idempotencyKey(key)
+                        .duplicate(true)
+                        .payment(existing)
+                        .build();
+                continue;
+            }
+            
+            if (circuitBreakerService.rejectFor(request.getSourceAccount()) > 0) {
+                results[i] = BatchPaymentResult.builder()
+                        .index(i)
+                        .idempotencyKey(key)
+                        .error("Payments from account " + request.getSourceAccount() + " are temporarily suspended")
+                        .build();
+                continue;
+            }
+            
+            long retryAfterSeconds = rateLimitService.rejectFor(RateLimitService.Scope.ACCOUNT, request.getSourceAccount(), 1);
+            if (retryAfterSeconds > 0) {
+                results[i] = BatchPaymentResult.builder()
+                        .index(i)
+                        .idempotencyKey(key)
+                        .error("Too many payments from account " + request.getSourceAccount()
+                                + ", retry in " + retryAfterSeconds + "s")
+                        .build();
+                continue;
+            }
+            
+            Payment payment = candidates.get(key);
+            PaymentResponse response = pending.get(key);
+            payments.add(payment);
+            events.add(buildEvent(request, payment.getTransactionId()));
+            created.put(key, response);
+            results[i] = BatchPaymentResult.builder()
+                    .index(i)
+                    .idempotencyKey(key)
+                    .payment(response)
+                    .build();
+        }
+        
+        // Persist in chunks of hibernate.jdbc.batch_size: with order_inserts each flush turns
+        // into one JDBC batch each for payments, transactions and outbox rows, and clearing the
+        // persistence context keeps memory flat for very large batches.
+        // The stage timers measure whole chunks here; statements mostly run at flush()
+        for (int from = 0; from < payments.size(); from += jdbcBatchSize) {
+            long start = System.nanoTime();
+            List<Payment> chunk = paymentRepository.saveAll(
+                    payments.subList(from, Math.min(from + jdbcBatchSize, payments.size())));
+            paymentMetrics.recordStage(Stage.PAYMENT_SAVE, Outcome.SUCCESS, start);
+            List<Transaction> transactions = new ArrayList<>(chunk.size());
+            for (Payment payment : chunk) {
+                transactions.add(buildTransaction(payment));
+            }
+            start = System.nanoTime();
+            transactionRepository.saveAll(transactions);
+            paymentMetrics.recordStage(Stage.TRANSACTION_SAVE, Outcome.SUCCESS, start);
+            start = System.nanoTime();
+            outboxService.appendAll(events.subList(from, Math.min(from + jdbcBatchSize, events.size())));
+            paymentMetrics.recordStage(Stage.OUTBOX_APPEND, Outcome.SUCCESS, start);
+            start = System.nanoTime();
+            entityManager.flush();
+            entityManager.clear();
+            paymentMetrics.recordStage(Stage.DB_COMMIT, Outcome.SUCCESS, start);
+        }
+        
+        List<PaymentStatsService.Change> changes = new ArrayList<>(payments.size());
+        for (Payment payment : payments) {
+            changes.add(PaymentStatsService.Change.created(payment));
+        }
+        paymentStatsService.recordAfterCommit(changes);
+        
+        if (!synchronizedWithTransaction) {
+            settleReservations(reserved, created, true);
+        }
+        
+        return BatchPaymentResponse.builder()
+                .total(requests.size())
+                .accepted(payments.size())
+                .duplicates(duplicates)
+                .rejected(requests.size() - payments.size() - duplicates)
+                .results(Arrays.asList(results))
+                .build();
+    }
+    
+    // Runs once the batch transaction is over. Committed: all new responses are cached in one
+    // Redis pipeline (replacing their reservations) and the keys of rejected items are given
+    // back. Rolled back: every reservation is released, so Redis never serves a payment that
+    // was not stored and the client can resubmit the keys.
+    private void settleReservations(Set<String> reserved, Map<String, PaymentResponse> created, boolean committed) {
+        Set<String> released = new LinkedHashSet<>(reserved);
+        if (committed) {
+            long start = System.nanoTime();
+            cacheService.cachePayments(created);
+            paymentMetrics.recordStage(Stage.CACHE_WRITE, Outcome.SUCCESS, start);
+            released.removeAll(created.keySet());
+        }
+        if (!released.isEmpty()) {
+            idempotencyService.releaseAll(released);
+        }
+    }
+    
+    @Override
+    public Optional<PaymentResponse> getPaymentStatus(String transactionId) {
+        return paymentRepository.findByTransactionId(transactionId)
+                .map(this::mapToResponse);
+    }
+    
+    // Settling = one conditional UPDATE on payments that also closes the Transaction (see
+    // PaymentTransitionsImpl) and a read of the updated row; no entity loads, no OptimisticLockException.
+    // A payment that already settled (the main and the retry listener raced, or a duplicate event)
+    // matches nothing and is skipped.
+    @Override
+    @Transactional
+    public void handlePaymentSuccess(String transactionId, PaymentStatus from) {
+        log.info("Handling payment success for transaction: {}", transactionId);
+        
+        LocalDateTime now = LocalDateTime.now();
+        Payment payment = paymentRepository.transition(transactionId, PaymentStatus.SUCCESS, null, now).orElse(null);
+        if (payment == null) {
+            log.info("Payment success ignored, transaction {} is unknown or no longer open", transactionId);
+            return;
+        }
+        circuitBreakerService.recordSuccess(payment.getSourceAccount());
+        paymentStatsService.recordAfterCommit(List.of(PaymentStatsService.Change.of(payment, from, PaymentStatus.SUCCESS)));
+        paymentMetrics.recordLifecycle(payment.getCreatedAt(), PaymentStatus.SUCCESS, now);
+        
+        // Ledger entries, committed or rolled back with the status change
+        outboxService.appendSettled(List.of(buildSettledEvent(payment, now)));
+        
+        PaymentResponse response = mapToResponse(payment);
+        cacheService.refreshCachedPayment(payment.getIdempotencyKey(), response);
+        // Wakes long-polls / SSE streams waiting on this transaction, on whichever node
+        statusNotifier.publishAfterCommit(List.of(response));
+    }
+    
+    // Claims the payment with RETRY_SCHEDULED first (the retry budget lives in Transaction), and
+    // only when the retries are used up moves it on to FAILED with a second conditional UPDATE.
+    @Override
+    @Transactional
+    public void handlePaymentFailure(String transactionId, PaymentStatus from, String reason) {
+        log.warn("Handling payment failure for transaction: {} with reason: {}", transactionId, reason);
+        
+        LocalDateTime now = LocalDateTime.now();
+        Payment payment = paymentRepository.transition(transactionId, PaymentStatus.RETRY_SCHEDULED, reason, now).orElse(null);
+        if (payment == null) {
+            log.info("Payment failure ignored, transaction {} is unknown or no longer open", transactionId);
+            return;
+        }
+        circuitBreakerService.recordFailure(payment.getSourceAccount());
+        
+        // RETRY_SCHEDULED while retries remain, FAILED (and DLQ) once they are used up
+        if (!retryService.scheduleRetry(payment, reason)) {
+            // Our row lock since the first UPDATE, so this one cannot lose
+            payment = paymentRepository.transition(transactionId, PaymentStatus.FAILED, reason, now).orElse(payment);
+        }
+        paymentStatsService.recordAfterCommit(List.of(PaymentStatsService.Change.of(payment, from, payment.getStatus())));
+        paymentMetrics.recordLifecycle(payment.getCreatedAt(), payment.getStatus(), now);
+        
+        PaymentResponse response = mapToResponse(payment);
+        cacheService.refreshCachedPayment(payment.getIdempotencyKey(), response);
+        // Wakes long-polls / SSE streams waiting on this transaction, on whichever node
+        statusNotifier.publishAfterCommit(List.of(response));
+    }
+    
+    // Batch-listener counterpart of handlePaymentSuccess/handlePaymentFailure: one batch of
+    // conditional UPDATEs per target status (per failure reason), one batched Transaction save for
+    // the retries and one Redis pipeline for the whole poll instead of a round trip per event.
+    // Only the payments these transitions moved go on to the breaker, stats, metrics, cache and
+    // notifier: one that a concurrent consumer settled first is neither counted twice nor
+    // overwritten in the cache with a stale status.
+    @Override
+    @Transactional
+    public void handlePaymentOutcomes(List<PaymentOutcome> outcomes) {
+        if (outcomes.isEmpty()) return;
+        
+        // Last outcome wins if the same transaction shows up twice in one poll
+        Map<String, PaymentOutcome> byTransactionId = new LinkedHashMap<>();
+        for (PaymentOutcome outcome : outcomes) {
+            byTransactionId.put(outcome.getTransactionId(), outcome);
+        }
+        List<String> successIds = new ArrayList<>();
+        Map<String, List<String>> failureIdsByReason = new LinkedHashMap<>();
+        for (PaymentOutcome outcome : byTransactionId.values()) {
+            if (outcome.isSuccess()) {
+                successIds.add(outcome.getTransactionId());
+            } else {
+                failureIdsByReason.computeIfAbsent(outcome.getFailureReason(), reason -> new ArrayList<>())
+                        .add(outcome.getTransactionId());
+            }
+        }
+        LocalDateTime now = LocalDateTime.now();
+        
+        // Updated rows of the payments actually moved; already settled ones (duplicate or late
+        // outcome, or another consumer got there first) are left alone, like the single-event path
+        List<Payment> succeeded = successIds.isEmpty() ? List.of()
+                : paymentRepository.transitionAll(successIds, PaymentStatus.SUCCESS, null, now);
+        // Failures are claimed with RETRY_SCHEDULED first (the retry budget lives in Transaction)
+        List<Payment> failed = new ArrayList<>();
+        Map<String, String> failureReasons = new HashMap<>();
+        failureIdsByReason.forEach((reason, transactionIds) -> {
+            for (Payment payment : paymentRepository.transitionAll(transactionIds, PaymentStatus.RETRY_SCHEDULED, reason, now)) {
+                failed.add(payment);
+                failureReasons.put(payment.getTransactionId(), reason);
+            }
+        });
+        
+        // One lookup + one batched save of the Transaction rows for all failures
+        Set<String> retrying = retryService.scheduleRetries(failed, failureReasons);
+        // ... and those whose retries are used up move on to FAILED
+        Map<String, List<String>> exhaustedByReason = new LinkedHashMap<>();
+        for (Payment payment : failed) {
+            if (!retrying.contains(payment.getTransactionId())) {
+                exhaustedByReason.computeIfAbsent(failureReasons.get(payment.getTransactionId()), reason -> new ArrayList<>())
+                        .add(payment.getTransactionId());
+            }
+        }
+        Map<String, Payment> exhausted = new HashMap<>();
+        exhaustedByReason.forEach((reason, transactionIds) -> {
+            for (Payment payment : paymentRepository.transitionAll(transactionIds, PaymentStatus.FAILED, reason, now)) {
+                exhausted.put(payment.getTransactionId(), payment);
+            }
+        });
+        
+        List<PaymentEvent> settled = new ArrayList<>(succeeded.size());
+        Map<String, PaymentResponse> refreshed = new HashMap<>();
+        List<PaymentStatsService.Change> changes = new ArrayList<>(succeeded.size() + failed.size());
+        for (Payment payment : succeeded) {
+            circuitBreakerService.recordSuccess(payment.getSourceAccount());
+            settled.add(buildSettledEvent(payment, now));
+            changes.add(PaymentStatsService.Change.of(payment, byTransactionId.get(payment.getTransactionId()).getFrom(),
+                    PaymentStatus.SUCCESS));
+            paymentMetrics.recordLifecycle(payment.getCreatedAt(), PaymentStatus.SUCCESS, now);
+            refreshed.put(payment.getIdempotencyKey(), mapToResponse(payment));
+        }
+        for (Payment claimed : failed) {
+            Payment payment = exhausted.getOrDefault(claimed.getTransactionId(), claimed);
+            circuitBreakerService.recordFailure(payment.getSourceAccount());
+            changes.add(PaymentStatsService.Change.of(payment, byTransactionId.get(payment.getTransactionId()).getFrom(),
+                    payment.getStatus()));
+            paymentMetrics.recordLifecycle(payment.getCreatedAt(), payment.getStatus(), now);
+            refreshed.put(payment.getIdempotencyKey(), mapToResponse(payment));
+        }
+        
+        if (!settled.isEmpty()) {
+            outboxService.appendSettled(settled);
+        }
+        
+        cacheService.refreshCachedPayments(refreshed);
+        statusNotifier.publishAfterCommit(refreshed.values());
+        paymentStatsService.recordAfterCommit(changes);
+        log.info("Settled payment batch: {} succeeded, {} failed, {} unknown or already settled",
+                succeeded.size(), failed.size(), byTransactionId.size() - succeeded.size() - failed.size());
+    }
+    
+    private String validate(PaymentRequest request) {
+        if (request == null) return "Payment is required";
+        if (request.getIdempotencyKey() == null || request.getIdempotencyKey().isBlank()) return "idempotencyKey is required";
+        if (request.getAmount() == null || request.getAmount().signum() <= 0) return "amount must be positive";
+        if (request.getCurrency() == null) return "currency is required";
+        if (request.getSourceAccount() == null) return "sourceAccount is required";
+        if (request.getDestinationAccount() == null) return "destinationAccount is required";
+        if (request.getDescription() == null) return "description is required";
+        return null;
+    }
+    
+    private Payment buildPayment(PaymentRequest request, String transactionId) {
+        return Payment.builder()
                 .transactionId(transactionId)
                 .idempotencyKey(request.getIdempotencyKey())
                 .amount(request.getAmount())
@@ -64,21 +647,19 @@ public class PaymentServiceImpl implements PaymentService {
                 .status(PaymentStatus.PENDING)
                 .createdAt(LocalDateTime.now())
                 .build();
-        
-        payment = paymentRepository.save(payment);
-        
-        // Create transaction record
-        Transaction transaction = Transaction.builder()
+    }
+    
+    private Transaction buildTransaction(Payment payment) {
+        return Transaction.builder()
                 .paymentId(payment.getId())
                 .retryCount(0)
                 .lastRetryAt(LocalDateTime.now())
                 .createdAt(LocalDateTime.now())
                 .build();
-        
-        transactionRepository.save(transaction);
-        
-        // Publish event to Kafka
-        PaymentEvent event = PaymentEvent.builder()
+    }
+    
+    private PaymentEvent buildEvent(PaymentRequest request, String transactionId) {
+        return PaymentEvent.builder()
                 .transactionId(transactionId)
                 .idempotencyKey(request.getIdempotencyKey())
                 .amount(request.getAmount())
@@ -89,12 +670,24 @@ public class PaymentServiceImpl implements PaymentService {
                 .timestamp(LocalDateTime.now())
                 .retryCount(0)
                 .build();
-        
-        paymentProducer.publishPaymentEvent(event);
-        
-        // Build response
-        PaymentResponse response = PaymentResponse.builder()
-                .transactionId(transactionId)
+    }
+    
+    private PaymentEvent buildSettledEvent(Payment payment, LocalDateTime settledAt) {
+        return PaymentEvent.builder()
+                .transactionId(payment.getTransactionId())
+                .idempotencyKey(payment.getIdempotencyKey())
+                .amount(payment.getAmount())
+                .currency(payment.getCurrency())
+                .sourceAccount(payment.getSourceAccount())
+                .destinationAccount(payment.getDestinationAccount())
+                .status(PaymentStatus.SUCCESS)
+                .timestamp(settledAt)
+                .build();
+    }
+    
+    private PaymentResponse buildInitiatedResponse(PaymentRequest request, Payment payment) {
+        return PaymentResponse.builder()
+                .transactionId(payment.getTransactionId())
                 .idempotencyKey(request.getIdempotencyKey())
                 .amount(request.getAmount())
                 .currency(request.getCurrency())
@@ -102,54 +695,10 @@ public class PaymentServiceImpl implements PaymentService {
                 .createdAt(payment.getCreatedAt())
                 .message("Payment initiated successfully")
                 .build();
-        
-        // Cache response
-        cacheService.cachePayment(request.getIdempotencyKey(), response);
-        
-        return response;
-    }
-    
-    @Override
-    public Optional<PaymentResponse> getPaymentStatus(String transactionId) {
-        return paymentRepository.findByTransactionId(transactionId)
-                .map(this::mapToResponse);
-    }
-    
-    @Override
-    @Transactional
-    public void handlePaymentSuccess(String transactionId) {
-        log.info("Handling payment success for transaction: {}", transactionId);
-        
-        paymentRepository.findByTransactionId(transactionId).ifPresent(payment -> {
-            payment.setStatus(PaymentStatus.SUCCESS);
-            payment.setProcessedAt(LocalDateTime.now());
-            paymentRepository.save(payment);
-            
-            transactionRepository.findByPaymentId(payment.getId()).ifPresent(transaction -> {
-                transaction.setResolvedAt(LocalDateTime.now());
-                transactionRepository.save(transaction);
-            });
-            
-            cacheService.cachePayment(payment.getIdempotencyKey(), mapToResponse(payment));
-        });
-    }
-    
-    @Override
-    @Transactional
-    public void handlePaymentFailure(String transactionId, String reason) {
-        log.warn("Handling payment failure for transaction: {} with reason: {}", transactionId, reason);
-        
-        paymentRepository.findByTransactionId(transactionId).ifPresent(payment -> {
-            payment.setStatus(PaymentStatus.FAILED);
-            payment.setProcessedAt(LocalDateTime.now());
-            payment.setFailureReason(reason);
-            paymentRepository.save(payment);
-            
-            cacheService.cachePayment(payment.getIdempotencyKey(), mapToResponse(payment));
-        });
     }
     
-    private PaymentResponse mapToResponse(Payment payment) {
+    // package-private so the JMH benchmarks (src/jmh/java) can measure it directly
+    PaymentResponse mapToResponse(Payment payment) {
         return PaymentResponse.builder()
                 .transactionId(payment.getTransactionId())
                 .idempotencyKey(payment.getIdempotencyKey())
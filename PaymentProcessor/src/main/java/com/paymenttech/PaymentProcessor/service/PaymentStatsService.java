@@ -0,0 +1,430 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentStats;
+import com.paymenttech.PaymentProcessor.exception.PaymentException;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//    Real-time payment statistics without scanning the payments table
+//
+//    Buckets    → one per createdAt minute; per (status, currency) a count and an amount sum.
+//                 A payment stays in the bucket of its creation minute and moves between
+//                 statuses there (-1 old, +1 new), so a bucket answers the same question as
+//                 countByStatusSince: how many of the payments created then are now in status X
+//    Recording  → after commit, into striped LongAdders on this node (no I/O on the request
+//                 or consumer thread); amounts in 1/10000 units so the sums stay exact longs
+//    Flush      → every flush-interval-ms one pipeline of HINCRBY into payment:stats:<minute>
+//                 {<status>|<currency>|n, <status>|<currency>|a}, shared by all nodes
+//    Query      → last N minutes = one pipelined HGETALL per bucket (+ this node's unflushed
+//                 deltas), O(buckets) whatever the traffic
+//    Reconcile  → one node at a time (Redis lease) recounts, with one grouped query per
+//                 minute, the last reconcile-minutes plus reconcile-sweep-minutes older ones
+//                 (the sweep walks back through the retention window and starts over), and
+//                 rewrites buckets that drifted (lost flushes from a crashed node).
+//                 No minute is ever closed, settlements keep moving payments between statuses
+//                 of their creation bucket, and a drift may just be deltas another node has
+//                 not flushed yet: rewriting then would count them twice once they arrive.
+//                 So a bucket is only rewritten when two passes saw the same drift, the same
+//                 bucket and the same table counts (nothing was flushed into it in between),
+//                 and the rewrite is a compare-and-set against what the pass read. Only a
+//                 node that could not flush for a whole interval can still be counted twice,
+//                 and the sweep corrects that on its next visit.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentStatsService {
+
+    private static final String BUCKET_KEY_PREFIX = "payment:stats:";
+    private static final String LEASE_KEY = "payment:stats:reconciler";
+    private static final int AMOUNT_SCALE = 4;
+
+    // Acquire the lease, or extend it if we already hold it. 1 = we reconcile.
+    private static final RedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n"
+            + "  return redis.call('PEXPIRE', KEYS[1], ARGV[2])\n"
+            + "end\n"
+            + "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end\n"
+            + "return 0",
+            Long.class);
+
+    // Replaces a bucket atomically if it still holds exactly the expected fields, so a query never
+    // sees it half-written and a flush in between is not overwritten. 0 = bucket changed.
+    // ARGV: ttl-ms, n, n expected field/value pairs, replacement field/value pairs
+    private static final RedisScript<Long> REPLACE_SCRIPT = new DefaultRedisScript<>(
+            "local n = tonumber(ARGV[2])\n"
+            + "local current = redis.call('HGETALL', KEYS[1])\n"
+            + "if #current ~= n * 2 then return 0 end\n"
+            + "local expected = {}\n"
+            + "for i = 3, 2 + n * 2, 2 do expected[ARGV[i]] = ARGV[i + 1] end\n"
+            + "for i = 1, #current, 2 do\n"
+            + "  if expected[current[i]] ~= current[i + 1] then return 0 end\n"
+            + "end\n"
+            + "redis.call('DEL', KEYS[1])\n"
+            + "if #ARGV > 2 + n * 2 then\n"
+            + "  redis.call('HMSET', KEYS[1], unpack(ARGV, 3 + n * 2))\n"
+            + "  redis.call('PEXPIRE', KEYS[1], ARGV[1])\n"
+            + "end\n"
+            + "return 1",
+            Long.class);
+
+    // One status change of one payment; from is null for a newly created payment
+    public record Change(LocalDateTime createdAt, String currency, BigDecimal amount, PaymentStatus from,
+            PaymentStatus to) {
+
+        public static Change created(Payment payment) {
+            return new Change(payment.getCreatedAt(), payment.getCurrency(), payment.getAmount(), null,
+                    payment.getStatus());
+        }
+
+        // Call before the new status is set on the entity
+        public static Change of(Payment payment, PaymentStatus to) {
+            return of(payment, payment.getStatus(), to);
+        }
+
+        // For a row read back after its UPDATE, which no longer holds the previous status
+        public static Change of(Payment payment, PaymentStatus from, PaymentStatus to) {
+            return new Change(payment.getCreatedAt(), payment.getCurrency(), payment.getAmount(), from, to);
+        }
+    }
+
+    private record CellKey(long minute, PaymentStatus status, String currency) {
+    }
+
+    // A drifted bucket as one reconcile pass read it, and what the table said
+    private record Drift(Map<String, String> stored, Map<String, String> actual) {
+    }
+
+    private static final class Cell {
+        final LongAdder count = new LongAdder();
+        final LongAdder amount = new LongAdder();
+    }
+
+    private final PaymentRepository paymentRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    // Buckets are kept this long; also the largest ?minutes= a query may ask for
+    @Value("${payment.stats.retention-minutes:1440}")
+    private int retentionMinutes;
+
+    // Latest minutes recounted on every reconciliation pass
+    @Value("${payment.stats.reconcile-minutes:15}")
+    private int reconcileMinutes;
+
+    // Older minutes recounted per pass, walking back through the retention window
+    @Value("${payment.stats.reconcile-sweep-minutes:15}")
+    private int reconcileSweepMinutes;
+
+    @Value("${payment.stats.reconcile-interval-ms:60000}")
+    private long reconcileIntervalMillis;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Unflushed deltas; cells are reset on flush, not removed, so a concurrent add is never lost
+    private final ConcurrentHashMap<CellKey, Cell> pending = new ConcurrentHashMap<>();
+
+    // Reconciler state, only touched by the scheduled pass
+    private final Map<Long, Drift> drifts = new HashMap<>();
+    private long sweepMinute;
+
+    private Counter flushFailures;
+    private Counter corrections;
+
+    @PostConstruct
+    void init() {
+        flushFailures = Counter.builder("payment.stats.flush.failures").register(meterRegistry);
+        corrections = Counter.builder("payment.stats.reconcile.corrections")
+                .description("Minute buckets rewritten because they drifted from the payments table")
+                .register(meterRegistry);
+    }
+
+    // Called inside the transaction that makes the change: a rollback leaves the stats alone
+    public void recordAfterCommit(Collection<Change> changes) {
+        if (changes.isEmpty()) return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(changes);
+            return;
+        }
+        List<Change> snapshot = new ArrayList<>(changes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(snapshot);
+            }
+        });
+    }
+
+    private void record(Collection<Change> changes) {
+        for (Change change : changes) {
+            if (change.from() == change.to()) continue;
+            long minute = minuteOf(change.createdAt());
+            long amount = toUnits(change.amount());
+            if (change.from() != null) add(new CellKey(minute, change.from(), change.currency()), -1, -amount);
+            add(new CellKey(minute, change.to(), change.currency()), 1, amount);
+        }
+    }
+
+    private void add(CellKey key, long count, long amount) {
+        Cell cell = pending.computeIfAbsent(key, k -> new Cell());
+        cell.count.add(count);
+        cell.amount.add(amount);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.stats.flush-interval-ms:1000}")
+    public void flush() {
+        long oldest = currentMinute() - retentionMinutes;
+        Map<CellKey, long[]> deltas = new HashMap<>();
+        for (Map.Entry<CellKey, Cell> entry : pending.entrySet()) {
+            Cell cell = entry.getValue();
+            long count = cell.count.sumThenReset();
+            long amount = cell.amount.sumThenReset();
+            if (count != 0 || amount != 0) {
+                deltas.put(entry.getKey(), new long[] { count, amount });
+            } else if (entry.getKey().minute() < oldest) {
+                // Beyond retention nobody queries it any more
+                pending.remove(entry.getKey(), cell);
+            }
+        }
+        if (deltas.isEmpty()) return;
+
+        long ttlMillis = TimeUnit.MINUTES.toMillis(retentionMinutes + 1);
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    deltas.forEach((key, delta) -> {
+                        String bucket = BUCKET_KEY_PREFIX + key.minute();
+                        String field = key.status().name() + "|" + key.currency() + "|";
+                        ops.opsForHash().increment(bucket, field + "n", delta[0]);
+                        ops.opsForHash().increment(bucket, field + "a", delta[1]);
+                        ops.expire(bucket, ttlMillis, TimeUnit.MILLISECONDS);
+                    });
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            // Keep the deltas for the next flush
+            flushFailures.increment();
+            deltas.forEach((key, delta) -> add(key, delta[0], delta[1]));
+            log.warn("Failed to flush payment stats ({} cells), will retry", deltas.size(), e);
+        }
+    }
+
+    // Count and amount per status and currency of the payments created in the last `minutes`
+    // minutes (the current one included), as of their latest status
+    public PaymentStats getStats(int minutes) {
+        if (minutes < 1 || minutes > retentionMinutes) {
+            throw new PaymentException("minutes must be between 1 and " + retentionMinutes);
+        }
+        long current = currentMinute();
+        long first = current - minutes + 1;
+        List<Long> bucketMinutes = new ArrayList<>(minutes);
+        for (long minute = first; minute <= current; minute++) {
+            bucketMinutes.add(minute);
+        }
+
+        Map<String, long[]> totals = new TreeMap<>();
+        List<Map<String, String>> buckets = readBuckets(bucketMinutes);
+        for (Map<String, String> bucket : buckets) {
+            bucket.forEach((field, value) -> accumulate(totals, field, Long.parseLong(value)));
+        }
+        // Read-your-writes on this node: what has not been flushed yet
+        pending.forEach((key, cell) -> {
+            if (key.minute() < first || key.minute() > current) return;
+            String field = key.status().name() + "|" + key.currency() + "|";
+            accumulate(totals, field + "n", cell.count.sum());
+            accumulate(totals, field + "a", cell.amount.sum());
+        });
+
+        List<PaymentStats.Entry> entries = new ArrayList<>(totals.size());
+        totals.forEach((statusAndCurrency, value) -> {
+            if (value[0] == 0 && value[1] == 0) return;
+            int separator = statusAndCurrency.indexOf('|');
+            entries.add(PaymentStats.Entry.builder()
+                    .status(PaymentStatus.valueOf(statusAndCurrency.substring(0, separator)))
+                    .currency(statusAndCurrency.substring(separator + 1))
+                    .count(value[0])
+                    .amount(BigDecimal.valueOf(value[1], AMOUNT_SCALE).stripTrailingZeros())
+                    .build());
+        });
+        return PaymentStats.builder()
+                .minutes(minutes)
+                .from(toDateTime(first))
+                .to(toDateTime(current + 1))
+                .entries(entries)
+                .build();
+    }
+
+    // Field "<status>|<currency>|n" / "|a" → totals["<status>|<currency>"][0 / 1]
+    private static void accumulate(Map<String, long[]> totals, String field, long value) {
+        int kind = field.lastIndexOf('|');
+        if (kind < 0) return;
+        long[] total = totals.computeIfAbsent(field.substring(0, kind), f -> new long[2]);
+        total[field.charAt(kind + 1) == 'n' ? 0 : 1] += value;
+    }
+
+    @Scheduled(fixedDelayString = "${payment.stats.reconcile-interval-ms:60000}",
+            initialDelayString = "${payment.stats.reconcile-interval-ms:60000}")
+    public void reconcile() {
+        if (!holdLease()) return;
+        flush();
+
+        // The current and the previous minute still receive creations that are being flushed
+        long current = currentMinute();
+        long recent = current - reconcileMinutes - 1;
+        long oldest = current - retentionMinutes + 1;
+        List<Long> minutes = new ArrayList<>(reconcileMinutes + reconcileSweepMinutes);
+        for (long minute = recent; minute < current - 1; minute++) {
+            minutes.add(minute);
+        }
+        if (sweepMinute >= recent || sweepMinute < oldest) sweepMinute = recent - 1;
+        for (int i = 0; i < reconcileSweepMinutes && sweepMinute >= oldest; i++) {
+            minutes.add(sweepMinute--);
+        }
+        drifts.keySet().removeIf(minute -> minute < oldest);
+        List<Map<String, String>> stored = readBuckets(minutes);
+
+        long ttlMillis = TimeUnit.MINUTES.toMillis(retentionMinutes + 1);
+        int corrected = 0;
+        for (int i = 0; i < minutes.size(); i++) {
+            long minute = minutes.get(i);
+            Map<String, String> actual = countFromDatabase(minute);
+            if (actual.equals(nonZero(stored.get(i)))) {
+                drifts.remove(minute);
+                continue;
+            }
+            // Seen for the first time, or the bucket or the table moved since: maybe deltas in flight
+            Drift drift = new Drift(stored.get(i), actual);
+            if (!drift.equals(drifts.put(minute, drift))) continue;
+
+            List<String> args = new ArrayList<>((drift.stored().size() + actual.size()) * 2 + 2);
+            args.add(Long.toString(ttlMillis));
+            args.add(Integer.toString(drift.stored().size()));
+            drift.stored().forEach((field, value) -> {
+                args.add(field);
+                args.add(value);
+            });
+            actual.forEach((field, value) -> {
+                args.add(field);
+                args.add(value);
+            });
+            Long replaced = stringRedisTemplate.execute(REPLACE_SCRIPT, List.of(BUCKET_KEY_PREFIX + minute),
+                    args.toArray());
+            if (replaced != null && replaced == 1L) {
+                drifts.remove(minute);
+                corrected++;
+            }
+        }
+        if (corrected > 0) {
+            corrections.increment(corrected);
+            log.info("Payment stats reconciled: {} of {} minute buckets corrected", corrected, minutes.size());
+        }
+    }
+
+    private Map<String, String> countFromDatabase(long minute) {
+        Map<String, String> fields = new HashMap<>();
+        for (Object[] row : paymentRepository.sumByStatusAndCurrency(EnumSet.allOf(PaymentStatus.class),
+                toDateTime(minute), toDateTime(minute + 1))) {
+            String field = ((PaymentStatus) row[0]).name() + "|" + row[1] + "|";
+            fields.put(field + "n", Long.toString(((Number) row[2]).longValue()));
+            fields.put(field + "a", Long.toString(toUnits((BigDecimal) row[3])));
+        }
+        return fields;
+    }
+
+    // Statuses everything moved out of are stored as 0, the database simply has no row for them
+    private static Map<String, String> nonZero(Map<String, String> bucket) {
+        Map<String, String> fields = new HashMap<>(bucket);
+        fields.values().removeIf("0"::equals);
+        return fields;
+    }
+
+    private List<Map<String, String>> readBuckets(List<Long> minutes) {
+        List<Object> replies = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (long minute : minutes) {
+                    ops.opsForHash().entries(BUCKET_KEY_PREFIX + minute);
+                }
+                return null;
+            }
+        });
+        List<Map<String, String>> buckets = new ArrayList<>(replies.size());
+        for (Object reply : replies) {
+            Map<String, String> bucket = new HashMap<>();
+            if (reply instanceof Map<?, ?> entries) {
+                entries.forEach((field, value) -> bucket.put(field.toString(), value.toString()));
+            }
+            buckets.add(bucket);
+        }
+        return buckets;
+    }
+
+    private boolean holdLease() {
+        try {
+            Long held = stringRedisTemplate.execute(LEASE_SCRIPT, List.of(LEASE_KEY), nodeId,
+                    Long.toString(reconcileIntervalMillis * 3));
+            return held != null && held == 1L;
+        } catch (Exception e) {
+            log.warn("Could not acquire the stats reconciler lease", e);
+            return false;
+        }
+    }
+
+    private static long toUnits(BigDecimal amount) {
+        return amount == null ? 0 : amount.setScale(AMOUNT_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    // createdAt is a zone-less LocalDateTime.now(); minutes are counted on the same clock
+    private static long minuteOf(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    private static long currentMinute() {
+        return minuteOf(LocalDateTime.now());
+    }
+
+    private static LocalDateTime toDateTime(long minute) {
+        return LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC);
+    }
+}
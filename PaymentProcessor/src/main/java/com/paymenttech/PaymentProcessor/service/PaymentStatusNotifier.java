@@ -0,0 +1,286 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.paymenttech.PaymentProcessor.codec.PaymentResponseRedisSerializer;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+//    Push instead of poll for payment status
+//
+//    Publish    → the settlement handlers hand their new PaymentResponses over; after commit
+//                 they go out on the payment:settled channel (compact binary codec, one
+//                 pipeline per settled batch)
+//    Fan-out    → every node is subscribed and looks the transactionId up in its local waiter
+//                 map; nodes without a waiter for it drop the message
+//    Waiters    → long-poll requests (DeferredResult) and SSE streams (SseEmitter) are servlet
+//                 async requests: no thread is held while they wait, only a map entry, so an
+//                 idle subscription costs a connection and a few hundred bytes
+//    Database   → one status read per subscription instead of one per poll
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentStatusNotifier {
+
+    private static final String SETTLED_CHANNEL = "payment:settled";
+    private static final byte[] SETTLED_CHANNEL_BYTES = SETTLED_CHANNEL.getBytes(StandardCharsets.UTF_8);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${payment.status-stream.max-wait-seconds:30}")
+    private long maxWaitSeconds;
+
+    @Value("${payment.status-stream.sse-timeout-seconds:300}")
+    private long sseTimeoutSeconds;
+
+    @Value("${payment.status-stream.max-subscribers:50000}")
+    private int maxSubscribers;
+
+    private final PaymentResponseRedisSerializer serializer = new PaymentResponseRedisSerializer();
+
+    // transactionId → waiters; lists are replaced, never mutated, so dispatch iterates without locking
+    private final ConcurrentHashMap<String, List<Consumer<PaymentResponse>>> waiters = new ConcurrentHashMap<>();
+    private final Set<StreamSubscription> streams = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger longPolls = new AtomicInteger();
+
+    private Counter published;
+    private Counter delivered;
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("payment.status.subscribers", longPolls, AtomicInteger::get).tag("type", "long_poll")
+                .register(meterRegistry);
+        Gauge.builder("payment.status.subscribers", streams, Set::size).tag("type", "sse")
+                .register(meterRegistry);
+        published = Counter.builder("payment.status.published").register(meterRegistry);
+        delivered = Counter.builder("payment.status.delivered").register(meterRegistry);
+        listenerContainer.addMessageListener(this::onSettled, new ChannelTopic(SETTLED_CHANNEL));
+    }
+
+    // Called inside the settlement transaction: nothing is announced if it rolls back
+    public void publishAfterCommit(Collection<PaymentResponse> responses) {
+        if (responses.isEmpty()) return;
+        List<PaymentResponse> snapshot = new ArrayList<>(responses);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(snapshot);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish(snapshot);
+            }
+        });
+    }
+
+    private void publish(List<PaymentResponse> responses) {
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (PaymentResponse response : responses) {
+                    connection.publish(SETTLED_CHANNEL_BYTES, serializer.serialize(response));
+                }
+                return null;
+            });
+            published.increment(responses.size());
+        } catch (Exception e) {
+            // Waiters still get the status from their timeout answer / the next request
+            log.warn("Failed to publish {} settled payments", responses.size(), e);
+        }
+    }
+
+    private void onSettled(Message message, byte[] pattern) {
+        PaymentResponse response = serializer.deserialize(message.getBody());
+        List<Consumer<PaymentResponse>> subscribed = waiters.get(response.getTransactionId());
+        if (subscribed == null) return;
+        for (Consumer<PaymentResponse> waiter : subscribed) {
+            waiter.accept(response);
+        }
+        delivered.increment(subscribed.size());
+    }
+
+    // Long-poll: answers once the payment is settled, or after waitSeconds with the latest status.
+    // currentStatus is read once, after subscribing, so a settlement in between is not missed.
+    public DeferredResult<ResponseEntity<PaymentResponse>> awaitSettled(String transactionId, long waitSeconds,
+            Supplier<Optional<PaymentResponse>> currentStatus) {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(0, Math.min(waitSeconds, maxWaitSeconds)));
+        DeferredResult<ResponseEntity<PaymentResponse>> result = new DeferredResult<>(timeoutMillis);
+
+        if (timeoutMillis == 0 || longPolls.get() + streams.size() >= maxSubscribers) {
+            // Plain status read
+            result.setResult(currentStatus.get().map(ResponseEntity::ok)
+                    .orElseGet(() -> ResponseEntity.notFound().build()));
+            return result;
+        }
+
+        AtomicReference<PaymentResponse> latest = new AtomicReference<>();
+        Consumer<PaymentResponse> waiter = response -> {
+            latest.set(response);
+            if (isSettled(response.getStatus())) result.setResult(ResponseEntity.ok(response));
+        };
+        subscribe(transactionId, waiter);
+        longPolls.incrementAndGet();
+        result.onCompletion(() -> {
+            unsubscribe(transactionId, waiter);
+            longPolls.decrementAndGet();
+        });
+
+        Optional<PaymentResponse> current = currentStatus.get();
+        if (current.isEmpty()) {
+            result.setResult(ResponseEntity.notFound().build());
+        } else if (isSettled(current.get().getStatus())) {
+            result.setResult(ResponseEntity.ok(current.get()));
+        } else {
+            latest.compareAndSet(null, current.get());
+            result.onTimeout(() -> result.setResult(ResponseEntity.ok(latest.get())));
+        }
+        return result;
+    }
+
+    // SSE: the current status first, then every change, completed once the payment is settled.
+    // Empty when the payment does not exist.
+    public Optional<SseEmitter> stream(String transactionId, Supplier<Optional<PaymentResponse>> currentStatus) {
+        StreamSubscription subscription = new StreamSubscription(transactionId,
+                new SseEmitter(TimeUnit.SECONDS.toMillis(sseTimeoutSeconds)));
+        subscribe(transactionId, subscription);
+        streams.add(subscription);
+        subscription.emitter.onCompletion(subscription::close);
+        subscription.emitter.onTimeout(subscription::close);
+        subscription.emitter.onError(e -> subscription.close());
+
+        Optional<PaymentResponse> current = currentStatus.get();
+        if (current.isEmpty()) {
+            subscription.close();
+            return Optional.empty();
+        }
+        subscription.sendInitial(current.get());
+        if (longPolls.get() + streams.size() > maxSubscribers) {
+            // Over the limit: the client gets the status it would have polled and reconnects later
+            subscription.finish();
+        }
+        return Optional.of(subscription.emitter);
+    }
+
+    // Comment lines keep idle streams from being cut by proxies / load balancers
+    @Scheduled(fixedDelayString = "${payment.status-stream.heartbeat-seconds:15}", timeUnit = TimeUnit.SECONDS)
+    public void heartbeat() {
+        for (StreamSubscription subscription : streams) {
+            subscription.heartbeat();
+        }
+    }
+
+    private static boolean isSettled(PaymentStatus status) {
+        return status.isTerminal();
+    }
+
+    private void subscribe(String transactionId, Consumer<PaymentResponse> waiter) {
+        waiters.compute(transactionId, (id, existing) -> {
+            if (existing == null) return List.of(waiter);
+            List<Consumer<PaymentResponse>> updated = new ArrayList<>(existing.size() + 1);
+            updated.addAll(existing);
+            updated.add(waiter);
+            return updated;
+        });
+    }
+
+    private void unsubscribe(String transactionId, Consumer<PaymentResponse> waiter) {
+        waiters.computeIfPresent(transactionId, (id, existing) -> {
+            List<Consumer<PaymentResponse>> updated = new ArrayList<>(existing);
+            updated.remove(waiter);
+            return updated.isEmpty() ? null : updated;
+        });
+    }
+
+    // One SSE client. Sends are serialized so the initial status can never overtake a newer one.
+    private final class StreamSubscription implements Consumer<PaymentResponse> {
+        private final String transactionId;
+        private final SseEmitter emitter;
+        private boolean notified;
+        private boolean done;
+
+        StreamSubscription(String transactionId, SseEmitter emitter) {
+            this.transactionId = transactionId;
+            this.emitter = emitter;
+        }
+
+        @Override
+        public synchronized void accept(PaymentResponse response) {
+            notified = true;
+            send(response);
+        }
+
+        synchronized void sendInitial(PaymentResponse response) {
+            if (!notified) send(response);
+        }
+
+        synchronized void heartbeat() {
+            if (done) return;
+            try {
+                emitter.send(SseEmitter.event().comment("keepalive"));
+            } catch (IOException | IllegalStateException e) {
+                // Client is gone, the container reports it through onError/onCompletion
+                done = true;
+                close();
+            }
+        }
+
+        synchronized void finish() {
+            if (done) return;
+            done = true;
+            emitter.complete();
+        }
+
+        private void send(PaymentResponse response) {
+            if (done) return;
+            try {
+                emitter.send(SseEmitter.event()
+                        .name("status")
+                        .id(response.getStatus().name())
+                        .data(response));
+                if (isSettled(response.getStatus())) finish();
+            } catch (IOException | IllegalStateException e) {
+                done = true;
+                close();
+            }
+        }
+
+        void close() {
+            if (streams.remove(this)) unsubscribe(transactionId, this);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.domain.Transaction;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+import com.paymenttech.PaymentProcessor.repository.TransactionRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//    Re-drives payments that never got settled
+//
+//    Work items → unresolved Transaction rows (resolvedAt IS NULL) whose lastRetryAt is older
+//                 than stuck-after: PENDING payments whose event got lost, RETRY_SCHEDULED ones
+//                 whose retry timer died with its node (RetryScheduler is in-memory)
+//    Slices     → [oldest lastRetryAt, cutoff) cut into slice-minutes ranges. Nodes take a
+//                 Redis lease per slice, so they split a pass without overlap; slices run in
+//                 parallel on a pool of `parallelism` threads
+//    Chunks     → keyset pages of chunk-size rows on idx_unresolved_retry, never the whole
+//                 backlog in memory, each page one short transaction
+//    Claim      → UPDATE ... SET lastRetryAt = now WHERE id IN (...) AND resolvedAt IS NULL
+//                 AND lastRetryAt < cutoff: a row settled or claimed in the meantime is left
+//                 alone, a claimed row is not due again before another stuck-after
+//    Re-drive   → after commit, paced to max-per-second per node: PENDING → payment-events,
+//                 RETRY_SCHEDULED → payment-retry. A lost send is picked up by a later pass;
+//                 consumers already handle duplicate events per transactionId
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentSweeper {
+
+    private static final String SLICE_KEY_PREFIX = "payment:sweep:slice:";
+
+    // Acquire the lease, or extend it if we already hold it. 1 = the slice is ours.
+    private static final RedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n"
+            + "  return redis.call('PEXPIRE', KEYS[1], ARGV[2])\n"
+            + "end\n"
+            + "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end\n"
+            + "return 0",
+            Long.class);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n"
+            + "return 0",
+            Long.class);
+
+    private final TransactionRepository transactionRepository;
+    private final PaymentRepository paymentRepository;
+    private final PaymentProducer paymentProducer;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${payment.sweeper.enabled:true}")
+    private boolean enabled;
+
+    // Longer than the last retry delay, so scheduled retries are not swept while still pending
+    @Value("${payment.sweeper.stuck-after-ms:600000}")
+    private long stuckAfterMillis;
+
+    @Value("${payment.sweeper.slice-minutes:60}")
+    private long sliceMinutes;
+
+    @Value("${payment.sweeper.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${payment.sweeper.parallelism:4}")
+    private int parallelism;
+
+    @Value("${payment.sweeper.max-per-second:500}")
+    private double maxPerSecond;
+
+    @Value("${payment.sweeper.lease-ms:60000}")
+    private long leaseMillis;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicBoolean running = new AtomicBoolean();
+    // Pacing: the earliest System.nanoTime() the next re-drive may go out at
+    private final AtomicLong nextSendNanos = new AtomicLong(System.nanoTime());
+
+    private ExecutorService executor;
+    private TransactionTemplate transactionTemplate;
+    private Counter redrivenPending;
+    private Counter redrivenRetries;
+    private Counter resolved;
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "payment-sweeper-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        redrivenPending = Counter.builder("payment.sweeper.redriven").tag("status", PaymentStatus.PENDING.name())
+                .register(meterRegistry);
+        redrivenRetries = Counter.builder("payment.sweeper.redriven").tag("status", PaymentStatus.RETRY_SCHEDULED.name())
+                .register(meterRegistry);
+        // Transaction left open although its payment is settled
+        resolved = Counter.builder("payment.sweeper.resolved").register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Only starts the pass: the slices run on the sweeper pool, not on the scheduler thread.
+    // A pass still running from the last tick is left to finish.
+    @Scheduled(fixedDelayString = "${payment.sweeper.interval-ms:60000}",
+            initialDelayString = "${payment.sweeper.interval-ms:60000}")
+    public void sweep() {
+        if (!enabled || !running.compareAndSet(false, true)) return;
+        try {
+            sweepOnce().whenComplete((redriven, ex) -> {
+                running.set(false);
+                if (ex != null) log.error("Payment sweep failed", ex);
+                else if (redriven > 0) log.info("Payment sweep re-drove {} stuck payments", redriven);
+            });
+        } catch (RuntimeException e) {
+            running.set(false);
+            log.error("Payment sweep failed to start", e);
+        }
+    }
+
+    // Completes with the number of payments re-driven by this node
+    CompletableFuture<Integer> sweepOnce() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(stuckAfterMillis, ChronoUnit.MILLIS);
+        LocalDateTime oldest = transactionRepository.findOldestUnresolved().orElse(null);
+        if (oldest == null || !oldest.isBefore(cutoff)) return CompletableFuture.completedFuture(0);
+
+        // Slice boundaries are aligned, so every node cuts the range the same way
+        long sliceSeconds = TimeUnit.MINUTES.toSeconds(sliceMinutes);
+        long first = Math.floorDiv(oldest.toEpochSecond(ZoneOffset.UTC), sliceSeconds) * sliceSeconds;
+        List<CompletableFuture<Integer>> slices = new ArrayList<>();
+        for (long start = first; start < cutoff.toEpochSecond(ZoneOffset.UTC); start += sliceSeconds) {
+            long sliceStart = start;
+            slices.add(CompletableFuture.supplyAsync(() -> sweepSlice(sliceStart, sliceSeconds, cutoff), executor));
+        }
+        return CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> slices.stream().mapToInt(CompletableFuture::join).sum());
+    }
+
+    private int sweepSlice(long sliceStart, long sliceSeconds, LocalDateTime cutoff) {
+        String leaseKey = SLICE_KEY_PREFIX + sliceStart;
+        if (!holdLease(leaseKey)) return 0;
+
+        LocalDateTime from = LocalDateTime.ofEpochSecond(sliceStart, 0, ZoneOffset.UTC);
+        LocalDateTime sliceEnd = LocalDateTime.ofEpochSecond(sliceStart + sliceSeconds, 0, ZoneOffset.UTC);
+        LocalDateTime to = sliceEnd.isBefore(cutoff) ? sliceEnd : cutoff;
+        LocalDateTime afterLastRetryAt = from;
+        String afterId = "";
+        int redriven = 0;
+        try {
+            while (true) {
+                List<Transaction> chunk = transactionRepository.findUnresolvedAfter(from, to, afterLastRetryAt, afterId,
+                        Limit.of(chunkSize));
+                if (chunk.isEmpty()) break;
+                Transaction last = chunk.get(chunk.size() - 1);
+                afterLastRetryAt = last.getLastRetryAt();
+                afterId = last.getId();
+
+                List<PaymentEvent> events = transactionTemplate.execute(tx -> claim(chunk, cutoff));
+                for (PaymentEvent event : events) {
+                    pace();
+                    redrive(event);
+                }
+                redriven += events.size();
+                if (chunk.size() < chunkSize || !holdLease(leaseKey)) break;
+            }
+        } finally {
+            releaseLease(leaseKey);
+        }
+        return redriven;
+    }
+
+    // Claims the still-stuck rows of the chunk and returns the events to re-send for them
+    private List<PaymentEvent> claim(List<Transaction> chunk, LocalDateTime cutoff) {
+        List<String> ids = new ArrayList<>(chunk.size());
+        for (Transaction transaction : chunk) {
+            ids.add(transaction.getId());
+        }
+        // Microseconds: what the column stores, so the claimed rows can be found by it
+        LocalDateTime claimedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        if (transactionRepository.claimStuck(ids, cutoff, claimedAt) == 0) return List.of();
+
+        List<String> paymentIds = new ArrayList<>(chunk.size());
+        for (Transaction transaction : transactionRepository.findByIdInAndLastRetryAt(ids, claimedAt)) {
+            paymentIds.add(transaction.getPaymentId());
+        }
+        Map<String, Transaction> byPaymentId = chunk.stream()
+                .collect(Collectors.toMap(Transaction::getPaymentId, Function.identity(), (first, second) -> first));
+
+        List<PaymentEvent> events = new ArrayList<>(paymentIds.size());
+        List<String> settled = new ArrayList<>();
+        for (Payment payment : paymentRepository.findAllById(paymentIds)) {
+            if (payment.getStatus() == PaymentStatus.PENDING || payment.getStatus() == PaymentStatus.RETRY_SCHEDULED) {
+                events.add(toEvent(payment, byPaymentId.get(payment.getId()).getRetryCount()));
+            } else {
+                settled.add(payment.getId());
+            }
+        }
+        if (!settled.isEmpty()) {
+            transactionRepository.markResolvedByPaymentIdIn(settled, claimedAt);
+            resolved.increment(settled.size());
+        }
+        return events;
+    }
+
+    private void redrive(PaymentEvent event) {
+        if (event.getStatus() == PaymentStatus.RETRY_SCHEDULED) {
+            paymentProducer.publishToRetryTopic(event);
+            redrivenRetries.increment();
+        } else {
+            paymentProducer.sendPaymentEvent(event).whenComplete((result, ex) -> {
+                if (ex != null) log.warn("Re-drive of payment {} failed, next pass retries it", event.getTransactionId(), ex);
+            });
+            redrivenPending.increment();
+        }
+    }
+
+    // Spaces re-drives 1/max-per-second apart across all slice threads of this node
+    private void pace() {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / maxPerSecond);
+        long slot = nextSendNanos.getAndUpdate(next -> Math.max(next, System.nanoTime()) + interval);
+        long wait = slot - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static PaymentEvent toEvent(Payment payment, int retryCount) {
+        return PaymentEvent.builder()
+                .transactionId(payment.getTransactionId())
+                .idempotencyKey(payment.getIdempotencyKey())
+                .amount(payment.getAmount())
+                .currency(payment.getCurrency())
+                .sourceAccount(payment.getSourceAccount())
+                .destinationAccount(payment.getDestinationAccount())
+                .status(payment.getStatus())
+                .timestamp(LocalDateTime.now())
+                .retryCount(retryCount)
+                .failureReason(payment.getFailureReason())
+                .build();
+    }
+
+    private boolean holdLease(String key) {
+        try {
+            Long held = stringRedisTemplate.execute(LEASE_SCRIPT, List.of(key), nodeId, String.valueOf(leaseMillis));
+            return held != null && held == 1L;
+        } catch (Exception e) {
+            log.warn("Sweeper lease check failed for {}, skipping the slice", key, e);
+            return false;
+        }
+    }
+
+    private void releaseLease(String key) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, List.of(key), nodeId);
+        } catch (Exception e) {
+            // Expires on its own after lease-ms
+            log.debug("Could not release sweeper lease {}", key, e);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.paymenttech.PaymentProcessor.exception.PaymentException;
+import com.paymenttech.PaymentProcessor.exception.RateLimitExceededException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+//    Token-bucket admission control, per API key and per source account
+//
+//    Bucket       → Redis hash  payment:rl:<scope>:<id>  {tokens, ts}; TAKE_SCRIPT refills it for
+//                   the time elapsed since ts and takes tokens in one atomic step
+//    Local lease  → a node takes what the request needs plus the key's expected local demand
+//                   for the next lease-ms (permits it handed out since its last take, scaled
+//                   to lease-ms), at most lease-size, and hands them out from memory. A key
+//                   with no recent use on this node (nothing for two lease periods) takes only
+//                   what it needs, so a tenant spread thinly over many nodes doesn't pay a
+//                   whole lease per request. Only the thread that finds a key's lease empty
+//                   goes to Redis, holding that key's own lock, so a bursting tenant only ever
+//                   queues behind itself
+//    Rejection    → an empty bucket answers with the wait until enough tokens are back; the node
+//                   rejects that key locally until then (429 + Retry-After) without asking again
+//    Expiry       → leased tokens stop being handed out after lease-ms, so the cluster can go
+//                   at most nodes × lease-size tokens over a quota, and only briefly. What is
+//                   left goes back into the bucket (capped at capacity) with the node's next
+//                   take for the key; a key that goes quiet keeps it until the bucket refills
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RateLimitService {
+
+    public enum Scope {
+        API_KEY("api-key"),
+        ACCOUNT("account");
+
+        private final String label;
+
+        Scope(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final String KEY_PREFIX = "payment:rl:";
+
+    // ARGV: capacity, refill per ms, minimum, maximum, now (ms), returned.
+    // Gives back `returned` unused tokens of an expired lease (capped at capacity), then takes
+    // between minimum and maximum tokens, or none: returns {taken, ms until minimum is available}.
+    // ts only ever moves forward, so a node with a lagging clock just gets less refill.
+    private static final RedisScript<List> TAKE_SCRIPT = new DefaultRedisScript<>(
+            "local capacity = tonumber(ARGV[1])\n"
+            + "local rate = tonumber(ARGV[2])\n"
+            + "local minimum = tonumber(ARGV[3])\n"
+            + "local maximum = tonumber(ARGV[4])\n"
+            + "local now = tonumber(ARGV[5])\n"
+            + "local returned = tonumber(ARGV[6])\n"
+            + "local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')\n"
+            + "local tokens = tonumber(bucket[1]) or capacity\n"
+            + "local ts = tonumber(bucket[2]) or now\n"
+            + "if now > ts then\n"
+            + "  tokens = math.min(capacity, tokens + (now - ts) * rate)\n"
+            + "  ts = now\n"
+            + "end\n"
+            + "tokens = math.min(capacity, tokens + returned)\n"
+            + "local taken = 0\n"
+            + "local wait = 0\n"
+            + "if tokens >= minimum then\n"
+            + "  taken = math.min(maximum, math.floor(tokens))\n"
+            + "  tokens = tokens - taken\n"
+            + "else\n"
+            + "  wait = math.ceil((minimum - tokens) / rate)\n"
+            + "end\n"
+            + "redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(ts))\n"
+            + "redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000)\n"
+            + "return {taken, wait}",
+            List.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${payment.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${payment.rate-limit.api-key.capacity:200}")
+    private long apiKeyCapacity;
+
+    @Value("${payment.rate-limit.api-key.refill-per-second:100}")
+    private double apiKeyRefillPerSecond;
+
+    @Value("${payment.rate-limit.api-key.batch-permits:10}")
+    private int apiKeyBatchPermits;
+
+    @Value("${payment.rate-limit.account.capacity:50}")
+    private long accountCapacity;
+
+    @Value("${payment.rate-limit.account.refill-per-second:20}")
+    private double accountRefillPerSecond;
+
+    @Value("${payment.rate-limit.lease-size:10}")
+    private long leaseSize;
+
+    @Value("${payment.rate-limit.lease-ms:1000}")
+    private long leaseMillis;
+
+    @Value("${payment.rate-limit.max-tracked-keys:100000}")
+    private long maxTrackedKeys;
+
+    private final Map<Scope, Quota> quotas = new EnumMap<>(Scope.class);
+    private Cache<String, Lease> leases;
+
+    private record Quota(long capacity, double refillPerMilli, Counter allowed, Counter rejected,
+            Counter failedOpen, Timer redisTimer) {
+    }
+
+    // Guarded by lock
+    private static final class Lease {
+        final ReentrantLock lock = new ReentrantLock();
+        long tokens;
+        long expiresAt;     // leased tokens are not handed out after this, but returned
+        long blockedUntil;  // bucket was empty: reject locally until then
+        long takenAt;       // last successful take from Redis, 0 = never
+        long used;          // permits admitted since takenAt
+    }
+
+    @PostConstruct
+    void init() {
+        // Idle tenants fall out, so memory follows the active keys, not every key ever seen
+        leases = Caffeine.newBuilder()
+                .maximumSize(maxTrackedKeys)
+                .expireAfterAccess(Duration.ofMinutes(1))
+                .build();
+        quotas.put(Scope.API_KEY, quota(Scope.API_KEY, apiKeyCapacity, apiKeyRefillPerSecond));
+        quotas.put(Scope.ACCOUNT, quota(Scope.ACCOUNT, accountCapacity, accountRefillPerSecond));
+    }
+
+    private Quota quota(Scope scope, long capacity, double refillPerSecond) {
+        return new Quota(capacity, refillPerSecond / 1000,
+                Counter.builder("payment.ratelimit.requests").tag("scope", scope.label()).tag("result", "allowed")
+                        .register(meterRegistry),
+                Counter.builder("payment.ratelimit.requests").tag("scope", scope.label()).tag("result", "rejected")
+                        .register(meterRegistry),
+                Counter.builder("payment.ratelimit.requests").tag("scope", scope.label()).tag("result", "failed_open")
+                        .register(meterRegistry),
+                Timer.builder("payment.ratelimit.redis").tag("scope", scope.label())
+                        .description("Token lease round-trips; allowed - count = decided in memory")
+                        .register(meterRegistry));
+    }
+
+    public void checkAllowed(Scope scope, String id, int permits) {
+        long retryAfterSeconds = rejectFor(scope, id, permits);
+        if (retryAfterSeconds > 0) {
+            throw new RateLimitExceededException(scope.label(), id, retryAfterSeconds);
+        }
+    }
+
+    // POST /batch against its API key: one token per item, but never more than batch-permits
+    // (nor the key's burst), so a batch of any allowed size can get in. The items themselves are
+    // limited one by one per source account in processPayments.
+    public void checkBatchAllowed(String apiKey, int items) {
+        int permits = (int) Math.min(items, Math.min(apiKeyBatchPermits, apiKeyCapacity));
+        if (permits > 0) checkAllowed(Scope.API_KEY, apiKey, permits);
+    }
+
+    // 0 = admitted (permits taken), otherwise seconds until the bucket has them again
+    public long rejectFor(Scope scope, String id, int permits) {
+        if (!enabled || id == null) return 0;
+        Quota quota = quotas.get(scope);
+        if (permits > quota.capacity()) {
+            throw new PaymentException(permits + " payments exceed the " + scope.label()
+                    + " burst limit of " + quota.capacity());
+        }
+
+        Lease lease = leases.get(scope.label() + ":" + id, key -> new Lease());
+        long waitMillis;
+        lease.lock.lock();
+        try {
+            waitMillis = take(scope, id, quota, lease, permits);
+        } finally {
+            lease.lock.unlock();
+        }
+
+        if (waitMillis > 0) {
+            quota.rejected().increment();
+            return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(waitMillis + 999));
+        }
+        quota.allowed().increment();
+        return 0;
+    }
+
+    // Runs under lease.lock; returns 0 or the ms to wait
+    private long take(Scope scope, String id, Quota quota, Lease lease, int permits) {
+        long now = System.currentTimeMillis();
+        boolean expired = now >= lease.expiresAt;
+        if (!expired && lease.tokens >= permits) {
+            lease.tokens -= permits;
+            lease.used += permits;
+            return 0;
+        }
+        if (now < lease.blockedUntil) return lease.blockedUntil - now;
+
+        // Expired leftovers go back to the bucket with this take, unexpired ones are spent first
+        long held = expired ? 0 : lease.tokens;
+        long returned = expired ? lease.tokens : 0;
+        long needed = permits - held;
+        long chunk = Math.min(expectedDemand(lease, now), Math.min(leaseSize, quota.capacity()));
+        List<?> reply;
+        try {
+            reply = quota.redisTimer().recordCallable(() -> stringRedisTemplate.execute(TAKE_SCRIPT,
+                    List.of(KEY_PREFIX + scope.label() + ":" + id),
+                    String.valueOf(quota.capacity()), String.valueOf(quota.refillPerMilli()),
+                    String.valueOf(needed), String.valueOf(Math.min(needed + chunk, quota.capacity())),
+                    String.valueOf(now), String.valueOf(returned)));
+        } catch (Exception e) {
+            // Redis down: admit at the lease rate instead of rejecting everyone or calling Redis per request
+            log.warn("Rate limit check failed for {} {}, admitting locally", scope.label(), id, e);
+            quota.failedOpen().increment();
+            lease.tokens = Math.max(0, held + Math.min(leaseSize, quota.capacity()) - permits);
+            lease.expiresAt = now + leaseMillis;
+            return 0;
+        }
+
+        long taken = ((Number) reply.get(0)).longValue();
+        if (taken == 0) {
+            lease.tokens = held;
+            long waitMillis = Math.max(1, ((Number) reply.get(1)).longValue());
+            // Only remember the wait for single payments, a batch needs longer than the next one
+            if (permits == 1) lease.blockedUntil = now + waitMillis;
+            return waitMillis;
+        }
+        lease.tokens = held + taken - permits;
+        lease.expiresAt = now + leaseMillis;
+        lease.takenAt = now;
+        lease.used = permits;
+        return 0;
+    }
+
+    // Permits this node is likely to hand out for the key over the next lease-ms, from what it
+    // handed out since its last take; 0 when the key saw no use here for two lease periods
+    private long expectedDemand(Lease lease, long now) {
+        long elapsed = now - lease.takenAt;
+        if (lease.takenAt == 0 || elapsed >= 2 * leaseMillis) return 0;
+        return (lease.used * leaseMillis + Math.max(elapsed, 1) - 1) / Math.max(elapsed, 1);
+    }
+}
@@ -0,0 +1,180 @@
+package com.paymenttech.PaymentProcessor.service;
+
+
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+//    Hashed timing wheel for delayed payment-retry sends
+//
+//    wheel-size buckets, one per tick (tick-ms). A retry due in d ms goes into bucket
+//    (now + d) / tick % wheel-size, with "rounds" = how many full turns to wait first.
+//    One worker thread advances a tick at a time and only looks at the current bucket,
+//    so the cost per tick is the number of retries in that bucket, not all pending ones.
+//
+//    - schedule() never blocks: it appends to a lock-free queue the worker drains each tick
+//    - memory is one small object per pending retry, no thread or timer per retry
+//    - firing error is at most one tick (default 100ms); ticks are computed from the
+//      start time, so they don't drift when a tick runs long
+//    Pending retries live in memory only: the payment stays RETRY_SCHEDULED in the DB if
+//    the node goes down before they fire.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RetryScheduler {
+    
+    private final PaymentProducer paymentProducer;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${payment.retry.tick-ms:100}")
+    private long tickMillis;
+    
+    // Power of two; with 100ms ticks 512 buckets cover ~51s per turn
+    @Value("${payment.retry.wheel-size:512}")
+    private int wheelSize;
+    
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    
+    // Worker thread only
+    private ArrayDeque<Timeout>[] buckets;
+    private int mask;
+    private long tickNanos;
+    private long tick;
+    
+    private volatile long startNanos;
+    private volatile boolean running;
+    private Thread worker;
+    private Counter fired;
+    private Timer firingDelay;
+    
+    private static final class Timeout {
+        final PaymentEvent event;
+        final long deadlineNanos;   // relative to startNanos
+        long remainingRounds;
+        
+        Timeout(PaymentEvent event, long deadlineNanos) {
+            this.event = event;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+    
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    void start() {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalStateException("payment.retry.wheel-size must be a power of two, got " + wheelSize);
+        }
+        buckets = new ArrayDeque[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        mask = wheelSize - 1;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        
+        Gauge.builder("payment.retry.pending", pending, AtomicInteger::get)
+                .description("Retries waiting in the timing wheel")
+                .register(meterRegistry);
+        fired = Counter.builder("payment.retry.fired").register(meterRegistry);
+        // How late a retry went out compared to its due time (bounded by one tick)
+        firingDelay = Timer.builder("payment.retry.firing.delay")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        
+        startNanos = System.nanoTime();
+        running = true;
+        worker = new Thread(this::run, "payment-retry-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(5));
+        if (pending.get() > 0) {
+            log.warn("Retry scheduler stopped with {} pending retries (payments stay RETRY_SCHEDULED)", pending.get());
+        }
+    }
+    
+    // Sends the event to payment-retry once delayMillis has passed
+    public void schedule(PaymentEvent event, long delayMillis) {
+        long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        incoming.add(new Timeout(event, deadline));
+        pending.incrementAndGet();
+    }
+    
+    public int pendingCount() {
+        return pending.get();
+    }
+    
+    private void run() {
+        while (running) {
+            long tickDeadline = (tick + 1) * tickNanos;
+            if (!waitUntil(tickDeadline)) break;
+            
+            transferIncoming();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+    
+    private boolean waitUntil(long deadline) {
+        long sleep;
+        while ((sleep = deadline - (System.nanoTime() - startNanos)) > 0) {
+            LockSupport.parkNanos(this, sleep);
+            if (!running) return false;
+        }
+        return true;
+    }
+    
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            long dueTick = timeout.deadlineNanos / tickNanos;
+            timeout.remainingRounds = (dueTick - tick) / wheelSize;
+            // Already due → current bucket, never one we've passed
+            long bucketTick = Math.max(dueTick, tick);
+            buckets[(int) (bucketTick & mask)].add(timeout);
+        }
+    }
+    
+    private void expire(ArrayDeque<Timeout> bucket) {
+        for (int n = bucket.size(); n > 0; n--) {
+            Timeout timeout = bucket.poll();
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.add(timeout);
+                continue;
+            }
+            pending.decrementAndGet();
+            fired.increment();
+            firingDelay.record(Math.max(0, System.nanoTime() - startNanos - timeout.deadlineNanos), TimeUnit.NANOSECONDS);
+            try {
+                // Async send; only blocks if the producer buffer is full (max.block.ms)
+                paymentProducer.publishToRetryTopic(timeout.event);
+            } catch (Exception e) {
+                log.error("Failed to send retry for payment {}", timeout.event.getTransactionId(), e);
+            }
+        }
+    }
+}
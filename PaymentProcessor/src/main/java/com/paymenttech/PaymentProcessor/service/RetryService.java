@@ -2,12 +2,23 @@ package com.paymenttech.PaymentProcessor.service;
 
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
 import com.paymenttech.PaymentProcessor.domain.Transaction;
 import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
 import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
@@ -23,51 +34,119 @@ public class RetryService {
 	
     private final TransactionRepository transactionRepository;
     private final PaymentProducer paymentProducer;
+    private final RetryScheduler retryScheduler;
     
-    private static final int MAX_RETRIES = 5;
-    private static final long BACKOFF_DELAY = 1000; // milliseconds
+    // Delay before retry 1, 2, ...; the number of entries is the retry limit.
+    // After the last one the payment goes to payment-dlq.
+    @Value("${payment.retry.delays-ms:1000,5000,30000,120000,300000}")
+    private long[] retryDelaysMillis;
     
-    @Retryable(
-        retryFor = Exception.class,
-        maxAttempts = 3,
-        backoff = @Backoff(delay = BACKOFF_DELAY, multiplier = 2)
-    )
-    public void processPaymentWithRetry(PaymentEvent event) {
-        try {
-            paymentProducer.publishPaymentEvent(event);
-            log.info("Payment processed successfully Retry: {}", event.getTransactionId());
-        } catch (Exception e) {
-            log.error("Payment processing failed: {}", event.getTransactionId(), e);
-            scheduleRetry(event);
-            throw e;
+    // Called by the failure handlers inside their transaction.
+    // Bumps Transaction.retryCount and schedules the resend in the timing wheel, or sends the
+    // payment to the DLQ once the retries are used up. Kafka sends happen only after commit,
+    // so a rolled back failure handler never leaves a retry or DLQ record behind.
+    // failureReasons: transactionId → reason.
+    // Returns the transactionIds that got a retry; the others are exhausted.
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Set<String> scheduleRetries(List<Payment> failed, Map<String, String> failureReasons) {
+        if (failed.isEmpty()) return Set.of();
+        
+        List<String> paymentIds = new ArrayList<>(failed.size());
+        for (Payment payment : failed) {
+            paymentIds.add(payment.getId());
+        }
+        Map<String, Transaction> transactions = new HashMap<>();
+        for (Transaction transaction : transactionRepository.findByPaymentIdIn(paymentIds)) {
+            transactions.put(transaction.getPaymentId(), transaction);
         }
-    }
-    
-    private void scheduleRetry(PaymentEvent event) {
-        Transaction transaction = transactionRepository.findByPaymentId(event.getTransactionId())
-            .orElse(Transaction.builder()
-                .paymentId(event.getTransactionId())
-                .retryCount(0)
-                .createdAt(LocalDateTime.now())
-                .lastRetryAt(LocalDateTime.now())
-                .build());
         
-        if (transaction.getRetryCount() < MAX_RETRIES) {
-            transaction.setRetryCount(transaction.getRetryCount() + 1);
-            transaction.setLastRetryAt(LocalDateTime.now());
-            transaction.setErrorLog(transaction.getErrorLog() + "\n[Retry " + transaction.getRetryCount() + "]");
-            transactionRepository.save(transaction);
+        LocalDateTime now = LocalDateTime.now();
+        Set<String> retried = new HashSet<>();
+        List<Transaction> updated = new ArrayList<>(failed.size());
+        List<PaymentEvent> retries = new ArrayList<>();
+        List<Long> delays = new ArrayList<>();
+        List<PaymentEvent> exhausted = new ArrayList<>();
+        
+        for (Payment payment : failed) {
+            String reason = failureReasons.get(payment.getTransactionId());
+            Transaction transaction = transactions.computeIfAbsent(payment.getId(), paymentId -> Transaction.builder()
+                    .paymentId(paymentId)
+                    .retryCount(0)
+                    .createdAt(now)
+                    .lastRetryAt(now)
+                    .build());
+            
+            int attempt = transaction.getRetryCount() + 1;
+            transaction.setErrorLog((transaction.getErrorLog() == null ? "" : transaction.getErrorLog() + "\n")
+                    + "[" + now + "] attempt " + transaction.getRetryCount() + ": " + reason);
             
-            long delayMs = BACKOFF_DELAY * (long) Math.pow(2, transaction.getRetryCount() - 1);
-            log.info("Scheduled retry {} for payment {} after {} ms", 
-                transaction.getRetryCount(), event.getTransactionId(), delayMs);
-        } else {
-            log.error("Max retries exceeded for payment: {}", event.getTransactionId());
-            paymentProducer.publishToDLQ(event);
+            if (attempt <= retryDelaysMillis.length) {
+                transaction.setRetryCount(attempt);
+                transaction.setLastRetryAt(now);
+                retries.add(toEvent(payment, attempt, reason, PaymentStatus.RETRY_SCHEDULED));
+                delays.add(retryDelaysMillis[attempt - 1]);
+                retried.add(payment.getTransactionId());
+            } else {
+                transaction.setResolvedAt(now);
+                exhausted.add(toEvent(payment, transaction.getRetryCount(), reason, PaymentStatus.FAILED));
+            }
+            updated.add(transaction);
         }
+        transactionRepository.saveAll(updated);
+        
+        afterCommit(() -> {
+            for (int i = 0; i < retries.size(); i++) {
+                retryScheduler.schedule(retries.get(i), delays.get(i));
+            }
+            for (PaymentEvent event : exhausted) {
+                log.error("Max retries exceeded for payment: {}", event.getTransactionId());
+                paymentProducer.publishToDLQ(event);
+            }
+        });
+        log.info("Scheduled {} payment retries, {} exhausted", retries.size(), exhausted.size());
+        return retried;
     }
     
-    public List<Transaction> getPendingRetries() {
-        return transactionRepository.findByResolvedAtIsNull();
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean scheduleRetry(Payment payment, String reason) {
+        return !scheduleRetries(List.of(payment), Map.of(payment.getTransactionId(), reason)).isEmpty();
+    }
+    
+    // One keyset page of open transactions, oldest lastRetryAt first; pass the last row of the
+    // previous page (null for the first). Same keyset order PaymentSweeper walks.
+    public List<Transaction> getPendingRetries(Transaction after, int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime from = after != null ? after.getLastRetryAt()
+                : transactionRepository.findOldestUnresolved().orElse(now);
+        return transactionRepository.findUnresolvedAfter(from, now, from, after != null ? after.getId() : "",
+                Limit.of(limit));
+    }
+    
+    private static PaymentEvent toEvent(Payment payment, int retryCount, String reason, PaymentStatus status) {
+        return PaymentEvent.builder()
+                .transactionId(payment.getTransactionId())
+                .idempotencyKey(payment.getIdempotencyKey())
+                .amount(payment.getAmount())
+                .currency(payment.getCurrency())
+                .sourceAccount(payment.getSourceAccount())
+                .destinationAccount(payment.getDestinationAccount())
+                .status(status)
+                .timestamp(LocalDateTime.now())
+                .retryCount(retryCount)
+                .failureReason(reason)
+                .build();
+    }
+    
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,35 @@
 package com.paymenttech.PaymentProcessor;
 
+import java.io.IOException;
+
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+
+import redis.embedded.RedisServer;
 
+// Closed after the class instead of from the JVM shutdown hook, so the listener containers have
+// stopped before surefire's fork exits
 @SpringBootTest
+@DirtiesContext
 class PaymentProcessorApplicationTests {
 
+	// The Redis pub/sub listener container subscribes on startup, so the context needs a live server.
+	// As a bean it is stopped only after the context has shut down its listeners and scheduled tasks
+	// (e.g. the outbox relay), which would otherwise block on a dead connection at exit.
+	@TestConfiguration
+	static class EmbeddedRedisConfig {
+
+		@Bean(destroyMethod = "stop")
+		RedisServer redisServer() throws IOException {
+			RedisServer redisServer = new RedisServer(6379);
+			redisServer.start();
+			return redisServer;
+		}
+	}
+
 	@Test
 	void contextLoads() {
 	}
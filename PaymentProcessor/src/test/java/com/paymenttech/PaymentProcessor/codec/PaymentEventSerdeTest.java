@@ -0,0 +1,67 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+class PaymentEventSerdeTest {
+
+	private static final String TOPIC = "payment-events";
+
+	private final PaymentEventBinarySerializer binarySerializer = new PaymentEventBinarySerializer();
+	private final PaymentEventDeserializer deserializer = new PaymentEventDeserializer();
+
+	private final PaymentEvent event = PaymentEvent.builder()
+			.transactionId("0b6f1f1e-6c1d-4b9e-9d3a-4f1e2b7c8d90")
+			.idempotencyKey("order-42-payout")
+			.amount(new BigDecimal("99.95"))
+			.currency("USD")
+			.sourceAccount("ACC-1001")
+			.destinationAccount("ACC-2002")
+			.status(PaymentStatus.PENDING)
+			.timestamp(LocalDateTime.of(2026, 3, 1, 12, 30, 15))
+			.retryCount(2)
+			.failureReason("Simulated processing failure")
+			.build();
+
+	@Test
+	void roundTripsBinaryFormat() {
+		byte[] bytes = binarySerializer.serialize(TOPIC, event);
+
+		assertThat(bytes[0]).isEqualTo(PaymentEventBinarySerializer.MAGIC);
+		assertThat(deserializer.deserialize(TOPIC, bytes)).isEqualTo(event);
+	}
+
+	@Test
+	void readsJsonRecordsFromTheSameTopic() {
+		try (JsonSerializer<PaymentEvent> jsonSerializer = new JsonSerializer<>()) {
+			assertThat(deserializer.deserialize(TOPIC, jsonSerializer.serialize(TOPIC, event))).isEqualTo(event);
+		}
+	}
+
+	@Test
+	void ignoresFieldsAppendedByNewerVersions() {
+		byte[] current = binarySerializer.serialize(TOPIC, event);
+		byte[] newer = Arrays.copyOf(current, current.length + 3);
+		newer[1] = PaymentEventBinarySerializer.VERSION + 1;
+		newer[current.length] = 0x7F;
+
+		assertThat(deserializer.deserialize(TOPIC, newer)).isEqualTo(event);
+	}
+
+	@Test
+	void isSmallerThanJson() {
+		try (JsonSerializer<PaymentEvent> jsonSerializer = new JsonSerializer<>()) {
+			assertThat(binarySerializer.serialize(TOPIC, event).length)
+					.isLessThan(jsonSerializer.serialize(TOPIC, event).length / 2);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.paymenttech.PaymentProcessor.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+
+class PaymentResponseRedisSerializerTest {
+
+	private final PaymentResponseRedisSerializer serializer = new PaymentResponseRedisSerializer();
+
+	private final PaymentResponse response = PaymentResponse.builder()
+			.transactionId("0b6f1f1e-6c1d-4b9e-9d3a-4f1e2b7c8d90")
+			.idempotencyKey("order-42-payout")
+			.amount(new BigDecimal("1250.75"))
+			.currency("EUR")
+			.status(PaymentStatus.SUCCESS)
+			.createdAt(LocalDateTime.of(2026, 3, 1, 12, 30, 15, 123_456_789))
+			.processedAt(LocalDateTime.of(2026, 3, 1, 12, 30, 16))
+			.message("Payment success")
+			.build();
+
+	@Test
+	void roundTripsBinaryLayout() {
+		byte[] bytes = serializer.serialize(response);
+
+		assertThat(bytes[0]).isEqualTo(PaymentResponseRedisSerializer.MAGIC);
+		assertThat(serializer.deserialize(bytes)).isEqualTo(response);
+	}
+
+	@Test
+	void roundTripsNullsAndLargeAmounts() {
+		PaymentResponse sparse = PaymentResponse.builder()
+				.transactionId("t-1")
+				.amount(new BigDecimal("123456789012345678901234567890.0001"))
+				.message("Zahlung über €")
+				.build();
+
+		assertThat(serializer.deserialize(serializer.serialize(sparse))).isEqualTo(sparse);
+	}
+
+	@Test
+	void readsEntriesWrittenByTheGenericJsonSerializer() {
+		GenericJackson2JsonRedisSerializer legacy = new GenericJackson2JsonRedisSerializer(JsonMapper.builder()
+				.addModule(new JavaTimeModule())
+				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+				.build());
+
+		assertThat(serializer.deserialize(legacy.serialize(response))).isEqualTo(response);
+	}
+
+	@Test
+	void readsEntriesWithClassTypeMetadata() {
+		byte[] typed = new GenericJackson2JsonRedisSerializer().serialize(PaymentResponse.builder()
+				.transactionId("t-2")
+				.status(PaymentStatus.PENDING)
+				.build());
+
+		assertThat(new String(typed)).contains("@class");
+		assertThat(serializer.deserialize(typed).getTransactionId()).isEqualTo("t-2");
+	}
+
+	@Test
+	void isSmallerThanJson() {
+		GenericJackson2JsonRedisSerializer legacy = new GenericJackson2JsonRedisSerializer(JsonMapper.builder()
+				.addModule(new JavaTimeModule())
+				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+				.build());
+
+		assertThat(serializer.serialize(response).length).isLessThan(legacy.serialize(response).length / 2);
+	}
+}
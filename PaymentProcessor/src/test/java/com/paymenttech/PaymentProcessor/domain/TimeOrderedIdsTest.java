@@ -0,0 +1,50 @@
+package com.paymenttech.PaymentProcessor.domain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class TimeOrderedIdsTest {
+
+	@Test
+	void idsAreVersion7AndIncreaseAsStringsAndAsBytes() {
+		long before = System.currentTimeMillis();
+		String previous = TimeOrderedIds.next();
+		// Far more than 4096 per millisecond: the counter has to roll over into the next millisecond
+		for (int i = 0; i < 20_000; i++) {
+			String id = TimeOrderedIds.next();
+			assertThat(id).isGreaterThan(previous);
+			assertThat(Arrays.compareUnsigned(TimeOrderedIds.toBytes(id), TimeOrderedIds.toBytes(previous))).isPositive();
+			previous = id;
+		}
+
+		UUID uuid = UUID.fromString(previous);
+		assertThat(uuid.version()).isEqualTo(7);
+		assertThat(uuid.variant()).isEqualTo(2);
+		assertThat(uuid.getMostSignificantBits() >>> 16).isGreaterThanOrEqualTo(before);
+		assertThat(TimeOrderedIds.fromBytes(TimeOrderedIds.toBytes(previous))).isEqualTo(previous);
+	}
+
+	@Test
+	void concurrentCallersNeverGetTheSameId() {
+		List<CompletableFuture<List<String>>> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(CompletableFuture.supplyAsync(() -> {
+				List<String> ids = new ArrayList<>();
+				for (int i = 0; i < 10_000; i++) ids.add(TimeOrderedIds.next());
+				return ids;
+			}));
+		}
+		Set<String> all = new HashSet<>();
+		threads.forEach(thread -> all.addAll(thread.join()));
+		assertThat(all).hasSize(40_000);
+	}
+}
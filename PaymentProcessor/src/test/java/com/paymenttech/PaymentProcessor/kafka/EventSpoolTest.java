@@ -0,0 +1,149 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class EventSpoolTest {
+
+	@TempDir
+	Path dir;
+
+	private EventSpool spool;
+
+	@AfterEach
+	void tearDown() {
+		if (spool != null) spool.close();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void replaysInOrderAcrossSegmentsAndRestarts() throws Exception {
+		spool = spool();
+		for (int i = 0; i < 30; i++) {
+			assertThat(spool.append("payment-retry", "acc-" + i, event("tx-" + i))).isTrue();
+		}
+		assertThat(segments()).isGreaterThan(1);
+
+		// Broker still away after the first two events of a round
+		KafkaTemplate<String, PaymentEvent> kafkaTemplate = mock(KafkaTemplate.class);
+		when(kafkaTemplate.send(anyString(), anyString(), any(PaymentEvent.class)))
+				.thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+		when(kafkaTemplate.send("payment-retry", "acc-0", event("tx-0"))).thenReturn(CompletableFuture.completedFuture(null));
+		when(kafkaTemplate.send("payment-retry", "acc-1", event("tx-1"))).thenReturn(CompletableFuture.completedFuture(null));
+		SpoolReplayer replayer = new SpoolReplayer(spool, kafkaTemplate, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(replayer, "batchSize", 10);
+		ReflectionTestUtils.setField(replayer, "replayTimeoutMillis", 1000L);
+		ReflectionTestUtils.setField(replayer, "maxAttempts", 10);
+		replayer.initMetrics();
+
+		assertThat(replayer.replayBatch()).isEqualTo(2);
+
+		// Then up to the middle of a later segment, the drained ones are deleted
+		List<EventSpool.Entry> batch = spool.read(20);
+		assertThat(batch).extracting(entry -> entry.event.getTransactionId()).startsWith("tx-2", "tx-3");
+		spool.commit(batch.get(19));
+		spool.close();
+
+		// Process restart: picks up from tx-22, new appends go behind it
+		spool = spool();
+		assertThat(spool.isEmpty()).isFalse();
+		spool.append("payment-dlq", null, event("tx-30"));
+		List<EventSpool.Entry> rest = spool.read(100);
+		assertThat(rest).extracting(entry -> entry.event.getTransactionId())
+				.containsExactly("tx-22", "tx-23", "tx-24", "tx-25", "tx-26", "tx-27", "tx-28", "tx-29", "tx-30");
+		assertThat(rest.get(0).key).isEqualTo("acc-22");
+		assertThat(rest.get(8).topic).isEqualTo("payment-dlq");
+		assertThat(rest.get(8).key).isNull();
+
+		spool.commit(rest.get(8));
+		assertThat(spool.isEmpty()).isTrue();
+		assertThat(segments()).isEqualTo(1);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void dropsAHeadEventKafkaKeepsRefusingButNotDuringAnOutage() throws Exception {
+		spool = spool();
+		for (int i = 0; i < 3; i++) {
+			spool.append("payment-retry", "acc-" + i, event("tx-" + i));
+		}
+		KafkaTemplate<String, PaymentEvent> kafkaTemplate = mock(KafkaTemplate.class);
+		when(kafkaTemplate.send(anyString(), anyString(), any(PaymentEvent.class)))
+				.thenReturn(CompletableFuture.failedFuture(new TimeoutException("no leader")));
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		SpoolReplayer replayer = new SpoolReplayer(spool, kafkaTemplate, meterRegistry);
+		ReflectionTestUtils.setField(replayer, "batchSize", 10);
+		ReflectionTestUtils.setField(replayer, "replayTimeoutMillis", 1000L);
+		ReflectionTestUtils.setField(replayer, "maxAttempts", 3);
+		replayer.initMetrics();
+
+		// Broker away: nothing is charged, however long it lasts
+		for (int round = 0; round < 5; round++) {
+			assertThat(replayer.replayBatch()).isZero();
+		}
+
+		// Broker back, but it refuses tx-0 itself
+		when(kafkaTemplate.send(anyString(), anyString(), any(PaymentEvent.class)))
+				.thenReturn(CompletableFuture.completedFuture(null));
+		when(kafkaTemplate.send("payment-retry", "acc-0", event("tx-0")))
+				.thenReturn(CompletableFuture.failedFuture(new RecordTooLargeException("too large")));
+		assertThat(replayer.replayBatch()).isZero();
+		assertThat(replayer.replayBatch()).isZero();
+		assertThat(replayer.replayBatch()).isEqualTo(1);
+		assertThat(meterRegistry.get("payment.spool.dropped").counter().count()).isEqualTo(1.0);
+
+		assertThat(replayer.replayBatch()).isEqualTo(2);
+		assertThat(spool.isEmpty()).isTrue();
+	}
+
+	private EventSpool spool() throws Exception {
+		EventSpool spool = new EventSpool(new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(spool, "enabled", true);
+		ReflectionTestUtils.setField(spool, "dir", dir.toString());
+		ReflectionTestUtils.setField(spool, "segmentBytes", 1024);
+		ReflectionTestUtils.setField(spool, "maxSegments", 64);
+		ReflectionTestUtils.setField(spool, "fsync", false);
+		spool.init();
+		return spool;
+	}
+
+	private long segments() throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+
+	private static PaymentEvent event(String transactionId) {
+		return PaymentEvent.builder()
+				.transactionId(transactionId)
+				.amount(new BigDecimal("10.00"))
+				.currency("EUR")
+				.sourceAccount("acc-src")
+				.destinationAccount("acc-dst")
+				.status(PaymentStatus.PENDING)
+				.build();
+	}
+}
@@ -0,0 +1,141 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.repository.OutboxEventRepository;
+import com.paymenttech.PaymentProcessor.service.OutboxService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OutboxRelayTest {
+
+	private final OutboxEventRepository repository = mock(OutboxEventRepository.class);
+	private final OutboxService outboxService = mock(OutboxService.class);
+	private final PaymentProducer producer = mock(PaymentProducer.class);
+	private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private OutboxRelay relay;
+
+	@BeforeEach
+	void setUp() {
+		relay = new OutboxRelay(repository, outboxService, producer, redis, meterRegistry);
+		ReflectionTestUtils.setField(relay, "batchSize", 3);
+		ReflectionTestUtils.setField(relay, "sendTimeoutMillis", 1000L);
+		ReflectionTestUtils.setField(relay, "leaseMillis", 30000L);
+		ReflectionTestUtils.setField(relay, "maxAttempts", 3);
+		relay.initMetrics();
+		when(redis.execute(ArgumentMatchers.<RedisScript<Long>>any(), anyList(), anyString(), anyString())).thenReturn(1L);
+	}
+
+	@Test
+	void deletesEveryAcknowledgedRow() {
+		List<OutboxEvent> batch = List.of(row(1), row(2), row(3));
+		when(repository.findByOrderByIdAsc(any(Pageable.class))).thenReturn(batch);
+		PaymentEvent first = event("tx-1");
+		PaymentEvent second = event("tx-2");
+		PaymentEvent third = event("tx-3");
+		when(outboxService.decode(batch.get(0))).thenReturn(first);
+		when(outboxService.decode(batch.get(1))).thenReturn(second);
+		when(outboxService.decode(batch.get(2))).thenReturn(third);
+		when(producer.sendPaymentEvent(first)).thenReturn(CompletableFuture.completedFuture(null));
+		when(producer.sendPaymentEvent(second)).thenReturn(CompletableFuture.failedFuture(new TimeoutException("no leader")));
+		when(producer.sendPaymentEvent(third)).thenReturn(CompletableFuture.completedFuture(null));
+
+		assertThat(relay.relayBatch()).isEqualTo(2);
+
+		// Event 2 stays for the next round, one strike since the others went through
+		verify(repository).deleteByIdIn(List.of(1L, 3L));
+		verify(repository).incrementAttemptsByIdIn(List.of(2L));
+		verify(producer).flush();
+	}
+
+	@Test
+	void parksAPoisonRowInsteadOfResendingItForever() {
+		OutboxEvent poison = row(1);
+		poison.setAttempts(2);
+		when(repository.findByOrderByIdAsc(any(Pageable.class))).thenReturn(List.of(poison, row(2)));
+		when(outboxService.decode(poison)).thenThrow(new SerializationException("corrupt payload"));
+		when(producer.sendPaymentEvent(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+		assertThat(relay.relayBatch()).isEqualTo(2);
+
+		verify(outboxService).park(eq(List.of(poison)), any());
+		assertThat(meterRegistry.get("payment.outbox.relay.events").tag("result", "parked").counter().count())
+				.isEqualTo(1.0);
+	}
+
+	@Test
+	void anOutageChargesNobody() {
+		when(repository.findByOrderByIdAsc(any(Pageable.class))).thenReturn(List.of(row(1), row(2)));
+		when(outboxService.decode(any())).thenReturn(event("tx"));
+		when(producer.sendPaymentEvent(any())).thenReturn(CompletableFuture.failedFuture(new TimeoutException("no leader")));
+
+		assertThat(relay.relayBatch()).isZero();
+
+		verify(repository, never()).incrementAttemptsByIdIn(anyList());
+		verify(outboxService, never()).park(anyList(), any());
+	}
+
+	@Test
+	void depthComesFromTheRelayLoopNotFromAQueryPerScrape() {
+		List<OutboxEvent> batch = List.of(row(1), row(2));
+		when(repository.findByOrderByIdAsc(any(Pageable.class))).thenReturn(batch);
+		when(producer.sendPaymentEvent(any())).thenReturn(CompletableFuture.completedFuture(null));
+		when(outboxService.decode(batch.get(1))).thenReturn(event("tx-2"));
+		when(outboxService.decode(batch.get(0))).thenReturn(event("tx-1"));
+		when(producer.sendPaymentEvent(event("tx-2")))
+				.thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+		relay.relayBatch();
+
+		// A partial batch is the whole outbox: one row left, no COUNT(*)
+		assertThat(meterRegistry.get("payment.outbox.depth").gauge().value()).isEqualTo(1.0);
+		verify(repository, never()).count();
+	}
+
+	@Test
+	void skipsRoundWithoutLease() {
+		when(redis.execute(ArgumentMatchers.<RedisScript<Long>>any(), anyList(), anyString(), anyString())).thenReturn(0L);
+
+		relay.relay();
+
+		verify(repository, never()).findByOrderByIdAsc(any(Pageable.class));
+	}
+
+	private static OutboxEvent row(long id) {
+		return OutboxEvent.builder()
+				.id(id)
+				.transactionId("tx-" + id)
+				.payload(new byte[0])
+				.createdAt(LocalDateTime.now())
+				.build();
+	}
+
+	private static PaymentEvent event(String transactionId) {
+		return PaymentEvent.builder().transactionId(transactionId).build();
+	}
+}
@@ -0,0 +1,112 @@
+package com.paymenttech.PaymentProcessor.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+class RedeliveryFilterTest {
+
+	private static final int PORT = 6395;
+	private static final String TOPIC = "payment-events";
+	private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 3);
+
+	private static RedisServer redisServer;
+	private static LettuceConnectionFactory connectionFactory;
+	private static StringRedisTemplate redis;
+
+	@BeforeAll
+	static void startRedis() throws IOException {
+		redisServer = new RedisServer(PORT);
+		redisServer.start();
+		connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+		connectionFactory.afterPropertiesSet();
+		redis = new StringRedisTemplate(connectionFactory);
+	}
+
+	@AfterAll
+	static void stopRedis() throws IOException {
+		connectionFactory.destroy();
+		redisServer.stop();
+	}
+
+	@BeforeEach
+	void setUp() {
+		redis.getConnectionFactory().getConnection().serverCommands().flushAll();
+	}
+
+	@Test
+	void nextOwnerDropsWhatThePreviousOneAppliedButDidNotCommit() {
+		RedeliveryFilter node1 = filter();
+		Consumer<?, ?> consumer1 = consumer(0L, 100L);
+		node1.onPartitionsAssigned(consumer1, List.of(PARTITION));
+		for (int offset = 0; offset < 5; offset++) {
+			assertThat(node1.isDuplicate(TOPIC, 3, offset, "tx-" + offset)).isFalse();
+			node1.markApplied(TOPIC, 3, offset, "tx-" + offset);
+		}
+		assertThat(node1.memoryBytes()).isPositive().isLessThan(64 * 1024);
+
+		// Same transactionId appended again further down the log
+		assertThat(node1.isDuplicate(TOPIC, 3, 9, "tx-2")).isTrue();
+		assertThat(node1.isDuplicate(TOPIC, 3, 9, "tx-9")).isFalse();
+
+		// Rebalance: only offset 2 got committed, 3 and 4 come back on node 2
+		node1.onPartitionsRevokedAfterCommit(consumer1, List.of(PARTITION));
+		assertThat(node1.memoryBytes()).isZero();
+
+		RedeliveryFilter node2 = filter();
+		node2.onPartitionsAssigned(consumer(3L, 100L), List.of(PARTITION));
+		assertThat(node2.isDuplicate(TOPIC, 3, 3, "tx-3")).isTrue();
+		assertThat(node2.isDuplicate(TOPIC, 3, 4, "tx-4")).isTrue();
+		assertThat(node2.isDuplicate(TOPIC, 3, 5, "tx-5")).isFalse();
+	}
+
+	@Test
+	void ignoresAWatermarkBeyondTheEndOfTheLog() {
+		redis.opsForValue().set("payment:consumer:applied:" + TOPIC + ":3", "500");
+
+		// Topic re-created: the stored watermark belongs to the old log
+		RedeliveryFilter filter = filter();
+		filter.onPartitionsAssigned(consumer(0L, 20L), List.of(PARTITION));
+
+		assertThat(filter.isDuplicate(TOPIC, 3, 0, "tx-0")).isFalse();
+	}
+
+	private static RedeliveryFilter filter() {
+		RedeliveryFilter filter = new RedeliveryFilter(redis, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(filter, "enabled", true);
+		ReflectionTestUtils.setField(filter, "filterCapacity", 1000);
+		ReflectionTestUtils.setField(filter, "filterFpp", 0.0001);
+		ReflectionTestUtils.setField(filter, "filterWindowMillis", 240_000L);
+		ReflectionTestUtils.setField(filter, "watermarkTtlMillis", 60_000L);
+		filter.init();
+		return filter;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Consumer<?, ?> consumer(long committed, long end) {
+		Consumer<String, Object> consumer = mock(Consumer.class);
+		when(consumer.committed(anySet())).thenReturn(Map.of(PARTITION, new OffsetAndMetadata(committed)));
+		when(consumer.endOffsets(anyCollection())).thenReturn(Map.of(PARTITION, end));
+		return consumer;
+	}
+}
@@ -0,0 +1,87 @@
+package com.paymenttech.PaymentProcessor.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import com.paymenttech.PaymentProcessor.config.JpaConfig;
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.domain.TimeOrderedIds;
+import com.paymenttech.PaymentProcessor.domain.Transaction;
+
+@DataJpaTest
+@Import(JpaConfig.class)
+@TestPropertySource(properties = "payment.ids.storage=binary")
+class BinaryIdStorageTest {
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private TransactionRepository transactionRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void storesIdsAsSixteenBytesAndKeepsTheStringApi() {
+		LocalDateTime now = LocalDateTime.now();
+		String transactionId = TimeOrderedIds.next();
+		Payment payment = paymentRepository.save(Payment.builder()
+				.idempotencyKey("binary-1")
+				.transactionId(transactionId)
+				.amount(new BigDecimal("3.00"))
+				.currency("EUR")
+				.sourceAccount("ACC-1")
+				.destinationAccount("ACC-2")
+				.status(PaymentStatus.PENDING)
+				.createdAt(now)
+				.description("Binary id test")
+				.build());
+		Transaction transaction = transactionRepository.save(Transaction.builder()
+				.paymentId(payment.getId())
+				.retryCount(0)
+				.createdAt(now.minusHours(1))
+				.lastRetryAt(now.minusHours(1))
+				.build());
+		entityManager.flush();
+		entityManager.clear();
+
+		assertThat(jdbcTemplate.queryForList("SELECT COLUMN_NAME, DATA_TYPE, CHARACTER_OCTET_LENGTH "
+				+ "FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME IN ('PAYMENTS', 'TRANSACTIONS') "
+				+ "AND COLUMN_NAME IN ('ID', 'TRANSACTION_ID', 'PAYMENT_ID')"))
+				.hasSize(4)
+				.allSatisfy(column -> {
+					assertThat(column.get("DATA_TYPE")).isEqualTo("BINARY");
+					assertThat(column.get("CHARACTER_OCTET_LENGTH")).isEqualTo(16L);
+				});
+
+		assertThat(paymentRepository.findByTransactionId(transactionId).orElseThrow().getId()).isEqualTo(payment.getId());
+		assertThat(paymentRepository.findByTransactionId("not-a-uuid")).isEmpty();
+		// Keyset start "" = lowest id
+		List<Transaction> open = transactionRepository.findUnresolvedAfter(now.minusDays(1), now, now.minusDays(1), "",
+				Limit.of(10));
+		assertThat(open).extracting(Transaction::getId).containsExactly(transaction.getId());
+
+		Payment settled = paymentRepository.transition(transactionId, PaymentStatus.SUCCESS, null, now).orElseThrow();
+		assertThat(settled.getId()).isEqualTo(payment.getId());
+		assertThat(settled.getTransactionId()).isEqualTo(transactionId);
+		// Resolved through the payment_id join of the transition
+		assertThat(transactionRepository.markResolvedByPaymentIdIn(List.of(payment.getId()), now)).isZero();
+	}
+}
@@ -0,0 +1,97 @@
+package com.paymenttech.PaymentProcessor.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.domain.Transaction;
+
+@DataJpaTest
+class PaymentTransitionsTest {
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private TransactionRepository transactionRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Test
+	void appliesLegalTransitionsOnceAndReturnsTheUpdatedRow() {
+		LocalDateTime createdAt = LocalDateTime.now().minusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+		Payment saved = paymentRepository.saveAndFlush(payment("tx-1", createdAt));
+		transactionRepository.saveAndFlush(Transaction.builder()
+				.paymentId(saved.getId())
+				.retryCount(0)
+				.createdAt(createdAt)
+				.lastRetryAt(createdAt)
+				.build());
+
+		LocalDateTime processedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+		Payment claimed = paymentRepository.transition("tx-1", PaymentStatus.RETRY_SCHEDULED, "declined", processedAt)
+				.orElseThrow();
+		assertThat(claimed.getStatus()).isEqualTo(PaymentStatus.RETRY_SCHEDULED);
+		assertThat(claimed.getFailureReason()).isEqualTo("declined");
+		assertThat(claimed.getCreatedAt()).isEqualTo(createdAt);
+		assertThat(claimed.getAmount()).isEqualByComparingTo("12.50");
+
+		assertThat(paymentRepository.transition("tx-1", PaymentStatus.SUCCESS, null, processedAt)).isPresent();
+		// Terminal: a late failure or a duplicate success matches nothing
+		assertThat(paymentRepository.transition("tx-1", PaymentStatus.FAILED, "late", processedAt)).isEmpty();
+		assertThat(paymentRepository.transition("tx-1", PaymentStatus.SUCCESS, null, processedAt)).isEmpty();
+		assertThat(paymentRepository.transition("tx-unknown", PaymentStatus.SUCCESS, null, processedAt)).isEmpty();
+
+		// transition() bypasses the persistence context, drop the copy saved above
+		entityManager.clear();
+		Payment stored = paymentRepository.findByTransactionId("tx-1").orElseThrow();
+		assertThat(stored.getStatus()).isEqualTo(PaymentStatus.SUCCESS);
+		assertThat(stored.getFailureReason()).isNull();
+		assertThat(stored.getProcessedAt()).isEqualTo(processedAt);
+		assertThat(stored.getVersion()).isEqualTo(saved.getVersion() + 2);
+		// Entering SUCCESS closed the Transaction in the same call
+		assertThat(transactionRepository.findByPaymentId(saved.getId()).orElseThrow().getResolvedAt()).isEqualTo(processedAt);
+	}
+
+	@Test
+	void batchReturnsOnlyThePaymentsItMoved() {
+		LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+		paymentRepository.saveAndFlush(payment("tx-2", now));
+		paymentRepository.saveAndFlush(payment("tx-3", now));
+		paymentRepository.transition("tx-3", PaymentStatus.SUCCESS, null, now);
+
+		List<Payment> moved = paymentRepository.transitionAll(List.of("tx-2", "tx-3", "tx-unknown"),
+				PaymentStatus.FAILED, "declined", now);
+
+		assertThat(moved).extracting(Payment::getTransactionId).containsExactly("tx-2");
+		assertThat(moved.get(0).getStatus()).isEqualTo(PaymentStatus.FAILED);
+		entityManager.clear();
+		assertThat(paymentRepository.findByTransactionId("tx-2").orElseThrow().getStatus()).isEqualTo(PaymentStatus.FAILED);
+		assertThat(paymentRepository.findByTransactionId("tx-3").orElseThrow().getStatus()).isEqualTo(PaymentStatus.SUCCESS);
+	}
+
+	private static Payment payment(String transactionId, LocalDateTime createdAt) {
+		return Payment.builder()
+				.idempotencyKey("key-" + transactionId)
+				.transactionId(transactionId)
+				.amount(new BigDecimal("12.50"))
+				.currency("USD")
+				.sourceAccount("ACC-1")
+				.destinationAccount("ACC-2")
+				.status(PaymentStatus.PENDING)
+				.createdAt(createdAt)
+				.description("Transition test")
+				.build();
+	}
+}
@@ -0,0 +1,135 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.listener.ConsumerSeekAware.ConsumerSeekCallback;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AccountLedgerTest {
+
+	private static final String TOPIC = "payment-settled";
+	private static final int PARTITIONS = 4;
+
+	@TempDir
+	Path snapshots;
+
+	private final Map<Integer, Long> nextOffset = new HashMap<>();
+
+	@Test
+	void appliesEachSideOnceAndRestartsFromTheSnapshot() {
+		AccountLedger ledger = ledger();
+		ledger.onPartitionsAssigned(assignment(), mock(ConsumerSeekCallback.class));
+
+		// Enough accounts to grow the per-shard tables a few times
+		for (int i = 0; i < 200; i++) {
+			settle(ledger, "tx-" + i, "acc-" + i, "acc-" + (i + 1), "10.00");
+		}
+		List<ConsumerRecord<String, PaymentEvent>> last = settle(ledger, "tx-last", "acc-0", "acc-200", "2.50");
+		// Re-delivered after an error seek, and re-sent further down the log by the outbox relay
+		ledger.onSettled(last.get(0));
+		ledger.onSettled(record(last.get(1).key(), last.get(1).value()));
+
+		assertThat(ledger.balance("acc-0", "EUR")).contains(new BigDecimal("-12.50"));
+		assertThat(ledger.balance("acc-100", "EUR")).contains(new BigDecimal("0.00"));
+		assertThat(ledger.balance("acc-200", "EUR")).contains(new BigDecimal("12.50"));
+		assertThat(ledger.balance("acc-0", "USD")).contains(new BigDecimal("0.00"));
+
+		// Container stop: every shard writes its snapshot
+		ledger.onPartitionsRevoked(assignment().keySet());
+		assertThat(ledger.balance("acc-0", "EUR")).isEmpty();
+
+		AccountLedger restarted = ledger();
+		ConsumerSeekCallback callback = mock(ConsumerSeekCallback.class);
+		restarted.onPartitionsAssigned(assignment(), callback);
+		for (int partition = 0; partition < PARTITIONS; partition++) {
+			verify(callback).seek(TOPIC, partition, nextOffset.get(partition));
+		}
+		assertThat(restarted.balance("acc-0", "EUR")).contains(new BigDecimal("-12.50"));
+		assertThat(restarted.balance("acc-200", "EUR")).contains(new BigDecimal("12.50"));
+
+		// The dedup window survives the restart too
+		restarted.onSettled(record(last.get(0).key(), last.get(0).value()));
+		assertThat(restarted.balance("acc-0", "EUR")).contains(new BigDecimal("-12.50"));
+	}
+
+	@Test
+	void aRecordThatFailsIsNotMarkedApplied() {
+		LedgerShard shard = new LedgerShard(0, 16, 1000);
+		PaymentEvent huge = PaymentEvent.builder()
+				.transactionId("tx-1")
+				.amount(new BigDecimal("1e30"))
+				.currency("EUR")
+				.sourceAccount("acc-1")
+				.destinationAccount("acc-2")
+				.status(PaymentStatus.SUCCESS)
+				.build();
+
+		assertThatThrownBy(() -> shard.apply(0, "acc-1", huge)).isInstanceOf(ArithmeticException.class);
+		assertThat(shard.appliedOffset()).isEqualTo(-1);
+
+		// Redelivered: neither the offset nor the dedup window skips it
+		huge.setAmount(new BigDecimal("5.00"));
+		assertThat(shard.apply(0, "acc-1", huge)).isTrue();
+		assertThat(shard.appliedOffset()).isZero();
+		assertThat(shard.balance("acc-1", "EUR")).isEqualTo(-500);
+	}
+
+	private AccountLedger ledger() {
+		AccountLedger ledger = new AccountLedger(new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(ledger, "partitions", PARTITIONS);
+		ReflectionTestUtils.setField(ledger, "snapshotDir", snapshots.toString());
+		ReflectionTestUtils.setField(ledger, "snapshotIntervalMillis", 3_600_000L);
+		ReflectionTestUtils.setField(ledger, "expectedAccounts", 16);
+		ReflectionTestUtils.setField(ledger, "dedupWindow", 1000);
+		ledger.init();
+		return ledger;
+	}
+
+	private static Map<TopicPartition, Long> assignment() {
+		Map<TopicPartition, Long> assignment = new HashMap<>();
+		for (int partition = 0; partition < PARTITIONS; partition++) {
+			assignment.put(new TopicPartition(TOPIC, partition), 0L);
+		}
+		return assignment;
+	}
+
+	// What OutboxService.appendSettled publishes: one record per side, on the account's shard
+	private List<ConsumerRecord<String, PaymentEvent>> settle(AccountLedger ledger, String transactionId,
+			String source, String destination, String amount) {
+		PaymentEvent event = PaymentEvent.builder()
+				.transactionId(transactionId)
+				.amount(new BigDecimal(amount))
+				.currency("EUR")
+				.sourceAccount(source)
+				.destinationAccount(destination)
+				.status(PaymentStatus.SUCCESS)
+				.build();
+		List<ConsumerRecord<String, PaymentEvent>> records = List.of(record(source, event), record(destination, event));
+		records.forEach(ledger::onSettled);
+		return records;
+	}
+
+	private ConsumerRecord<String, PaymentEvent> record(String account, PaymentEvent event) {
+		int partition = AccountLedger.shardOf(account, PARTITIONS);
+		long offset = nextOffset.merge(partition, 1L, Long::sum) - 1;
+		return new ConsumerRecord<>(TOPIC, partition, offset, account, event);
+	}
+}
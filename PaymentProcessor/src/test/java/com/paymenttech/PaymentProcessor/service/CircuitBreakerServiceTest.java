@@ -0,0 +1,137 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.paymenttech.PaymentProcessor.domain.CircuitState;
+import com.paymenttech.PaymentProcessor.exception.CircuitOpenException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+class CircuitBreakerServiceTest {
+
+	private static final int PORT = 6390;
+
+	private static RedisServer redisServer;
+	private static LettuceConnectionFactory connectionFactory;
+	private static StringRedisTemplate redis;
+
+	private CircuitBreakerService breaker;
+
+	@BeforeAll
+	static void startRedis() throws IOException {
+		redisServer = new RedisServer(PORT);
+		redisServer.start();
+		connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+		connectionFactory.afterPropertiesSet();
+		redis = new StringRedisTemplate(connectionFactory);
+	}
+
+	@AfterAll
+	static void stopRedis() throws IOException {
+		connectionFactory.destroy();
+		redisServer.stop();
+	}
+
+	@BeforeEach
+	void setUp() {
+		redis.getConnectionFactory().getConnection().serverCommands().flushAll();
+		breaker = new CircuitBreakerService(redis, mock(RedisMessageListenerContainer.class), new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(breaker, "enabled", true);
+		ReflectionTestUtils.setField(breaker, "windowSeconds", 60L);
+		ReflectionTestUtils.setField(breaker, "bucketSeconds", 10L);
+		ReflectionTestUtils.setField(breaker, "failureRateThreshold", 0.5);
+		ReflectionTestUtils.setField(breaker, "minimumCalls", 10L);
+		ReflectionTestUtils.setField(breaker, "openSeconds", 1L);
+		ReflectionTestUtils.setField(breaker, "halfOpenCalls", 3);
+		breaker.init();
+	}
+
+	@Test
+	void opensOnFailureRateAndClosesAfterSuccessfulTrials() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			breaker.recordFailure("ACC-1");
+			breaker.recordSuccess("ACC-2");
+		}
+		breaker.flushAndEvaluate();
+
+		assertThatThrownBy(() -> breaker.checkAllowed("ACC-1")).isInstanceOf(CircuitOpenException.class);
+		assertThat(breaker.rejectFor("ACC-2")).isZero();
+		assertThat(breaker.getStatus("ACC-1").getCalls()).isEqualTo(10);
+
+		Thread.sleep(1100);
+
+		// HALF_OPEN: only the trial permits get through
+		for (int i = 0; i < 3; i++) {
+			assertThat(breaker.rejectFor("ACC-1")).isZero();
+		}
+		assertThat(breaker.rejectFor("ACC-1")).isPositive();
+
+		// The 10 failures still in the window must not decide the trial
+		for (int i = 0; i < 3; i++) {
+			breaker.recordSuccess("ACC-1");
+		}
+		breaker.flushAndEvaluate();
+
+		assertThat(breaker.rejectFor("ACC-1")).isZero();
+		assertThat(breaker.getTransitions()).extracting("state")
+				.containsExactly(CircuitState.CLOSED, CircuitState.OPEN);
+	}
+
+	@Test
+	void staysClosedAfterTheTrialWhenTheNextPaymentSucceeds() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			breaker.recordFailure("ACC-5");
+		}
+		breaker.flushAndEvaluate();
+		Thread.sleep(1100);
+		for (int i = 0; i < 3; i++) {
+			breaker.rejectFor("ACC-5");
+			breaker.recordSuccess("ACC-5");
+		}
+		breaker.flushAndEvaluate();
+		assertThat(breaker.rejectFor("ACC-5")).isZero();
+
+		// Back to window evaluation: the failures that opened it are gone with it
+		breaker.recordSuccess("ACC-5");
+		breaker.flushAndEvaluate();
+
+		assertThat(breaker.rejectFor("ACC-5")).isZero();
+		assertThat(breaker.getStatus("ACC-5").getCalls()).isEqualTo(1);
+		assertThat(breaker.getTransitions()).extracting("state")
+				.containsExactly(CircuitState.CLOSED, CircuitState.OPEN);
+	}
+
+	@Test
+	void staysClosedBelowMinimumCalls() {
+		for (int i = 0; i < 9; i++) {
+			breaker.recordFailure("ACC-3");
+		}
+		breaker.flushAndEvaluate();
+
+		assertThat(breaker.rejectFor("ACC-3")).isZero();
+		assertThat(breaker.getOpenBreakers()).isEmpty();
+	}
+
+	@Test
+	void loadsOpenStateOnStartup() {
+		redis.opsForHash().put("payment:cb:open", "ACC-4", String.valueOf(System.currentTimeMillis() + 60_000));
+
+		breaker.init();
+
+		assertThat(breaker.rejectFor("ACC-4")).isPositive();
+	}
+}
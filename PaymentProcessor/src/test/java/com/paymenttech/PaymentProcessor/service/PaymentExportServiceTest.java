@@ -0,0 +1,106 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paymenttech.PaymentProcessor.config.JacksonConfig;
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+
+@DataJpaTest
+@Import({ PaymentExportService.class, JacksonConfig.class })
+@TestPropertySource(properties = "payment.export.page-size=7")
+class PaymentExportServiceTest {
+
+	private static final LocalDateTime DAY = LocalDateTime.of(2026, 10, 17, 0, 0);
+
+	@Autowired
+	private PaymentExportService exportService;
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@BeforeEach
+	void setUp() {
+		List<Payment> payments = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			// Pairs share a createdAt, so pages have to break ties on id
+			payments.add(payment("key-" + i, i % 3 == 0 ? PaymentStatus.FAILED : PaymentStatus.SUCCESS,
+					DAY.plusMinutes(i / 2)));
+		}
+		payments.add(payment("next-day", PaymentStatus.SUCCESS, DAY.plusDays(1)));
+		paymentRepository.saveAll(payments);
+	}
+
+	@Test
+	void exportsEveryRowOnceAcrossPagesAndResumes() throws IOException {
+		List<JsonNode> rows = ndjson(null);
+
+		assertThat(rows).hasSize(20);
+		assertThat(rows).extracting(row -> row.get("idempotencyKey").asText()).doesNotHaveDuplicates();
+		assertThat(rows).allMatch(row -> row.get("status").asText().equals("SUCCESS"));
+
+		// Resume behind row 9 (mid-page, inside a createdAt tie or not)
+		JsonNode last = rows.get(9);
+		List<JsonNode> rest = ndjson(last.get("createdAt").asText() + "," + last.get("id").asText());
+		assertThat(rest).extracting(row -> row.get("id").asText())
+				.containsExactlyElementsOf(rows.subList(10, 20).stream().map(row -> row.get("id").asText()).toList());
+	}
+
+	@Test
+	void quotesCsvFields() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = exportService.export(PaymentStatus.FAILED, DAY, DAY.plusDays(1), null,
+				PaymentExportService.Format.CSV, out);
+
+		String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+		assertThat(written).isEqualTo(10);
+		assertThat(lines).hasSize(11);
+		assertThat(lines[0]).startsWith("id,transactionId,");
+		assertThat(lines[1]).endsWith(",\"Invoice \"\"42\"\", part 1\"");
+	}
+
+	private List<JsonNode> ndjson(String after) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exportService.export(PaymentStatus.SUCCESS, DAY, DAY.plusDays(1), after, PaymentExportService.Format.NDJSON, out);
+		List<JsonNode> rows = new ArrayList<>();
+		for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+			if (!line.isEmpty()) rows.add(objectMapper.readTree(line));
+		}
+		return rows;
+	}
+
+	private static Payment payment(String key, PaymentStatus status, LocalDateTime createdAt) {
+		return Payment.builder()
+				.idempotencyKey(key)
+				.transactionId("tx-" + key)
+				.amount(new BigDecimal("12.50"))
+				.currency("USD")
+				.sourceAccount("ACC-1")
+				.destinationAccount("ACC-2")
+				.status(status)
+				.createdAt(createdAt)
+				.description("Invoice \"42\", part 1")
+				.build();
+	}
+}
@@ -0,0 +1,127 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.paymenttech.PaymentProcessor.domain.OutboxEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.dto.PaymentRequest;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+import com.paymenttech.PaymentProcessor.repository.TransactionRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentServiceAsyncTest {
+
+	private static final long OUTBOX_ID = 7L;
+
+	private PaymentRepository paymentRepository;
+	private IdempotencyService idempotencyService;
+	private OutboxService outboxService;
+	private PaymentProducer paymentProducer;
+	private CompletableFuture<SendResult<String, PaymentEvent>> ack;
+	private PaymentServiceImpl paymentService;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() {
+		paymentRepository = mock(PaymentRepository.class);
+		when(paymentRepository.saveAndFlush(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		idempotencyService = mock(IdempotencyService.class);
+		when(idempotencyService.reserve(anyString(), any())).thenReturn(Optional.empty());
+		TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+		when(transactionTemplate.execute(any()))
+				.thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+		outboxService = mock(OutboxService.class);
+		when(outboxService.append(any())).thenReturn(OutboxEvent.builder().id(OUTBOX_ID).build());
+		ack = new CompletableFuture<>();
+		paymentProducer = mock(PaymentProducer.class);
+		when(paymentProducer.sendPaymentEvent(any())).thenReturn(ack);
+
+		paymentService = new PaymentServiceImpl(paymentRepository, mock(TransactionRepository.class), idempotencyService,
+				mock(CacheService.class), null, transactionTemplate, outboxService, null,
+				mock(CircuitBreakerService.class), mock(RateLimitService.class), null,
+				new PaymentMetrics(new SimpleMeterRegistry()), mock(PaymentStatsService.class), paymentProducer,
+				null);
+		ReflectionTestUtils.setField(paymentService, "ackMode", PaymentServiceImpl.AckMode.BROKER);
+		ReflectionTestUtils.setField(paymentService, "brokerAckTimeoutMillis", 200L);
+		ReflectionTestUtils.setField(paymentService, "pipelineThreads", 2);
+		ReflectionTestUtils.setField(paymentService, "pipelineQueueCapacity", 10);
+		paymentService.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		paymentService.shutdown();
+	}
+
+	@Test
+	void brokerModeCompletesOnTheAckAndDropsTheOutboxRow() throws Exception {
+		CompletableFuture<PaymentResponse> response = paymentService.processPaymentAsync(request("key-1"));
+
+		verify(paymentProducer, timeout(1000)).sendPaymentEvent(any());
+		assertThat(response).isNotDone();
+
+		ack.complete(null);
+		assertThat(response.get(1, TimeUnit.SECONDS).getMessage()).isEqualTo("Payment initiated, event published");
+		verify(outboxService, timeout(1000)).remove(OUTBOX_ID);
+	}
+
+	@Test
+	void failedAckLeavesTheEventToTheRelay() throws Exception {
+		CompletableFuture<PaymentResponse> response = paymentService.processPaymentAsync(request("key-2"));
+		ack.completeExceptionally(new TimeoutException("no leader"));
+
+		PaymentResponse accepted = response.get(1, TimeUnit.SECONDS);
+		assertThat(accepted.getTransactionId()).isNotNull();
+		assertThat(accepted.getMessage()).isEqualTo("Payment initiated, event queued for publishing");
+		verify(outboxService, never()).remove(anyLong());
+	}
+
+	@Test
+	void unrelatedConstraintViolationReleasesTheKey() {
+		DataIntegrityViolationException violation = new DataIntegrityViolationException("fk_transactions_payment");
+		when(paymentRepository.saveAndFlush(any())).thenThrow(violation);
+		when(idempotencyService.findPersistedResult("key-3")).thenReturn(Optional.empty());
+
+		CompletableFuture<PaymentResponse> response = paymentService.processPaymentAsync(request("key-3"));
+
+		assertThatThrownBy(() -> response.get(1, TimeUnit.SECONDS)).hasCause(violation);
+		verify(idempotencyService).release("key-3");
+	}
+
+	private static PaymentRequest request(String idempotencyKey) {
+		return PaymentRequest.builder()
+				.idempotencyKey(idempotencyKey)
+				.amount(new BigDecimal("25.00"))
+				.currency("EUR")
+				.sourceAccount("acc-1")
+				.destinationAccount("acc-2")
+				.build();
+	}
+}
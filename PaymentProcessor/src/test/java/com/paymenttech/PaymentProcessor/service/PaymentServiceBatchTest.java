@@ -0,0 +1,135 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.BatchPaymentResponse;
+import com.paymenttech.PaymentProcessor.dto.PaymentRequest;
+import com.paymenttech.PaymentProcessor.dto.PaymentOutcome;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+import com.paymenttech.PaymentProcessor.repository.TransactionRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+
+class PaymentServiceBatchTest {
+
+	private final PaymentRepository paymentRepository = mock(PaymentRepository.class);
+	private final IdempotencyService idempotencyService = mock(IdempotencyService.class);
+	private final CacheService cacheService = mock(CacheService.class);
+	private final RateLimitService rateLimitService = mock(RateLimitService.class);
+	private final PaymentStatsService paymentStatsService = mock(PaymentStatsService.class);
+	private final PaymentResponse inFlight = PaymentResponse.builder().transactionId("tx-concurrent").build();
+	private PaymentServiceImpl paymentService;
+
+	@BeforeEach
+	void setUp() {
+		when(paymentRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+		// key-1 is held by a concurrent request, key-2 and key-3 are ours
+		when(idempotencyService.reserveAll(anyMap())).thenReturn(Map.of("key-1", inFlight));
+		when(rateLimitService.rejectFor(RateLimitService.Scope.ACCOUNT, "acc-limited", 1)).thenReturn(5L);
+
+		paymentService = new PaymentServiceImpl(paymentRepository, mock(TransactionRepository.class), idempotencyService,
+				cacheService, mock(EntityManager.class), null, mock(OutboxService.class),
+				mock(RetryService.class), mock(CircuitBreakerService.class), rateLimitService, mock(PaymentStatusNotifier.class),
+				new PaymentMetrics(new SimpleMeterRegistry()), paymentStatsService, mock(PaymentProducer.class),
+				null);
+		ReflectionTestUtils.setField(paymentService, "maxBatchSize", 100);
+		ReflectionTestUtils.setField(paymentService, "jdbcBatchSize", 20);
+		TransactionSynchronizationManager.initSynchronization();
+	}
+
+	@AfterEach
+	void tearDown() {
+		TransactionSynchronizationManager.clear();
+	}
+
+	@Test
+	void concurrentKeyIsAPerItemDuplicateAndCachingWaitsForCommit() {
+		BatchPaymentResponse response = paymentService.processPayments(
+				List.of(request("key-1", "acc-1"), request("key-2", "acc-1"), request("key-3", "acc-limited")));
+
+		assertThat(response.getAccepted()).isEqualTo(1);
+		assertThat(response.getDuplicates()).isEqualTo(1);
+		assertThat(response.getResults().get(0).getPayment()).isSameAs(inFlight);
+		assertThat(response.getResults().get(2).getError()).startsWith("Too many payments");
+		verify(cacheService, never()).cachePayments(anyMap());
+
+		complete(TransactionSynchronization.STATUS_COMMITTED);
+
+		PaymentResponse accepted = response.getResults().get(1).getPayment();
+		verify(cacheService).cachePayments(Map.of("key-2", accepted));
+		verify(idempotencyService).releaseAll(Set.of("key-3"));
+	}
+
+	@Test
+	void rollbackReleasesEveryReservationAndCachesNothing() {
+		paymentService.processPayments(
+				List.of(request("key-1", "acc-1"), request("key-2", "acc-1"), request("key-3", "acc-limited")));
+
+		complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+		verify(cacheService, never()).cachePayments(any());
+		verify(idempotencyService).releaseAll(Set.of("key-2", "key-3"));
+	}
+
+	@Test
+	void settlesOnlyThePaymentsTheTransitionMoved() {
+		// tx-b was settled by another consumer between our poll and the UPDATE
+		Payment moved = Payment.builder().id("p-a").idempotencyKey("key-a").transactionId("tx-a")
+				.amount(new BigDecimal("25.00")).currency("EUR").sourceAccount("acc-1").destinationAccount("acc-2")
+				.status(PaymentStatus.SUCCESS).createdAt(LocalDateTime.now()).build();
+		when(paymentRepository.transitionAll(anyCollection(), eq(PaymentStatus.SUCCESS), isNull(), any()))
+				.thenReturn(List.of(moved));
+
+		paymentService.handlePaymentOutcomes(List.of(PaymentOutcome.success("tx-a", PaymentStatus.PENDING),
+				PaymentOutcome.success("tx-b", PaymentStatus.PENDING)));
+
+		verify(paymentStatsService).recordAfterCommit(List.of(new PaymentStatsService.Change(moved.getCreatedAt(),
+				"EUR", new BigDecimal("25.00"), PaymentStatus.PENDING, PaymentStatus.SUCCESS)));
+		verify(cacheService).refreshCachedPayments(
+				argThat(refreshed -> refreshed.keySet().equals(Set.of("key-a"))));
+	}
+
+	private static void complete(int status) {
+		TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(status));
+	}
+
+	private static PaymentRequest request(String idempotencyKey, String sourceAccount) {
+		return PaymentRequest.builder()
+				.idempotencyKey(idempotencyKey)
+				.amount(new BigDecimal("25.00"))
+				.currency("EUR")
+				.sourceAccount(sourceAccount)
+				.destinationAccount("acc-2")
+				.description("batch item")
+				.build();
+	}
+}
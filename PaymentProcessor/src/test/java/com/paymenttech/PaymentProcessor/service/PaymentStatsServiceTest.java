@@ -0,0 +1,157 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentStats;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+class PaymentStatsServiceTest {
+
+	private static final int PORT = 6393;
+
+	private static RedisServer redisServer;
+	private static LettuceConnectionFactory connectionFactory;
+	private static StringRedisTemplate redis;
+
+	private PaymentRepository paymentRepository;
+	private PaymentStatsService node1;
+	private PaymentStatsService node2;
+
+	@BeforeAll
+	static void startRedis() throws IOException {
+		redisServer = new RedisServer(PORT);
+		redisServer.start();
+		connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+		connectionFactory.afterPropertiesSet();
+		redis = new StringRedisTemplate(connectionFactory);
+	}
+
+	@AfterAll
+	static void stopRedis() throws IOException {
+		connectionFactory.destroy();
+		redisServer.stop();
+	}
+
+	@BeforeEach
+	void setUp() {
+		redis.getConnectionFactory().getConnection().serverCommands().flushAll();
+		paymentRepository = mock(PaymentRepository.class);
+		node1 = node();
+		node2 = node();
+	}
+
+	@Test
+	void sharesCountsAndSumsAcrossNodes() {
+		LocalDateTime now = LocalDateTime.now();
+		Payment usd = payment(PaymentStatus.PENDING, "USD", "10.25", now.minusMinutes(3));
+		Payment eur = payment(PaymentStatus.PENDING, "EUR", "5.00", now);
+
+		// Created on node 1, settled on node 2
+		node1.recordAfterCommit(List.of(PaymentStatsService.Change.created(usd), PaymentStatsService.Change.created(eur)));
+		node1.flush();
+		node2.recordAfterCommit(List.of(PaymentStatsService.Change.of(usd, PaymentStatus.SUCCESS)));
+
+		// node 2 sees its own unflushed change, node 1 only what is in Redis
+		assertThat(entries(node2.getStats(5))).containsExactly("PENDING EUR 1 5", "SUCCESS USD 1 10.25");
+		assertThat(entries(node1.getStats(5))).containsExactly("PENDING EUR 1 5", "PENDING USD 1 10.25");
+
+		node2.flush();
+		assertThat(entries(node1.getStats(5))).containsExactly("PENDING EUR 1 5", "SUCCESS USD 1 10.25");
+		// The USD payment was created 3 minutes ago
+		assertThat(entries(node1.getStats(2))).containsExactly("PENDING EUR 1 5");
+	}
+
+	@Test
+	void reconciliationRewritesDriftedBuckets() {
+		LocalDateTime created = LocalDateTime.now().minusMinutes(5);
+		Payment payment = payment(PaymentStatus.PENDING, "USD", "7.50", created);
+		node1.recordAfterCommit(List.of(PaymentStatsService.Change.created(payment)));
+		node1.flush();
+		// The settlement never made it to Redis (node crashed before flushing)
+
+		List<Object[]> settled = new ArrayList<>();
+		settled.add(new Object[] { PaymentStatus.SUCCESS, "USD", 1L, new BigDecimal("7.50") });
+		when(paymentRepository.sumByStatusAndCurrency(anyCollection(), any(), any())).thenReturn(List.of());
+		when(paymentRepository.sumByStatusAndCurrency(anyCollection(),
+				eq(created.withSecond(0).withNano(0)), any())).thenReturn(settled);
+
+		// First pass only notes the drift, the second finds it unchanged and rewrites
+		node2.reconcile();
+		assertThat(entries(node1.getStats(10))).containsExactly("PENDING USD 1 7.5");
+		node2.reconcile();
+
+		assertThat(entries(node1.getStats(10))).containsExactly("SUCCESS USD 1 7.5");
+	}
+
+	@Test
+	void reconciliationLeavesDeltasInFlightAlone() {
+		LocalDateTime created = LocalDateTime.now().minusMinutes(5);
+		Payment payment = payment(PaymentStatus.PENDING, "USD", "7.50", created);
+		node1.recordAfterCommit(List.of(PaymentStatsService.Change.created(payment)));
+		node1.flush();
+		// Settled on node 2, committed but not flushed yet when the reconciler counts
+		node2.recordAfterCommit(List.of(PaymentStatsService.Change.of(payment, PaymentStatus.SUCCESS)));
+
+		List<Object[]> settled = new ArrayList<>();
+		settled.add(new Object[] { PaymentStatus.SUCCESS, "USD", 1L, new BigDecimal("7.50") });
+		when(paymentRepository.sumByStatusAndCurrency(anyCollection(), any(), any())).thenReturn(List.of());
+		when(paymentRepository.sumByStatusAndCurrency(anyCollection(),
+				eq(created.withSecond(0).withNano(0)), any())).thenReturn(settled);
+
+		node1.reconcile();
+		node2.flush();
+		assertThat(entries(node1.getStats(10))).containsExactly("SUCCESS USD 1 7.5");
+
+		node1.reconcile();
+		assertThat(entries(node1.getStats(10))).containsExactly("SUCCESS USD 1 7.5");
+	}
+
+	private PaymentStatsService node() {
+		PaymentStatsService stats = new PaymentStatsService(paymentRepository, redis, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(stats, "retentionMinutes", 60);
+		ReflectionTestUtils.setField(stats, "reconcileMinutes", 15);
+		ReflectionTestUtils.setField(stats, "reconcileSweepMinutes", 15);
+		ReflectionTestUtils.setField(stats, "reconcileIntervalMillis", 60_000L);
+		stats.init();
+		return stats;
+	}
+
+	private static List<String> entries(PaymentStats stats) {
+		return stats.getEntries().stream()
+				.map(e -> e.getStatus() + " " + e.getCurrency() + " " + e.getCount() + " " + e.getAmount().toPlainString())
+				.toList();
+	}
+
+	private static Payment payment(PaymentStatus status, String currency, String amount, LocalDateTime createdAt) {
+		return Payment.builder()
+				.status(status)
+				.currency(currency)
+				.amount(new BigDecimal(amount))
+				.createdAt(createdAt)
+				.build();
+	}
+}
@@ -0,0 +1,115 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.dto.PaymentResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+class PaymentStatusNotifierTest {
+
+	private static final int PORT = 6392;
+
+	private static RedisServer redisServer;
+	private static LettuceConnectionFactory connectionFactory;
+	private static RedisMessageListenerContainer listenerContainer;
+	private static PaymentStatusNotifier publisher;
+	private static PaymentStatusNotifier subscriber;
+
+	@BeforeAll
+	static void start() throws Exception {
+		redisServer = new RedisServer(PORT);
+		redisServer.start();
+		connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+		connectionFactory.afterPropertiesSet();
+		listenerContainer = new RedisMessageListenerContainer();
+		listenerContainer.setConnectionFactory(connectionFactory);
+		listenerContainer.afterPropertiesSet();
+
+		// Two nodes: one settles the payment, the other holds the waiting request
+		publisher = node(new RedisMessageListenerContainer());
+		subscriber = node(listenerContainer);
+		listenerContainer.start();
+	}
+
+	@AfterAll
+	static void stop() throws Exception {
+		listenerContainer.destroy();
+		connectionFactory.destroy();
+		redisServer.stop();
+	}
+
+	@Test
+	void longPollCompletesWhenAnotherNodeSettlesThePayment() throws InterruptedException {
+		DeferredResult<ResponseEntity<PaymentResponse>> result =
+				subscriber.awaitSettled("tx-1", 30, () -> Optional.of(response("tx-1", PaymentStatus.PENDING)));
+		assertThat(result.hasResult()).isFalse();
+
+		// Not settled yet: keeps waiting
+		publisher.publishAfterCommit(List.of(response("tx-1", PaymentStatus.RETRY_SCHEDULED)));
+		Thread.sleep(200);
+		assertThat(result.hasResult()).isFalse();
+
+		publisher.publishAfterCommit(List.of(response("tx-2", PaymentStatus.SUCCESS), response("tx-1", PaymentStatus.SUCCESS)));
+		for (int i = 0; i < 50 && !result.hasResult(); i++) {
+			Thread.sleep(20);
+		}
+
+		@SuppressWarnings("unchecked")
+		ResponseEntity<PaymentResponse> settled = (ResponseEntity<PaymentResponse>) result.getResult();
+		assertThat(settled.getBody().getTransactionId()).isEqualTo("tx-1");
+		assertThat(settled.getBody().getStatus()).isEqualTo(PaymentStatus.SUCCESS);
+	}
+
+	@Test
+	void answersRightAwayWhenAlreadySettledOrUnknown() {
+		DeferredResult<ResponseEntity<PaymentResponse>> settled =
+				subscriber.awaitSettled("tx-3", 30, () -> Optional.of(response("tx-3", PaymentStatus.FAILED)));
+		DeferredResult<ResponseEntity<PaymentResponse>> unknown =
+				subscriber.awaitSettled("tx-4", 30, Optional::empty);
+
+		assertThat(((ResponseEntity<?>) settled.getResult()).getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(((ResponseEntity<?>) unknown.getResult()).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+	}
+
+	private static PaymentStatusNotifier node(RedisMessageListenerContainer container) {
+		PaymentStatusNotifier notifier = new PaymentStatusNotifier(new StringRedisTemplate(connectionFactory),
+				container, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(notifier, "maxWaitSeconds", 30L);
+		ReflectionTestUtils.setField(notifier, "sseTimeoutSeconds", 300L);
+		ReflectionTestUtils.setField(notifier, "maxSubscribers", 1000);
+		notifier.init();
+		return notifier;
+	}
+
+	private static PaymentResponse response(String transactionId, PaymentStatus status) {
+		return PaymentResponse.builder()
+				.transactionId(transactionId)
+				.idempotencyKey("key-" + transactionId)
+				.amount(new BigDecimal("10.00"))
+				.currency("USD")
+				.status(status)
+				.createdAt(LocalDateTime.now())
+				.message("Payment " + status.name().toLowerCase())
+				.build();
+	}
+}
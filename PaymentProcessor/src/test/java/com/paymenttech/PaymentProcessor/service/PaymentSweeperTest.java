@@ -0,0 +1,153 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.paymenttech.PaymentProcessor.domain.Payment;
+import com.paymenttech.PaymentProcessor.domain.PaymentStatus;
+import com.paymenttech.PaymentProcessor.domain.Transaction;
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
+import com.paymenttech.PaymentProcessor.repository.PaymentRepository;
+import com.paymenttech.PaymentProcessor.repository.TransactionRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+// Sweeps run on their own threads and transactions: test data is committed, not rolled back
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PaymentSweeperTest {
+
+	private static final int PORT = 6394;
+
+	private static RedisServer redisServer;
+	private static LettuceConnectionFactory connectionFactory;
+	private static StringRedisTemplate redis;
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private TransactionRepository transactionRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private PaymentProducer paymentProducer;
+
+	@BeforeAll
+	static void startRedis() throws IOException {
+		redisServer = new RedisServer(PORT);
+		redisServer.start();
+		connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+		connectionFactory.afterPropertiesSet();
+		redis = new StringRedisTemplate(connectionFactory);
+	}
+
+	@AfterAll
+	static void stopRedis() throws IOException {
+		connectionFactory.destroy();
+		redisServer.stop();
+	}
+
+	@BeforeEach
+	void setUp() {
+		paymentProducer = mock(PaymentProducer.class);
+		when(paymentProducer.sendPaymentEvent(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+		LocalDateTime now = LocalDateTime.now();
+		save("lost-event", PaymentStatus.PENDING, 0, now.minusHours(2));
+		save("lost-retry", PaymentStatus.RETRY_SCHEDULED, 2, now.minusMinutes(30));
+		save("settled", PaymentStatus.SUCCESS, 0, now.minusMinutes(20));
+		save("in-flight", PaymentStatus.PENDING, 0, now.minusMinutes(1));
+		for (int i = 0; i < 5; i++) {
+			save("lost-event-" + i, PaymentStatus.PENDING, 0, now.minusMinutes(40 + i));
+		}
+	}
+
+	@AfterEach
+	void cleanUp() {
+		transactionRepository.deleteAll();
+		paymentRepository.deleteAll();
+	}
+
+	@Test
+	void twoNodesSplitTheSweepAndClaimEachPaymentOnce() {
+		PaymentSweeper node1 = sweeper();
+		PaymentSweeper node2 = sweeper();
+
+		CompletableFuture<Integer> first = node1.sweepOnce();
+		CompletableFuture<Integer> second = node2.sweepOnce();
+		assertThat(first.join() + second.join()).isEqualTo(7);
+
+		ArgumentCaptor<PaymentEvent> retry = ArgumentCaptor.forClass(PaymentEvent.class);
+		verify(paymentProducer).publishToRetryTopic(retry.capture());
+		assertThat(retry.getValue().getTransactionId()).isEqualTo("tx-lost-retry");
+		assertThat(retry.getValue().getRetryCount()).isEqualTo(2);
+
+		// Settled payment: its transaction is closed instead of re-sent
+		Payment settled = paymentRepository.findByIdempotencyKey("settled").orElseThrow();
+		assertThat(transactionRepository.findByPaymentId(settled.getId()).orElseThrow().getResolvedAt()).isNotNull();
+
+		// Claimed rows are not due again before another stuck-after
+		assertThat(node1.sweepOnce().join()).isZero();
+	}
+
+	private PaymentSweeper sweeper() {
+		PaymentSweeper sweeper = new PaymentSweeper(transactionRepository, paymentRepository, paymentProducer, redis,
+				transactionManager, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(sweeper, "enabled", true);
+		ReflectionTestUtils.setField(sweeper, "stuckAfterMillis", 600_000L);
+		ReflectionTestUtils.setField(sweeper, "sliceMinutes", 15L);
+		ReflectionTestUtils.setField(sweeper, "chunkSize", 2);
+		ReflectionTestUtils.setField(sweeper, "parallelism", 3);
+		ReflectionTestUtils.setField(sweeper, "maxPerSecond", 10_000.0);
+		ReflectionTestUtils.setField(sweeper, "leaseMillis", 60_000L);
+		sweeper.init();
+		return sweeper;
+	}
+
+	private void save(String key, PaymentStatus status, int retryCount, LocalDateTime lastRetryAt) {
+		Payment payment = paymentRepository.save(Payment.builder()
+				.idempotencyKey(key)
+				.transactionId("tx-" + key)
+				.amount(new BigDecimal("10.00"))
+				.currency("USD")
+				.sourceAccount("ACC-1")
+				.destinationAccount("ACC-2")
+				.status(status)
+				.createdAt(lastRetryAt)
+				.description("Sweeper test")
+				.build());
+		transactionRepository.save(Transaction.builder()
+				.paymentId(payment.getId())
+				.retryCount(retryCount)
+				.createdAt(lastRetryAt)
+				.lastRetryAt(lastRetryAt)
+				.build());
+	}
+}
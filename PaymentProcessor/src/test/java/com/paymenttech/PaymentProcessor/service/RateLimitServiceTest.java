@@ -0,0 +1,136 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.paymenttech.PaymentProcessor.exception.PaymentException;
+import com.paymenttech.PaymentProcessor.exception.RateLimitExceededException;
+import com.paymenttech.PaymentProcessor.service.RateLimitService.Scope;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+class RateLimitServiceTest {
+
+	private static final int PORT = 6391;
+
+	private static RedisServer redisServer;
+	private static LettuceConnectionFactory connectionFactory;
+	private static StringRedisTemplate redis;
+
+	@BeforeAll
+	static void startRedis() throws IOException {
+		redisServer = new RedisServer(PORT);
+		redisServer.start();
+		connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+		connectionFactory.afterPropertiesSet();
+		redis = new StringRedisTemplate(connectionFactory);
+	}
+
+	@AfterAll
+	static void stopRedis() throws IOException {
+		connectionFactory.destroy();
+		redisServer.stop();
+	}
+
+	@BeforeEach
+	void flush() {
+		redis.getConnectionFactory().getConnection().serverCommands().flushAll();
+	}
+
+	@Test
+	void nodesShareOneBucket() {
+		RateLimitService first = node();
+		RateLimitService second = node();
+
+		int admitted = 0;
+		for (int i = 0; i < 10; i++) {
+			if (first.rejectFor(Scope.ACCOUNT, "ACC-1", 1) == 0) admitted++;
+			if (second.rejectFor(Scope.ACCOUNT, "ACC-1", 1) == 0) admitted++;
+		}
+
+		// Capacity 10 across both nodes' leases, the refill over the test run is negligible
+		assertThat(admitted).isEqualTo(10);
+		assertThatThrownBy(() -> first.checkAllowed(Scope.ACCOUNT, "ACC-1", 1))
+				.isInstanceOf(RateLimitExceededException.class)
+				.extracting("retryAfterSeconds").isEqualTo(1L);
+		// Another account is not affected
+		assertThat(first.rejectFor(Scope.ACCOUNT, "ACC-2", 1)).isZero();
+	}
+
+	@Test
+	void batchesAreAllOrNothing() {
+		RateLimitService node = node();
+
+		assertThat(node.rejectFor(Scope.API_KEY, "key-1", 8)).isZero();
+		assertThat(node.rejectFor(Scope.API_KEY, "key-1", 5)).isPositive();
+		assertThat(node.rejectFor(Scope.API_KEY, "key-1", 2)).isZero();
+		assertThatThrownBy(() -> node.rejectFor(Scope.API_KEY, "key-1", 11)).isInstanceOf(PaymentException.class);
+	}
+
+	@Test
+	void thinlySpreadTenantGetsItsWholeQuota() throws InterruptedException {
+		// 5 nodes, one payment each every 100 ms, arriving together: 50 req/s in bursts of 5
+		// against a 100/s quota with a burst of 10. A full lease per request (4 tokens, the
+		// rest dropped) would leave the third node of every burst without a token.
+		List<RateLimitService> nodes = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			nodes.add(node(100.0, 100L));
+		}
+
+		int rejected = 0;
+		for (int round = 0; round < 10; round++) {
+			for (RateLimitService node : nodes) {
+				if (node.rejectFor(Scope.API_KEY, "key-2", 1) > 0) rejected++;
+			}
+			Thread.sleep(100);
+		}
+
+		assertThat(rejected).isZero();
+	}
+
+	@Test
+	void maxSizeBatchGetsThroughWithDefaultQuotas() {
+		// application.yml defaults: burst 200 per key, payment.batch.max-size 5000
+		RateLimitService node = node(200L, 100.0, 1_000L);
+
+		node.checkBatchAllowed("key-3", 5000);
+		node.checkBatchAllowed("key-3", 5000);
+		assertThat(node.rejectFor(Scope.API_KEY, "key-3", 1)).isZero();
+	}
+
+	private static RateLimitService node() {
+		return node(0.01, 1_000L);
+	}
+
+	private static RateLimitService node(double apiKeyRefillPerSecond, long leaseMillis) {
+		return node(10L, apiKeyRefillPerSecond, leaseMillis);
+	}
+
+	private static RateLimitService node(long apiKeyCapacity, double apiKeyRefillPerSecond, long leaseMillis) {
+		RateLimitService service = new RateLimitService(redis, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(service, "enabled", true);
+		ReflectionTestUtils.setField(service, "apiKeyCapacity", apiKeyCapacity);
+		ReflectionTestUtils.setField(service, "apiKeyRefillPerSecond", apiKeyRefillPerSecond);
+		ReflectionTestUtils.setField(service, "apiKeyBatchPermits", 10);
+		ReflectionTestUtils.setField(service, "accountCapacity", 10L);
+		ReflectionTestUtils.setField(service, "accountRefillPerSecond", 1.0);
+		ReflectionTestUtils.setField(service, "leaseSize", 3L);
+		ReflectionTestUtils.setField(service, "leaseMillis", leaseMillis);
+		ReflectionTestUtils.setField(service, "maxTrackedKeys", 100L);
+		service.init();
+		return service;
+	}
+}
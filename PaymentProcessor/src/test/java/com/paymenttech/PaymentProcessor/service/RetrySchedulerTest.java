@@ -0,0 +1,96 @@
+package com.paymenttech.PaymentProcessor.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.paymenttech.PaymentProcessor.dto.PaymentEvent;
+import com.paymenttech.PaymentProcessor.kafka.PaymentProducer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RetrySchedulerTest {
+
+	private final PaymentProducer producer = mock(PaymentProducer.class);
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+	private final Map<String, Long> sentAt = new ConcurrentHashMap<>();
+	private RetryScheduler scheduler;
+
+	@BeforeEach
+	void setUp() {
+		doAnswer(invocation -> {
+			PaymentEvent event = invocation.getArgument(0);
+			sentAt.put(event.getTransactionId(), System.nanoTime());
+			sent.add(event.getTransactionId());
+			return null;
+		}).when(producer).publishToRetryTopic(any());
+
+		scheduler = new RetryScheduler(producer, new SimpleMeterRegistry());
+		// 8 x 10ms per turn, so the longer delays need several rounds
+		ReflectionTestUtils.setField(scheduler, "tickMillis", 10L);
+		ReflectionTestUtils.setField(scheduler, "wheelSize", 8);
+		scheduler.start();
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		scheduler.stop();
+	}
+
+	@Test
+	void firesInDeadlineOrderAndNeverEarly() throws InterruptedException {
+		long start = System.nanoTime();
+		scheduler.schedule(event("late"), 250);
+		scheduler.schedule(event("now"), 0);
+		scheduler.schedule(event("mid"), 120);
+		scheduler.schedule(event("soon"), 30);
+
+		waitFor(4);
+
+		assertThat(sent).containsExactly("now", "soon", "mid", "late");
+		assertThat(elapsedMillis(start, "soon")).isGreaterThanOrEqualTo(30);
+		assertThat(elapsedMillis(start, "mid")).isGreaterThanOrEqualTo(120);
+		assertThat(elapsedMillis(start, "late")).isBetween(250L, 400L);
+		assertThat(scheduler.pendingCount()).isZero();
+	}
+
+	@Test
+	void handlesManyPendingRetries() throws InterruptedException {
+		for (int i = 0; i < 20_000; i++) {
+			scheduler.schedule(event("tx-" + i), 500 + (i % 200));
+		}
+		assertThat(scheduler.pendingCount()).isEqualTo(20_000);
+
+		waitFor(20_000);
+
+		assertThat(scheduler.pendingCount()).isZero();
+	}
+
+	private void waitFor(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (sent.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(sent).hasSize(count);
+	}
+
+	private long elapsedMillis(long start, String transactionId) {
+		return TimeUnit.NANOSECONDS.toMillis(sentAt.get(transactionId) - start);
+	}
+
+	private static PaymentEvent event(String transactionId) {
+		return PaymentEvent.builder().transactionId(transactionId).build();
+	}
+}